@@ -4,8 +4,11 @@ import com.direwolf20.buildinggadgets.client.cache.CacheTemplateProvider;
 import com.direwolf20.buildinggadgets.client.events.EventTooltip;
 import com.direwolf20.buildinggadgets.client.models.ConstructionBakedModel;
 import com.direwolf20.buildinggadgets.common.containers.TemplateManagerContainer;
+import com.direwolf20.buildinggadgets.common.inventory.InventoryHelper;
+import com.direwolf20.buildinggadgets.common.network.PacketHandler;
 import com.direwolf20.buildinggadgets.common.registry.OurBlocks;
 import com.direwolf20.buildinggadgets.common.registry.Registries;
+import com.direwolf20.buildinggadgets.common.template.MaterialListCache;
 import com.direwolf20.buildinggadgets.common.tiles.ConstructionBlockTileEntity;
 import com.direwolf20.buildinggadgets.common.util.ref.Reference;
 import net.minecraft.block.BlockState;
@@ -30,9 +33,12 @@ import net.minecraftforge.client.event.TextureStitchEvent;
 import net.minecraftforge.client.model.data.IDynamicBakedModel;
 import net.minecraftforge.client.model.data.IModelData;
 import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.event.TickEvent.ClientTickEvent;
+import net.minecraftforge.event.TickEvent.Phase;
 import net.minecraftforge.event.entity.player.PlayerEvent.PlayerLoggedOutEvent;
 import net.minecraftforge.eventbus.api.IEventBus;
 import net.minecraftforge.fml.DeferredWorkQueue;
+import net.minecraftforge.fml.LogicalSide;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -48,6 +54,7 @@ public class ClientProxy {
         eventBus.addListener(ClientProxy::registerSprites);
         MinecraftForge.EVENT_BUS.addListener(EventTooltip::onDrawTooltip);
         MinecraftForge.EVENT_BUS.addListener(ClientProxy::onPlayerLoggedOut);
+        MinecraftForge.EVENT_BUS.addListener(ClientProxy::onClientTick);
 
         // @michaelhillcox: I have questions on why this is here
         Registries.clientSetup();
@@ -185,4 +192,18 @@ public class ClientProxy {
     private static void onPlayerLoggedOut(PlayerLoggedOutEvent event) {
         CACHE_TEMPLATE_PROVIDER.clear();
     }
+
+    private static void onClientTick(ClientTickEvent event) {
+        if (event.phase != Phase.END)
+            return;
+        //the client's state is only dropped once it is no longer connected, the server drops it per player on logout
+        if (Minecraft.getInstance().getConnection() == null) {
+            PacketHandler.getSplitManager().clearQueued(LogicalSide.CLIENT);
+            InventoryHelper.clearClientIndexes();
+            MaterialListCache.INSTANCE.clear(LogicalSide.CLIENT);
+        } else {
+            PacketHandler.getSplitManager().tick(LogicalSide.CLIENT);
+            MaterialListCache.INSTANCE.tick(LogicalSide.CLIENT);
+        }
+    }
 }
@@ -6,7 +6,9 @@ import com.direwolf20.buildinggadgets.common.network.packets.PacketRequestTempla
 import com.direwolf20.buildinggadgets.common.network.packets.SplitPacketUpdateTemplate;
 import com.direwolf20.buildinggadgets.common.template.ITemplateKey;
 import com.direwolf20.buildinggadgets.common.template.ITemplateProvider;
+import com.direwolf20.buildinggadgets.common.template.SimpleTemplateKey;
 import com.direwolf20.buildinggadgets.common.template.Template;
+import com.direwolf20.buildinggadgets.common.template.TemplateDiff;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import net.minecraftforge.fml.network.PacketDistributor;
@@ -14,6 +16,8 @@ import net.minecraftforge.fml.network.PacketDistributor.PacketTarget;
 import org.apache.logging.log4j.util.TriConsumer;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Set;
 import java.util.UUID;
@@ -22,8 +26,20 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
+/**
+ * Client side {@link ITemplateProvider}, caching the {@link Template Templates} received from the server. Requests report the
+ * {@link Template#getContentHash() content hash} of the cached {@link Template}, so that the server can answer with a
+ * {@link TemplateDiff} instead of the complete {@link Template}.
+ * <p>
+ * {@link Template Templates} are additionally deduplicated by their content hash: ids with equal {@link Template Templates} share
+ * one instance, and a {@link Template} announced for an id is only fetched, if no other id already provided it. As the hash may
+ * collide, an announced {@link Template} is only taken from another id if it's {@link Template#getContentDigest() digest} matches.
+ */
 public final class CacheTemplateProvider implements ITemplateProvider {
-    private final Cache<UUID, Template> cache;
+    private final Cache<UUID, CachedTemplate> cache;
+    private final Cache<Long, Template> templatesByHash;
+    //outlives the cached Templates, so that an expired id can be resolved from another id holding the same Template
+    private final Cache<UUID, Long> knownHashes;
     private final Set<IUpdateListener> updateListeners;
 
     public CacheTemplateProvider() {
@@ -31,6 +47,14 @@ public final class CacheTemplateProvider implements ITemplateProvider {
                 .newBuilder()
                 .expireAfterAccess(1, TimeUnit.MINUTES)
                 .build();
+        this.templatesByHash = CacheBuilder
+                .newBuilder()
+                .expireAfterAccess(1, TimeUnit.MINUTES)
+                .build();
+        this.knownHashes = CacheBuilder
+                .newBuilder()
+                .maximumSize(1024)
+                .build();
         this.updateListeners = Collections.newSetFromMap(new WeakHashMap<>());
     }
 
@@ -40,9 +64,15 @@ public final class CacheTemplateProvider implements ITemplateProvider {
         UUID id = getId(key);
         try {
             return cache.get(id, () -> {
-                requestUpdate(id, PacketDistributor.SERVER.noArg());
-                return new Template();
-            });
+                Long hash = knownHashes.getIfPresent(id);
+                Template shared = hash != null ? templatesByHash.getIfPresent(hash) : null;
+                if (shared != null) { //just make sure it is still up to date, usually the answer is empty
+                    PacketHandler.sendToServer(new PacketRequestTemplate(id, hash));
+                    return new CachedTemplate(shared, - 1);
+                }
+                PacketHandler.sendToServer(new PacketRequestTemplate(id));
+                return CachedTemplate.placeholder();
+            }).template;
         } catch (ExecutionException e) {
             BuildingGadgets.LOG.error("Failed to access Cache! Returning new Template, this is certainly going to cause unexpected behaviour!", e);
             return new Template();
@@ -52,10 +82,63 @@ public final class CacheTemplateProvider implements ITemplateProvider {
     @Override
     public void setTemplate(ITemplateKey key, Template template) {
         UUID id = getId(key);
-        cache.put(id, template);
+        CachedTemplate previous = cache.getIfPresent(id);
+        template = deduplicate(id, template);
+        cache.put(id, new CachedTemplate(template, previous != null ? previous.version : - 1));
         notifyListeners(key, template, l -> l::onTemplateUpdate);
     }
 
+    /**
+     * Called when the server announces the current version of a {@link Template}, or acknowledges that the cached one is up to date.
+     * Only requests the {@link Template}, if the cached one differs.
+     */
+    public void onRemoteVersion(UUID id, int version, long contentHash, byte[] contentDigest) {
+        CachedTemplate cached = cache.getIfPresent(id);
+        if (cached != null && ! cached.placeholder && cached.template.getContentHash() == contentHash) {
+            cached.version = Math.max(cached.version, version);
+            cached.awaitingUpdate = false;
+            if (cached.announcedVersion > cached.version) //a newer version was announced whilst waiting for this answer
+                request(id, cached);
+            return;
+        }
+        if (cached != null && cached.awaitingUpdate) { //just check the version once the pending answer arrives
+            cached.announcedVersion = Math.max(cached.announcedVersion, version);
+            return;
+        }
+        Template shared = templatesByHash.getIfPresent(contentHash);
+        if (shared != null && Arrays.equals(shared.getContentDigest(), contentDigest)) //another id already provided it
+            onRemoteUpdate(id, version, shared);
+        else
+            request(id, cached);
+    }
+
+    public void onRemoteUpdate(UUID id, int version, Template template) {
+        CachedTemplate cached = cache.getIfPresent(id);
+        if (cached != null && version < cached.version) //an older answer, which overtook a newer one
+            return;
+        template = deduplicate(id, template);
+        CachedTemplate updated = new CachedTemplate(template, version);
+        cache.put(id, updated);
+        notifyListeners(new SimpleTemplateKey(id), template, l -> l::onTemplateUpdate);
+        if (cached != null && cached.announcedVersion > version)
+            request(id, updated);
+    }
+
+    public void applyDiff(UUID id, int version, TemplateDiff diff) {
+        CachedTemplate cached = cache.getIfPresent(id);
+        if (cached == null || cached.placeholder || cached.template.getContentHash() != diff.getBaseHash()) {
+            requestComplete(id, cached);
+            return;
+        }
+        Template template = diff.applyTo(cached.template);
+        if (template.getContentHash() != diff.getTargetHash()) {
+            BuildingGadgets.LOG.debug("Applying diff to Template {} did not produce the expected result, requesting it completely.", id);
+            requestComplete(id, cached);
+            return;
+        }
+        onRemoteUpdate(id, version, template);
+    }
+
     @Override
     public boolean requestUpdate(ITemplateKey key) {
         return requestUpdate(key, PacketDistributor.SERVER.noArg());
@@ -67,14 +150,45 @@ public final class CacheTemplateProvider implements ITemplateProvider {
     }
 
     private boolean requestUpdate(UUID id, PacketTarget target) {
-        PacketHandler.send(new PacketRequestTemplate(id), target);
+        CachedTemplate cached = cache.getIfPresent(id);
+        PacketHandler.send(cached != null && ! cached.placeholder ? new PacketRequestTemplate(id, cached.template.getContentHash()) : new PacketRequestTemplate(id), target);
         return true;
     }
 
+    /**
+     * @return the instance already cached for the content hash of the given {@link Template}, or the given {@link Template} if
+     *         there is none
+     */
+    private Template deduplicate(UUID id, Template template) {
+        long hash = template.getContentHash();
+        knownHashes.put(id, hash);
+        Template existing = templatesByHash.getIfPresent(hash);
+        if (existing != null && existing != template && existing.hasSameBlocks(template))
+            return existing;
+        templatesByHash.put(hash, template);
+        return template;
+    }
+
+    private void request(UUID id, @Nullable CachedTemplate cached) {
+        if (cached == null || cached.placeholder)
+            requestComplete(id, cached);
+        else {
+            cached.awaitingUpdate = true;
+            PacketHandler.sendToServer(new PacketRequestTemplate(id, cached.template.getContentHash()));
+        }
+    }
+
+    private void requestComplete(UUID id, @Nullable CachedTemplate cached) {
+        if (cached != null)
+            cached.awaitingUpdate = true;
+        PacketHandler.sendToServer(new PacketRequestTemplate(id));
+    }
+
     @Override
     public boolean requestRemoteUpdate(ITemplateKey key, PacketTarget target) {
         UUID id = getId(key);
-        Template template = cache.getIfPresent(id);
+        CachedTemplate cached = cache.getIfPresent(id);
+        Template template = cached != null ? cached.template : null;
         if (template != null) {
             notifyListeners(key, template, l -> l::onTemplateUpdateSend);
             PacketHandler.getSplitManager().send(new SplitPacketUpdateTemplate(id, template), target);
@@ -109,6 +223,8 @@ public final class CacheTemplateProvider implements ITemplateProvider {
     public void clear() {
         this.cache.invalidateAll();
         this.cache.cleanUp();
+        this.templatesByHash.invalidateAll();
+        this.knownHashes.invalidateAll();
     }
 
     private void notifyListeners(ITemplateKey key, Template template, Function<IUpdateListener, TriConsumer<ITemplateProvider, ITemplateKey, Template>> function) {
@@ -120,4 +236,31 @@ public final class CacheTemplateProvider implements ITemplateProvider {
             }
         }
     }
+
+    private static final class CachedTemplate {
+        private final Template template;
+        //the empty Template cached until the server answered the first request
+        private final boolean placeholder;
+        private int version;
+        private boolean awaitingUpdate;
+        private int announcedVersion;
+
+        private static CachedTemplate placeholder() {
+            CachedTemplate res = new CachedTemplate(new Template(), - 1, true);
+            res.awaitingUpdate = true;
+            return res;
+        }
+
+        private CachedTemplate(Template template, int version) {
+            this(template, version, false);
+        }
+
+        private CachedTemplate(Template template, int version, boolean placeholder) {
+            this.template = template;
+            this.version = version;
+            this.placeholder = placeholder;
+            this.awaitingUpdate = false;
+            this.announcedVersion = - 1;
+        }
+    }
 }
@@ -5,9 +5,9 @@ import com.direwolf20.buildinggadgets.common.network.PacketHandler;
 import com.direwolf20.buildinggadgets.common.network.packets.PacketSetRemoteInventoryCache;
 import com.direwolf20.buildinggadgets.common.util.GadgetUtils;
 import com.direwolf20.buildinggadgets.common.util.ref.NBTKeys;
-import com.direwolf20.buildinggadgets.common.util.tools.UniqueItem;
 import com.google.common.base.Stopwatch;
-import com.google.common.collect.Multiset;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.CompoundNBT;
 import net.minecraft.util.ResourceLocation;
@@ -16,20 +16,43 @@ import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
 import javax.annotation.Nullable;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Client side view of the counts in a remote inventory. Instead of polling the whole inventory, the cache subscribes to the
+ * inventory it is asked about and the server pushes the counts which changed (see {@link com.direwolf20.buildinggadgets.common.inventory.RemoteInventorySubscriptions}).
+ * The subscription is renewed periodically whilst the cache is in use and expires on the server once it isn't anymore.
+ */
 public class RemoteInventoryCache implements IRemoteInventoryProvider {
-    private boolean isCopyPaste, forceUpdate;
+    private static final long RENEW_INTERVAL_MS = 10000;
+    private final boolean isCopyPaste;
+    private boolean forceUpdate;
     private Pair<ResourceLocation, BlockPos> locCached;
-    private Multiset<UniqueItem> cache;
+    private int subscriptionId;
+    //counts by item id
+    private final Int2IntOpenHashMap cache;
     private Stopwatch timer;
 
     public RemoteInventoryCache(boolean isCopyPaste) {
         this.isCopyPaste = isCopyPaste;
+        this.cache = new Int2IntOpenHashMap();
     }
 
-    public void setCache(Multiset<UniqueItem> cache) {
-        this.cache = cache;
+    /**
+     * Applies the changes pushed by the server, unless they belong to an earlier subscription.
+     *
+     * @param delta pairs of item id and count difference
+     */
+    public void applyDelta(int subscriptionId, boolean reset, int[] delta) {
+        if (subscriptionId != this.subscriptionId || locCached == null)
+            return;
+        if (reset)
+            cache.clear();
+        for (int i = 0; i < delta.length; i += 2) {
+            if (cache.addTo(delta[i], delta[i + 1]) + delta[i + 1] <= 0)
+                cache.remove(delta[i]);
+        }
     }
 
     public void forceUpdate() {
@@ -39,36 +62,26 @@ public class RemoteInventoryCache implements IRemoteInventoryProvider {
     @Override
     public int countItem(ItemStack tool, ItemStack stack) {
         Pair<ResourceLocation, BlockPos> loc = getInventoryLocation(tool);
-        if (isCacheOld(loc))
-            updateCache(loc);
+        if (! Objects.equals(locCached, loc))
+            subscribe(loc);
+        else if (loc != null && (forceUpdate || timer.elapsed(TimeUnit.MILLISECONDS) >= RENEW_INTERVAL_MS))
+            renew();
 
-        return cache == null ? 0 : cache.count(new UniqueItem(stack.getItem()));
+        return cache.get(Item.getIdFromItem(stack.getItem()));
     }
 
-    private void updateCache(Pair<ResourceLocation, BlockPos> loc) {
+    private void subscribe(@Nullable Pair<ResourceLocation, BlockPos> loc) {
+        //a new id, so that updates for the previous location which are still in flight are ignored
+        subscriptionId++;
         locCached = loc;
-        if (loc == null)
-            cache = null;
-        else {
-            PacketHandler.sendToServer(new PacketSetRemoteInventoryCache(loc, isCopyPaste));
-        }
+        cache.clear();
+        renew();
     }
 
-    private boolean isCacheOld(@Nullable Pair<ResourceLocation, BlockPos> loc) {
-        if (locCached == null ? loc != null : !locCached.equals(loc)) {
-            timer = loc == null ? null : Stopwatch.createStarted();
-            return true;
-        }
-        if (timer != null) {
-            boolean overtime = forceUpdate || timer.elapsed(TimeUnit.MILLISECONDS) >= 5000;
-            if (overtime) {
-                timer.reset();
-                timer.start();
-                forceUpdate = false;
-            }
-            return overtime;
-        }
-        return false;
+    private void renew() {
+        forceUpdate = false;
+        timer = Stopwatch.createStarted();
+        PacketHandler.sendToServer(new PacketSetRemoteInventoryCache(subscriptionId, locCached, isCopyPaste));
     }
 
     @Nullable
@@ -81,4 +94,4 @@ public class RemoteInventoryCache implements IRemoteInventoryProvider {
         BlockPos pos = GadgetUtils.getPOSFromNBT(stack, NBTKeys.REMOTE_INVENTORY_POS);
         return dim == null || pos == null ? null : new ImmutablePair<>(dim, pos);
     }
-}
\ No newline at end of file
+}
@@ -12,7 +12,6 @@ import com.direwolf20.buildinggadgets.common.inventory.materials.objects.IUnique
 import com.direwolf20.buildinggadgets.common.inventory.materials.objects.UniqueItem;
 import com.direwolf20.buildinggadgets.common.registry.OurItems;
 import com.direwolf20.buildinggadgets.common.template.Template;
-import com.direwolf20.buildinggadgets.common.template.TemplateHeader;
 import com.direwolf20.buildinggadgets.common.util.ref.Reference;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultiset;
@@ -32,8 +31,10 @@ import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.common.Mod;
 import org.lwjgl.opengl.GL11;
 
+import javax.annotation.Nullable;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This class was adapted from code written by Vazkii
@@ -50,8 +51,8 @@ public class EventTooltip {
     private static final int STACKS_PER_LINE = 8;
     private static RemoteInventoryCache cache = new RemoteInventoryCache(true);
 
-    public static void setCache(Multiset<com.direwolf20.buildinggadgets.common.util.tools.UniqueItem> cache) {
-        EventTooltip.cache.setCache(cache);
+    public static RemoteInventoryCache getCache() {
+        return cache;
     }
 
     public static void addTemplatePadding(ItemStack stack, List<ITextComponent> tooltip) {
@@ -67,10 +68,10 @@ public class EventTooltip {
                         .usedStack(stack)
                         .buildingPlayer(mc.player)
                         .build(mc.world);
-                TemplateHeader header = template.getHeaderAndForceMaterials(buildContext);
-                MaterialList list = header.getRequiredItems();
+                //don't block rendering, the padding is added once the materials are evaluated
+                MaterialList list = getMaterialsIfDone(template, buildContext);
                 if (list == null)
-                    list = MaterialList.empty();
+                    return;
                 MatchResult match = index.tryMatch(list);
                 int count = match.isSuccess() ? match.getChosenOption().entrySet().size() : match.getChosenOption().entrySet().size() + 1;
                 if (count > 0 && Screen.hasShiftDown()) {
@@ -102,10 +103,10 @@ public class EventTooltip {
                         .usedStack(stack)
                         .buildingPlayer(mc.player)
                         .build(mc.world);
-                TemplateHeader header = template.getHeaderAndForceMaterials(buildContext);
-                MaterialList list = header.getRequiredItems();
-                if (list == null)
-                    list = MaterialList.empty();
+                MaterialList list = getMaterialsIfDone(template, buildContext);
+                //no padding was added for materials which weren't evaluated yet
+                if (list == null || event.getLines().stream().noneMatch(line -> line.trim().equals(PLACE_HOLDER)))
+                    return;
 
                 MatchResult match = index.tryMatch(list);
                 Multiset<IUniqueObject<?>> existing = match.getFoundItems();
@@ -147,6 +148,15 @@ public class EventTooltip {
         });
     }
 
+    /**
+     * @return the materials of the template if they are already evaluated, null if they are still pending or the evaluation failed
+     */
+    @Nullable
+    private static MaterialList getMaterialsIfDone(Template template, IBuildContext context) {
+        CompletableFuture<MaterialList> materials = template.getMaterials(context);
+        return materials.isCompletedExceptionally() ? null : materials.getNow(null);
+    }
+
     private static int renderRequiredBlocks(ItemStack itemStack, int x, int y, int count, int req) {
         Minecraft mc = Minecraft.getInstance();
         GlStateManager.disableDepthTest();
@@ -24,9 +24,11 @@ import net.minecraft.util.text.TranslationTextComponent;
 import net.minecraftforge.common.util.LazyOptional;
 import net.minecraftforge.fml.client.config.GuiUtils;
 
+import javax.annotation.Nullable;
 import java.awt.*;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 public class MaterialListGUI extends Screen implements ITemplateProvider.IUpdateListener {
 
@@ -96,6 +98,8 @@ public class MaterialListGUI extends Screen implements ITemplateProvider.IUpdate
     private int hoveringTextY;
     private List<String> hoveringText;
     private TemplateHeader header;
+    @Nullable
+    private CompletableFuture<TemplateHeader> pendingHeader;
 
     public MaterialListGUI(ItemStack item) {
         super(MaterialListTranslation.TITLE.componentTranslation());
@@ -108,7 +112,7 @@ public class MaterialListGUI extends Screen implements ITemplateProvider.IUpdate
         this.backgroundX = getXForAlignedCenter(0, width, BACKGROUND_WIDTH);
         this.backgroundY = getYForAlignedCenter(0, height, BACKGROUND_HEIGHT);
 
-        header = evaluateTemplateHeader();
+        evaluateTemplateHeader();
         evaluateTitle();
         this.scrollingList = new ScrollingMaterialList(this);
         // Make it receive mouse scroll events, so that the player can use his mouse wheel at the start
@@ -141,20 +145,43 @@ public class MaterialListGUI extends Screen implements ITemplateProvider.IUpdate
     }
 
     private String stringifyDetailed() {
-        return evaluateTemplateHeader().toJson(false, true);
+        return getHeader().toJson(false, true);
     }
 
     private String stringifySimple() {
-        return evaluateTemplateHeader().toJson(false, false);
+        return getHeader().toJson(false, false);
     }
 
-    public TemplateHeader evaluateTemplateHeader() {
+    /**
+     * Updates the header to the one of the current {@link Template}. The materials are evaluated in the background, until they are
+     * done the header is shown without them.
+     */
+    public void evaluateTemplateHeader() {
         Template template = getTemplateCapability();
+        if (template == null)
+            return;
         IBuildContext context = SimpleBuildContext.builder()
                 .buildingPlayer(getMinecraft().player)
                 .usedStack(getTemplateItem())
                 .build(getMinecraft().world);
-        return template.getHeaderAndForceMaterials(context);
+        CompletableFuture<TemplateHeader> future = template.getHeaderWithMaterials(context);
+        pendingHeader = future;
+        //failed or cancelled estimations (f.e. when the world was unloaded) just show the header without materials
+        header = future.isCompletedExceptionally() ? template.getHeader() : future.getNow(template.getHeader());
+        if (future.isDone())
+            return;
+        future.whenCompleteAsync((evaluated, ex) -> {
+            if (pendingHeader != future) //the template changed in the meantime
+                return;
+            pendingHeader = null;
+            if (ex != null) {
+                BuildingGadgets.LOG.error("Failed to evaluate the materials of {}.", template.getHeader().getName(), ex);
+                return;
+            }
+            header = evaluated;
+            if (scrollingList != null)
+                scrollingList.reset();
+        }, getMinecraft());
     }
 
     public TemplateHeader getHeader() {
@@ -255,7 +282,7 @@ public class MaterialListGUI extends Screen implements ITemplateProvider.IUpdate
             UUID keyId = provider.getId(key);
             UUID itemId = provider.getId(itemKey);
             if (keyId.equals(itemId)) {
-                header = evaluateTemplateHeader();
+                evaluateTemplateHeader();
                 evaluateTitle();
                 scrollingList.reset();
             }
@@ -5,22 +5,30 @@ import com.direwolf20.buildinggadgets.client.gui.GuiMod;
 import com.direwolf20.buildinggadgets.common.capability.CapabilityBlockProvider;
 import com.direwolf20.buildinggadgets.common.capability.CapabilityTemplate;
 import com.direwolf20.buildinggadgets.common.commands.ForceUnloadedCommand;
+import com.direwolf20.buildinggadgets.common.commands.JobsCommand;
 import com.direwolf20.buildinggadgets.common.commands.OverrideBuildSizeCommand;
 import com.direwolf20.buildinggadgets.common.commands.OverrideCopySizeCommand;
+import com.direwolf20.buildinggadgets.common.concurrent.ServerTickingScheduler;
 import com.direwolf20.buildinggadgets.common.config.Config;
 import com.direwolf20.buildinggadgets.common.config.crafting.RecipeConstructionPaste.Serializer;
 import com.direwolf20.buildinggadgets.common.inventory.InventoryHelper;
+import com.direwolf20.buildinggadgets.common.inventory.RemoteInventorySubscriptions;
 import com.direwolf20.buildinggadgets.common.network.PacketHandler;
 import com.direwolf20.buildinggadgets.common.registry.Registries;
 import com.direwolf20.buildinggadgets.common.save.SaveManager;
 import com.direwolf20.buildinggadgets.common.save.TemplateSave;
+import com.direwolf20.buildinggadgets.common.template.MaterialListCache;
 import com.direwolf20.buildinggadgets.common.util.ref.Reference;
 import net.minecraft.command.Commands;
+import net.minecraft.entity.player.ServerPlayerEntity;
 import net.minecraft.item.crafting.IRecipeSerializer;
 import net.minecraft.util.ResourceLocation;
 import net.minecraftforge.api.distmarker.Dist;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.RegistryEvent;
+import net.minecraftforge.event.TickEvent.Phase;
+import net.minecraftforge.event.TickEvent.ServerTickEvent;
+import net.minecraftforge.event.entity.player.PlayerEvent.PlayerLoggedOutEvent;
 import net.minecraftforge.eventbus.api.IEventBus;
 import net.minecraftforge.fml.*;
 import net.minecraftforge.fml.common.Mod;
@@ -29,6 +37,7 @@ import net.minecraftforge.fml.event.lifecycle.*;
 import net.minecraftforge.fml.event.server.FMLServerStartedEvent;
 import net.minecraftforge.fml.event.server.FMLServerStartingEvent;
 import net.minecraftforge.fml.event.server.FMLServerStoppedEvent;
+import net.minecraftforge.fml.event.server.FMLServerStoppingEvent;
 import net.minecraftforge.fml.javafmlmod.FMLJavaModLoadingContext;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -57,7 +66,10 @@ public final class BuildingGadgets {
 
         MinecraftForge.EVENT_BUS.addListener(this::serverLoad);
         MinecraftForge.EVENT_BUS.addListener(this::serverLoaded);
+        MinecraftForge.EVENT_BUS.addListener(this::serverStopping);
         MinecraftForge.EVENT_BUS.addListener(this::serverStopped);
+        MinecraftForge.EVENT_BUS.addListener(this::serverTick);
+        MinecraftForge.EVENT_BUS.addListener(this::playerLoggedOut);
         eventBus.addListener(this::registerRegistries);
         eventBus.addListener(this::setup);
         eventBus.addListener(this::loadComplete);
@@ -112,6 +124,8 @@ public final class BuildingGadgets {
                         .then(OverrideBuildSizeCommand.registerList())
                         .then(OverrideCopySizeCommand.registerList())
                         .then(ForceUnloadedCommand.registerList())
+                        .then(JobsCommand.registerList())
+                        .then(JobsCommand.registerCancel())
         );
     }
 
@@ -119,8 +133,29 @@ public final class BuildingGadgets {
         SaveManager.INSTANCE.onServerStarted(event);
     }
 
+    private void serverStopping(FMLServerStoppingEvent event) {
+        ServerTickingScheduler.onServerStopping();
+    }
+
     private void serverStopped(FMLServerStoppedEvent event) {
         SaveManager.INSTANCE.onServerStopped(event);
+        RemoteInventorySubscriptions.INSTANCE.clear();
+        MaterialListCache.INSTANCE.clear(LogicalSide.SERVER);
+    }
+
+    private void serverTick(ServerTickEvent event) {
+        if (event.phase == Phase.END) {
+            SaveManager.INSTANCE.onServerTick();
+            PacketHandler.getSplitManager().tick(LogicalSide.SERVER);
+            RemoteInventorySubscriptions.INSTANCE.onServerTick();
+            MaterialListCache.INSTANCE.tick(LogicalSide.SERVER);
+        }
+    }
+
+    private void playerLoggedOut(PlayerLoggedOutEvent event) {
+        InventoryHelper.evictIndex(event.getEntityPlayer());
+        if (event.getEntityPlayer() instanceof ServerPlayerEntity)
+            PacketHandler.getSplitManager().clearQueued((ServerPlayerEntity) event.getEntityPlayer());
     }
 
     private void onRecipeRegister(final RegistryEvent.Register<IRecipeSerializer<?>> e) {
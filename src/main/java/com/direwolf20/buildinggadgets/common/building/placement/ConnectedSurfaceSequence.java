@@ -2,8 +2,10 @@ package com.direwolf20.buildinggadgets.common.building.placement;
 
 import com.direwolf20.buildinggadgets.common.building.Region;
 import com.direwolf20.buildinggadgets.common.util.tools.VectorUtils;
+import com.direwolf20.buildinggadgets.common.world.RegionBlockReader;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.AbstractIterator;
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
 import net.minecraft.block.BlockState;
 import net.minecraft.util.Direction;
 import net.minecraft.util.math.BlockPos;
@@ -11,11 +13,14 @@ import net.minecraft.world.IBlockReader;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.util.*;
+import java.util.BitSet;
+import java.util.Iterator;
 import java.util.function.BiPredicate;
 import java.util.function.Function;
 
 final class ConnectedSurfaceSequence implements IPositionPlacementSequence {
+    private static final int[] CUBE_OFFSETS = cubeOffsets();
+
     private final IBlockReader world;
     private final Region searchingRegion;
     private final Function<BlockPos, BlockPos> searching2referenceMapper;
@@ -27,12 +32,7 @@ final class ConnectedSurfaceSequence implements IPositionPlacementSequence {
     @VisibleForTesting
     ConnectedSurfaceSequence(IBlockReader world, Region searchingRegion, Function<BlockPos, BlockPos> searching2referenceMapper, BlockPos searchingCenter, @Nullable Direction side, boolean fuzzy) {
         this(world, searchingRegion, searching2referenceMapper, searchingCenter, side,
-                (filter, pos) -> {
-                    BlockState reference = world.getBlockState(searching2referenceMapper.apply(pos));
-                    boolean isAir = reference.isAir(world, pos);
-                    // If fuzzy=true, we ignore the block for reference
-                    return ! isAir && (fuzzy || filter == reference);
-                });
+                referencePredicate(world, searchingRegion, searching2referenceMapper, fuzzy));
     }
 
     ConnectedSurfaceSequence(IBlockReader world, Region searchingRegion, Function<BlockPos, BlockPos> searching2referenceMapper, BlockPos searchingCenter, @Nullable Direction side, BiPredicate<BlockState, BlockPos> predicate) {
@@ -73,20 +73,29 @@ final class ConnectedSurfaceSequence implements IPositionPlacementSequence {
      * is valid if and only if it connects to the center and its underside block is the same as the underside of the center.
      *
      * @implNote Uses a 8-way adjacent flood fill algorithm with Breadth-First Search to identify blocks with a valid path.
+     *           Positions are tracked by their index within the searching region: searched positions in a {@link BitSet} and
+     *           the queue as a ring buffer of indices, so positions are only allocated once they are tested or returned.
      */
     @Nonnull
     @Override
     public Iterator<BlockPos> iterator() {
         BlockState selectedBlock = getReferenceFor(searchingCenter);
+        int[] offsets = side != null ? surfaceOffsets(side.getAxis()) : CUBE_OFFSETS;
 
         return new AbstractIterator<BlockPos>() {
-            private Queue<BlockPos> queue = new LinkedList<>();
-            private Set<BlockPos> searched = new HashSet<>(searchingRegion.size());
+            private final int minX = searchingRegion.getMinX();
+            private final int minY = searchingRegion.getMinY();
+            private final int minZ = searchingRegion.getMinZ();
+            private final int ySize = searchingRegion.getYSize();
+            private final int zSize = searchingRegion.getZSize();
+            private final IntArrayFIFOQueue queue = new IntArrayFIFOQueue();
+            private final BitSet searched = new BitSet(searchingRegion.size());
 
             {
                 if (isValid(searchingCenter)) { //The destruction Gadget might be facing Bedrock or something similar - this would not be valid!
-                    queue.add(searchingCenter);
-                    searched.add(searchingCenter);
+                    int index = indexOf(searchingCenter.getX(), searchingCenter.getY(), searchingCenter.getZ());
+                    queue.enqueue(index);
+                    searched.set(index);
                 }
             }
 
@@ -96,36 +105,81 @@ final class ConnectedSurfaceSequence implements IPositionPlacementSequence {
                     return endOfData();
 
                 // The position is guaranteed to be valid
-                BlockPos current = queue.remove();
-
-                for (int i = - 1; i <= 1; i++) {
-                    for (int j = - 1; j <= 1; j++) {
-                        if (side != null) {
-                            BlockPos neighbor = VectorUtils.perpendicularSurfaceOffset(current, side, i, j);
-                            addNeighbour(neighbor);
-                        } else {
-                            for (int k = - 1; k <= 1; k++) {
-                                BlockPos neighbor = current.add(i, j, k);
-                                addNeighbour(neighbor);
-                            }
-                        }
-                    }
-                }
-                return current;
+                int index = queue.dequeueInt();
+                int x = minX + index / (ySize * zSize);
+                int y = minY + (index / zSize) % ySize;
+                int z = minZ + index % zSize;
+
+                for (int i = 0; i < offsets.length; i += 3)
+                    addNeighbour(x + offsets[i], y + offsets[i + 1], z + offsets[i + 2]);
+                return new BlockPos(x, y, z);
             }
 
-            private void addNeighbour(BlockPos neighbor) {
-                boolean isSearched = ! searched.add(neighbor);
-                if (isSearched || ! isValid(neighbor))
+            private void addNeighbour(int x, int y, int z) {
+                if (! searchingRegion.contains(x, y, z))
+                    return;
+                int index = indexOf(x, y, z);
+                if (searched.get(index))
                     return;
-                queue.add(neighbor);
+                searched.set(index);
+                //predicates may hand the position on to events, so it can't be a mutable one
+                if (predicate.test(selectedBlock, new BlockPos(x, y, z)))
+                    queue.enqueue(index);
             }
 
             private boolean isValid(BlockPos pos) {
                 return searchingRegion.contains(pos) && predicate.test(selectedBlock, pos);
             }
+
+            private int indexOf(int x, int y, int z) {
+                return ((x - minX) * ySize + (y - minY)) * zSize + (z - minZ);
+            }
+        };
+    }
+
+    /**
+     * @return the offsets (as consecutive x, y, z triples) of all positions surrounding the origin on the plane perpendicular to the given axis
+     */
+    private static int[] surfaceOffsets(Direction.Axis axis) {
+        int[] offsets = new int[9 * 3];
+        int n = 0;
+        for (int i = - 1; i <= 1; i++) {
+            for (int j = - 1; j <= 1; j++) {
+                BlockPos offset = VectorUtils.perpendicularSurfaceOffset(BlockPos.ZERO, axis, i, j);
+                offsets[n++] = offset.getX();
+                offsets[n++] = offset.getY();
+                offsets[n++] = offset.getZ();
+            }
+        }
+        return offsets;
+    }
+
+    private static int[] cubeOffsets() {
+        int[] offsets = new int[27 * 3];
+        int n = 0;
+        for (int i = - 1; i <= 1; i++) {
+            for (int j = - 1; j <= 1; j++) {
+                for (int k = - 1; k <= 1; k++) {
+                    offsets[n++] = i;
+                    offsets[n++] = j;
+                    offsets[n++] = k;
+                }
+            }
+        }
+        return offsets;
+    }
+
+    private static BiPredicate<BlockState, BlockPos> referencePredicate(IBlockReader world, Region searchingRegion, Function<BlockPos, BlockPos> searching2referenceMapper, boolean fuzzy) {
+        //references are usually adjacent to the searched positions
+        IBlockReader reader = RegionBlockReader.of(world, searchingRegion.expand(1));
+        return (filter, pos) -> {
+            BlockState reference = reader.getBlockState(searching2referenceMapper.apply(pos));
+            boolean isAir = reference.isAir(world, pos);
+            // If fuzzy=true, we ignore the block for reference
+            return ! isAir && (fuzzy || filter == reference);
         };
     }
+
     private BlockState getReferenceFor(BlockPos pos) {
         return world.getBlockState(searching2referenceMapper.apply(pos));
     }
@@ -6,6 +6,7 @@ import com.direwolf20.buildinggadgets.common.building.view.IBuildContext;
 import com.direwolf20.buildinggadgets.common.capability.IPrivateEnergy;
 import com.direwolf20.buildinggadgets.common.capability.ItemEnergyForge;
 import com.direwolf20.buildinggadgets.common.inventory.IItemIndex;
+import com.direwolf20.buildinggadgets.common.inventory.IMaterialReservation;
 import com.direwolf20.buildinggadgets.common.inventory.InventoryHelper;
 import com.direwolf20.buildinggadgets.common.inventory.MatchResult;
 import com.direwolf20.buildinggadgets.common.inventory.materials.MaterialList;
@@ -24,6 +25,10 @@ import net.minecraftforge.energy.IEnergyStorage;
 import net.minecraftforge.event.ForgeEventFactory;
 import net.minecraftforge.event.world.BlockEvent;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.function.BiPredicate;
 import java.util.function.ToIntFunction;
 
@@ -104,6 +109,106 @@ public final class PlacementChecker {
         return checkPositionWithResult(context, target, giveBackItems).isSuccess();
     }
 
+    /**
+     * Starts checking multiple targets whose materials and energy are only taken when the {@link Batch} is settled. This avoids
+     * matching against, and extracting from, the inventories for every single target. Items are never given back by a batch.
+     */
+    public Batch startBatch(IBuildContext context) {
+        return new Batch(context);
+    }
+
+    public final class Batch {
+        private final IBuildContext context;
+        private final IMaterialReservation reservation;
+        private final List<PlacementTarget> targets;
+        private final List<CheckResult> results;
+        private final boolean isCreative;
+        private int reservedEnergy;
+
+        private Batch(IBuildContext context) {
+            this.context = context;
+            this.reservation = index.reserve();
+            this.targets = new ArrayList<>();
+            this.results = new ArrayList<>();
+            this.isCreative = context.getBuildingPlayer() != null && context.getBuildingPlayer().isCreative();
+            this.reservedEnergy = 0;
+        }
+
+        /**
+         * Performs the same checks as {@link #checkPositionWithResult(IBuildContext, PlacementTarget, boolean)}, but only reserves the
+         * required materials and energy.
+         *
+         * @return whether the target was added. A target which was added may still fail when the Batch is settled.
+         */
+        public boolean add(PlacementTarget target) {
+            if (target.getPos().getY() > context.getWorld().getMaxHeight() || target.getPos().getY() < 0 || ! placeCheck.test(context, target))
+                return false;
+            int energy = energyFun.applyAsInt(target);
+            IPrivateEnergy storage = (IPrivateEnergy) energyCap.orElseThrow(CapabilityNotPresentException::new);
+            if (! isCreative && storage.extractPower(reservedEnergy + energy, true) != reservedEnergy + energy)
+                return false;
+
+            RayTraceResult targetRayTrace = null;
+            if (context.getBuildingPlayer() != null) {
+                PlayerEntity player = context.getBuildingPlayer();
+                targetRayTrace = CommonUtils.fakeRayTrace(player.posX, player.posY, player.posZ, target.getPos());
+            }
+            MaterialList materials = target.getRequiredMaterials(context, targetRayTrace);
+            MatchResult match = reservation.reserve(materials);
+            boolean usePaste = false;
+            if (! match.isSuccess()) {
+                match = reservation.reserve(InventoryHelper.PASTE_LIST);
+                if (! match.isSuccess())
+                    return false;
+                usePaste = true;
+            }
+            if (firePlaceEvents && isDenied(target)) {
+                reservation.release(match);
+                return false;
+            }
+            reservedEnergy += energy;
+            targets.add(target);
+            results.add(new CheckResult(match, ImmutableMultiset.of(), energy, true, usePaste));
+            return true;
+        }
+
+        /**
+         * Takes the materials and energy of all added targets. Targets whose materials turn out to be unavailable by now fail silently.
+         *
+         * @param onSuccess called for every target which succeeded, in the order they were added
+         */
+        public void settle(BiConsumer<PlacementTarget, CheckResult> onSuccess) {
+            Set<MatchResult> settled = reservation.settle();
+            IPrivateEnergy storage = (IPrivateEnergy) energyCap.orElseThrow(CapabilityNotPresentException::new);
+            for (int i = 0; i < targets.size(); i++) {
+                CheckResult res = results.get(i);
+                if (! settled.contains(res.getMatch()))
+                    continue;
+                if (isCreative || storage.extractPower(res.getUsedEnergy(), false) == res.getUsedEnergy())
+                    onSuccess.accept(targets.get(i), res);
+            }
+            targets.clear();
+            results.clear();
+            reservedEnergy = 0;
+        }
+
+        public boolean isEmpty() {
+            return targets.isEmpty();
+        }
+
+        private boolean isDenied(PlacementTarget target) {
+            BlockSnapshot blockSnapshot = BlockSnapshot.getBlockSnapshot(context.getWorld(), target.getPos());
+            if (ForgeEventFactory.onBlockPlace(context.getBuildingPlayer(), blockSnapshot, Direction.UP))
+                return true;
+            if (blockSnapshot.getCurrentBlock().isAir(context.getWorld(), target.getPos()))
+                return false;
+            BlockEvent.BreakEvent e = new BlockEvent.BreakEvent(context.getWorld().getWorld(),
+                    target.getPos(), blockSnapshot.getCurrentBlock(),
+                    context.getBuildingPlayer());
+            return MinecraftForge.EVENT_BUS.post(e);
+        }
+    }
+
     public static final class CheckResult {
         private final MatchResult match;
         private final Multiset<IUniqueObject<?>> insertedItems;
@@ -5,7 +5,9 @@ import com.direwolf20.buildinggadgets.common.building.PlacementTarget;
 import com.direwolf20.buildinggadgets.common.building.Region;
 import com.direwolf20.buildinggadgets.common.building.tilesupport.TileSupport;
 import com.direwolf20.buildinggadgets.common.util.spliterator.DelegatingSpliterator;
+import com.direwolf20.buildinggadgets.common.world.RegionBlockReader;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.IBlockReader;
 import net.minecraft.world.IWorld;
 
 import javax.annotation.Nullable;
@@ -44,7 +46,12 @@ public final class WorldBuildView implements IBuildView {
         return new WorldBuildView(
                 Objects.requireNonNull(context, "Cannot create WorldBuildView without an IBuildContext!"),
                 Objects.requireNonNull(region, "Cannot create WorldBuildView without an Region!"),
-                dataFactory != null ? dataFactory : (c, p) -> Optional.of(TileSupport.createBlockData(c.getWorld(), p)));
+                dataFactory != null ? dataFactory : worldDataFactory(context, region));
+    }
+
+    private static BiFunction<IBuildContext, BlockPos, Optional<BlockData>> worldDataFactory(IBuildContext context, Region region) {
+        IBlockReader reader = RegionBlockReader.of(context.getWorld(), region);
+        return (c, p) -> Optional.of(TileSupport.createBlockData(reader.getBlockState(p), c.getWorld().getTileEntity(p)));
     }
 
     private WorldBuildView(IBuildContext context, Region region, BiFunction<IBuildContext, BlockPos, Optional<BlockData>> dataFactory) {
@@ -0,0 +1,58 @@
+package com.direwolf20.buildinggadgets.common.commands;
+
+import com.direwolf20.buildinggadgets.common.concurrent.ServerTickingScheduler;
+import com.direwolf20.buildinggadgets.common.concurrent.ServerTickingScheduler.ScheduledJob;
+import com.direwolf20.buildinggadgets.common.util.lang.CommandTranslation;
+import com.direwolf20.buildinggadgets.common.util.lang.Styles;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.context.CommandContext;
+import net.minecraft.command.CommandSource;
+import net.minecraft.command.Commands;
+
+import java.util.List;
+import java.util.Optional;
+
+public final class JobsCommand {
+    private JobsCommand() {}
+
+    public static LiteralArgumentBuilder<CommandSource> registerList() {
+        return Commands.literal("ListJobs")
+                .requires(commandSource -> commandSource.hasPermissionLevel(2))
+                .executes(JobsCommand::executeList);
+    }
+
+    public static LiteralArgumentBuilder<CommandSource> registerCancel() {
+        return Commands.literal("CancelJob")
+                .requires(commandSource -> commandSource.hasPermissionLevel(2))
+                .then(Commands.argument("id", IntegerArgumentType.integer(0))
+                        .executes(context -> executeCancel(context, IntegerArgumentType.getInteger(context, "id")))
+                );
+    }
+
+    private static int executeList(CommandContext<CommandSource> context) {
+        List<ScheduledJob> jobs = ServerTickingScheduler.getRunningJobs();
+        if (jobs.isEmpty()) {
+            context.getSource().sendFeedback(CommandTranslation.JOBS_NONE.componentTranslation().setStyle(Styles.AQUA), false);
+            return 0;
+        }
+        for (ScheduledJob job : jobs) {
+            double progress = job.getProgress();
+            String progressString = progress < 0 ? "?" : String.format("%.1f%%", progress * 100);
+            context.getSource().sendFeedback(CommandTranslation.JOBS_LIST.componentTranslation(job.getId(), job.getName(), job.getPriority(), progressString)
+                    .setStyle(Styles.BLUE), false);
+        }
+        return jobs.size();
+    }
+
+    private static int executeCancel(CommandContext<CommandSource> context, int id) {
+        Optional<ScheduledJob> job = ServerTickingScheduler.getJob(id);
+        if (! job.isPresent()) {
+            context.getSource().sendErrorMessage(CommandTranslation.JOBS_NOT_FOUND.componentTranslation(id).setStyle(Styles.RED));
+            return 0;
+        }
+        job.get().cancel();
+        context.getSource().sendFeedback(CommandTranslation.JOBS_CANCELLED.componentTranslation(id, job.get().getName()).setStyle(Styles.AQUA), true);
+        return 1;
+    }
+}
@@ -0,0 +1,50 @@
+package com.direwolf20.buildinggadgets.common.concurrent;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Executes work which doesn't need to access the world (for example evaluating world snapshots) on a worker pool, so that it
+ * doesn't consume time on the Server thread. Results which need to be applied to the world should be passed back via the
+ * {@link ServerTickingExecutor}.
+ */
+public enum BackgroundExecutor implements Executor {
+    INSTANCE;
+    /**
+     * The amount of elements below which parallel streams aren't worth it, as splitting and joining takes longer than evaluating them.
+     */
+    public static final int MIN_PARALLEL_SIZE = 4096;
+
+    private final ForkJoinPool pool;
+
+    BackgroundExecutor() {
+        AtomicInteger count = new AtomicInteger();
+        //leave one core for the Server thread
+        this.pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), p -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setName("BuildingGadgets-Worker-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        pool.execute(command);
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Evaluates the given task on the worker pool and waits for it's result. Parallel streams created by the task are run on the
+     * worker pool as well, instead of on the common pool.
+     */
+    public <T> T invoke(Supplier<T> task) {
+        return pool.submit(task::get).join();
+    }
+}
@@ -21,7 +21,7 @@ public final class CopyScheduler extends SteppedScheduler {
                 Objects.requireNonNull(finisher),
                 Objects.requireNonNull(worldView),
                 steps
-        ));
+        ), ServerTickingScheduler.Priority.LOW);
     }
 
     private final BiConsumer<ImmutableMap<BlockPos, BlockData>, Region> finisher;
@@ -39,6 +39,11 @@ public final class CopyScheduler extends SteppedScheduler {
         this.regionBuilder = null;
     }
 
+    @Override
+    protected long getRemainingEstimate() {
+        return targets.estimateSize();
+    }
+
     @Override
     protected StepResult advance() {
         return StepResult.ofBoolean(targets.tryAdvance(t -> {
@@ -0,0 +1,84 @@
+package com.direwolf20.buildinggadgets.common.concurrent;
+
+import com.direwolf20.buildinggadgets.common.building.placement.IPositionPlacementSequence;
+import com.direwolf20.buildinggadgets.common.save.Undo;
+import com.google.common.base.Preconditions;
+import net.minecraft.util.math.BlockPos;
+
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+
+/**
+ * Removes the blocks at the positions of an {@link IPositionPlacementSequence}, a few of them per tick. The sequence is only advanced
+ * as far as needed in each tick, so lazy sequences evaluate which positions to remove on demand - right before they are removed.
+ */
+public final class DestructionScheduler extends SteppedScheduler {
+    /**
+     * @param destroyer removes the block at the given position, recording it to the given {@link Undo.Builder}. Returns whether
+     *                  the block was removed.
+     */
+    public static DestructionScheduler scheduleDestruction(IPositionPlacementSequence positions, BiPredicate<BlockPos, Undo.Builder> destroyer, int steps) {
+        Preconditions.checkArgument(steps > 0);
+        DestructionScheduler res = new DestructionScheduler(
+                Objects.requireNonNull(positions),
+                Objects.requireNonNull(destroyer),
+                steps);
+        ServerTickingScheduler.runTicked(res);
+        return res;
+    }
+
+    private final Spliterator<BlockPos> spliterator;
+    private final BiPredicate<BlockPos, Undo.Builder> destroyer;
+    private final Undo.Builder undoBuilder;
+    private boolean lastWasSuccess;
+    private Consumer<DestructionScheduler> finisher;
+
+    private DestructionScheduler(IPositionPlacementSequence positions, BiPredicate<BlockPos, Undo.Builder> destroyer, int steps) {
+        super(steps);
+        this.spliterator = positions.spliterator();
+        this.destroyer = destroyer;
+        this.undoBuilder = Undo.builder();
+        this.finisher = d -> {};
+    }
+
+    @Override
+    protected long getRemainingEstimate() {
+        return spliterator.estimateSize();
+    }
+
+    @Override
+    protected StepResult advance() {
+        if (! spliterator.tryAdvance(this::destroy))
+            return StepResult.END;
+        return lastWasSuccess ? StepResult.SUCCESS : StepResult.FAILURE;
+    }
+
+    @Override
+    protected void onFinish() {
+        finisher.accept(this);
+    }
+
+    /**
+     * The finisher is run for cancelled destructions as well, so that the blocks removed so far can be undone. Use
+     * {@link #isCancelled()} to tell both apart.
+     */
+    @Override
+    protected void onCancel() {
+        finisher.accept(this);
+    }
+
+    public Undo.Builder getUndoBuilder() {
+        return undoBuilder;
+    }
+
+    public DestructionScheduler withFinisher(Consumer<DestructionScheduler> runnable) {
+        this.finisher = Objects.requireNonNull(runnable);
+        return this;
+    }
+
+    private void destroy(BlockPos pos) {
+        lastWasSuccess = destroyer.test(pos, undoBuilder);
+    }
+}
@@ -0,0 +1,31 @@
+package com.direwolf20.buildinggadgets.common.concurrent;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * A {@link BooleanSupplier} run by the {@link ServerTickingScheduler}, which can additionally report it's progress and be notified
+ * when it is cancelled. Plain {@link BooleanSupplier BooleanSuppliers} can be scheduled as well, they just won't provide any of this
+ * information.
+ */
+public interface ITickJob extends BooleanSupplier {
+    /**
+     * @return a human readable name for this job, as displayed by the job list command
+     */
+    default String getName() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * @return the progress of this job in the range [0, 1] or a negative value if the progress is unknown
+     */
+    default double getProgress() {
+        return - 1;
+    }
+
+    /**
+     * Called on the Server thread if this job was cancelled before {@link #getAsBoolean()} returned false, f.e. by the job command or
+     * because the Server stops. This job will not be run again afterwards, so anything it still needs to record about the work
+     * performed so far (like an undo) has to be recorded here.
+     */
+    default void onCancelled() {}
+}
@@ -31,6 +31,8 @@ public final class PlacementScheduler extends SteppedScheduler {
     private boolean lastWasSuccess;
     private Consumer<PlacementScheduler> finisher;
     private Undo.Builder undoBuilder;
+    //materials are reserved per step, but only taken once per tick
+    private PlacementChecker.Batch batch;
 
     private PlacementScheduler(IBuildView view, PlacementChecker checker, int steps) {
         super(steps);
@@ -40,11 +42,34 @@ public final class PlacementScheduler extends SteppedScheduler {
         this.undoBuilder = Undo.builder();
         this.finisher = p -> {};
     }
+
+    @Override
+    protected void onStepsPerformed() {
+        if (batch == null)
+            return;
+        batch.settle(this::onPlaced);
+        batch = null;
+    }
+
     @Override
     protected void onFinish() {
         finisher.accept(this);
     }
 
+    /**
+     * The finisher is run for cancelled placements as well, so that the blocks placed so far are recorded. Use
+     * {@link #isCancelled()} to tell both apart.
+     */
+    @Override
+    protected void onCancel() {
+        finisher.accept(this);
+    }
+
+    @Override
+    protected long getRemainingEstimate() {
+        return spliterator.estimateSize();
+    }
+
     @Override
     protected StepResult advance() {
         if (! spliterator.tryAdvance(this::checkTarget))
@@ -62,11 +87,13 @@ public final class PlacementScheduler extends SteppedScheduler {
     }
 
     private void checkTarget(PlacementTarget target) {
-        CheckResult res = checker.checkPositionWithResult(view.getContext(), target, false);
-        lastWasSuccess = res.isSuccess();
-        if (lastWasSuccess) {
-            undoBuilder.record(view.getContext().getWorld(), target.getPos(), target.getData(), res.getMatch().getChosenOption(), res.getInsertedItems());
-            EffectBlock.spawnEffectBlock(view.getContext(), target, Mode.PLACE, res.isUsingPaste());
-        }
+        if (batch == null)
+            batch = checker.startBatch(view.getContext());
+        lastWasSuccess = batch.add(target);
+    }
+
+    private void onPlaced(PlacementTarget target, CheckResult res) {
+        undoBuilder.record(view.getContext().getWorld(), target.getPos(), target.getData(), res.getMatch().getChosenOption(), res.getInsertedItems());
+        EffectBlock.spawnEffectBlock(view.getContext(), target, Mode.PLACE, res.isUsingPaste());
     }
 }
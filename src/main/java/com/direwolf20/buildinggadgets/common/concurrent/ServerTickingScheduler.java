@@ -1,47 +1,187 @@
 package com.direwolf20.buildinggadgets.common.concurrent;
 
-import net.minecraftforge.common.MinecraftForge;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import net.minecraftforge.event.TickEvent.Phase;
 import net.minecraftforge.event.TickEvent.ServerTickEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod.EventBusSubscriber;
 
-import java.util.EnumSet;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BooleanSupplier;
 
+/**
+ * Central registry for all jobs which need to be run on the Server thread every tick. Instead of registering one listener per job
+ * on the event bus, all jobs are kept in a single list ordered by {@link Priority} and dispatched from one tick listener.
+ * <p>
+ * Jobs may be scheduled from any thread, but will only ever be run on the Server thread. They are run until their
+ * {@link BooleanSupplier#getAsBoolean()} returns false, or they are {@link ScheduledJob#cancel() cancelled}.
+ */
+@EventBusSubscriber
 public final class ServerTickingScheduler {
-    public static void runTicked(BooleanSupplier runUntilFalse) {
-        new ServerTickingScheduler(runUntilFalse, EnumSet.of(Phase.START));
+    public enum Priority {
+        HIGH,
+        NORMAL,
+        LOW
     }
 
-    public static void runTickedAtEnd(BooleanSupplier runUntilFalse) {
-        new ServerTickingScheduler(runUntilFalse, EnumSet.of(Phase.END));
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+    private static final Queue<ScheduledJob> PENDING = new ConcurrentLinkedQueue<>();
+    //ordered by priority, jobs of the same priority are run in the order they were scheduled in
+    private static final List<ScheduledJob> JOBS = new ArrayList<>();
+
+    public static ScheduledJob runTicked(BooleanSupplier runUntilFalse) {
+        return runTicked(runUntilFalse, Priority.NORMAL);
+    }
+
+    public static ScheduledJob runTicked(BooleanSupplier runUntilFalse, Priority priority) {
+        return schedule(runUntilFalse, priority, EnumSet.of(Phase.START));
     }
 
-    public static void runTickedStartAndEnd(BooleanSupplier runUntilFalse) {
-        new ServerTickingScheduler(runUntilFalse, EnumSet.allOf(Phase.class));
+    public static ScheduledJob runTickedAtEnd(BooleanSupplier runUntilFalse) {
+        return schedule(runUntilFalse, Priority.NORMAL, EnumSet.of(Phase.END));
     }
 
-    public static void runOnServerOnce(Runnable runnable) {
-        runTickedStartAndEnd(() -> {
+    public static ScheduledJob runTickedStartAndEnd(BooleanSupplier runUntilFalse) {
+        return schedule(runUntilFalse, Priority.NORMAL, EnumSet.allOf(Phase.class));
+    }
+
+    public static ScheduledJob runOnServerOnce(Runnable runnable) {
+        return schedule(() -> {
             runnable.run();
             return false;
-        });
+        }, Priority.HIGH, EnumSet.allOf(Phase.class));
     }
 
-    private final BooleanSupplier runnable;
-    private final EnumSet<Phase> phases;
+    private static ScheduledJob schedule(BooleanSupplier runnable, Priority priority, EnumSet<Phase> phases) {
+        ScheduledJob job = new ScheduledJob(NEXT_ID.getAndIncrement(), Objects.requireNonNull(runnable), Objects.requireNonNull(priority), phases);
+        PENDING.add(job);
+        return job;
+    }
 
-    private ServerTickingScheduler(BooleanSupplier runnable, EnumSet<Phase> phases) {
-        this.runnable = runnable;
-        MinecraftForge.EVENT_BUS.register(this);
-        this.phases = phases;
+    /**
+     * @return a snapshot of all jobs which are currently scheduled and neither finished nor cancelled.
+     *         Should only be called from the Server thread.
+     */
+    public static List<ScheduledJob> getRunningJobs() {
+        //don't drain here, as this might be called from within a running job
+        ImmutableList.Builder<ScheduledJob> builder = ImmutableList.builder();
+        for (ScheduledJob job : Iterables.concat(JOBS, PENDING)) {
+            if (! job.isCancelled())
+                builder.add(job);
+        }
+        return builder.build();
+    }
+
+    public static Optional<ScheduledJob> getJob(int id) {
+        return getRunningJobs().stream()
+                .filter(job -> job.getId() == id)
+                .findFirst();
+    }
+
+    /**
+     * Cancels all remaining jobs. Called when the Server starts stopping, so that no job survives into the next (integrated) Server
+     * and the undos recorded by cancelled jobs are still saved with the worlds.
+     */
+    public static void onServerStopping() {
+        drainPending();
+        for (ScheduledJob job : JOBS)
+            job.cancel();
+        removeCancelled();
     }
 
     @SubscribeEvent
-    public void tick(ServerTickEvent event) {
-        if (! phases.contains(event.phase))
-            return;
-        if (! runnable.getAsBoolean())
-            MinecraftForge.EVENT_BUS.unregister(this);
+    public static void onServerTick(ServerTickEvent event) {
+        drainPending();
+        Iterator<ScheduledJob> it = JOBS.iterator();
+        while (it.hasNext()) {
+            ScheduledJob job = it.next();
+            if (job.isCancelled()) {
+                it.remove();
+                job.notifyCancelled();
+            } else if (job.phases.contains(event.phase) && ! job.runnable.getAsBoolean()) {
+                it.remove();
+                job.finished = true;
+            }
+        }
+    }
+
+    private static void drainPending() {
+        ScheduledJob job;
+        while ((job = PENDING.poll()) != null) {
+            int index = JOBS.size();
+            //insert after the last job with a priority at least as high, to preserve scheduling order within a priority
+            while (index > 0 && JOBS.get(index - 1).getPriority().compareTo(job.getPriority()) > 0)
+                -- index;
+            JOBS.add(index, job);
+        }
+    }
+
+    private static void removeCancelled() {
+        Iterator<ScheduledJob> it = JOBS.iterator();
+        while (it.hasNext()) {
+            ScheduledJob job = it.next();
+            if (job.isCancelled()) {
+                it.remove();
+                job.notifyCancelled();
+            }
+        }
+    }
+
+    private ServerTickingScheduler() {}
+
+    public static final class ScheduledJob {
+        private final int id;
+        private final BooleanSupplier runnable;
+        private final Priority priority;
+        private final EnumSet<Phase> phases;
+        private volatile boolean cancelled;
+        private boolean finished;
+
+        private ScheduledJob(int id, BooleanSupplier runnable, Priority priority, EnumSet<Phase> phases) {
+            this.id = id;
+            this.runnable = runnable;
+            this.priority = priority;
+            this.phases = phases;
+            this.cancelled = false;
+            this.finished = false;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        public String getName() {
+            return runnable instanceof ITickJob ? ((ITickJob) runnable).getName() : "Anonymous";
+        }
+
+        /**
+         * @return the progress of this job in the range [0, 1] or a negative value if the progress is unknown
+         */
+        public double getProgress() {
+            return runnable instanceof ITickJob ? ((ITickJob) runnable).getProgress() : - 1;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Cancels this job. The job will be removed before it would be run the next time. Has no effect on finished jobs.
+         */
+        public void cancel() {
+            this.cancelled = true;
+        }
+
+        private void notifyCancelled() {
+            if (! finished && runnable instanceof ITickJob)
+                ((ITickJob) runnable).onCancelled();
+        }
     }
 }
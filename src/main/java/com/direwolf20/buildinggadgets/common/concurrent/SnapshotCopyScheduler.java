@@ -0,0 +1,163 @@
+package com.direwolf20.buildinggadgets.common.concurrent;
+
+import com.direwolf20.buildinggadgets.common.BuildingGadgets;
+import com.direwolf20.buildinggadgets.common.building.BlockData;
+import com.direwolf20.buildinggadgets.common.building.Region;
+import com.direwolf20.buildinggadgets.common.registry.OurItems;
+import com.direwolf20.buildinggadgets.common.util.blocks.ChunkSectionSnapshot;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import net.minecraft.block.BlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.IWorld;
+import net.minecraft.world.chunk.IChunk;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Variant of the {@link CopyScheduler}, which only captures {@link ChunkSectionSnapshot ChunkSectionSnapshots} of the copied
+ * {@link Region} on the Server thread (one section per step). Filtering and {@link BlockData} creation are then performed on the
+ * {@link BackgroundExecutor} and the finisher is called back on the Server thread.
+ * <p>
+ * As the snapshots are evaluated without access to the world, the data for positions without a
+ * {@link net.minecraft.tileentity.TileEntity} is created by a world independent factory. Air detection uses
+ * {@link BlockState#isAir()} instead of the world aware overload.
+ */
+public final class SnapshotCopyScheduler extends SteppedScheduler {
+    private static final int BLOCKS_PER_SECTION = 16 * 16 * 16;
+
+    /**
+     * @param finisher         called on the Server thread with the copied data and the region enclosing it
+     * @param world            the world to copy from
+     * @param region           the region to copy
+     * @param stateDataFactory creates {@link BlockData} for positions without a {@link net.minecraft.tileentity.TileEntity}. Will be
+     *                         called off-thread and must therefore not access the world.
+     * @param tileDataFactory  creates {@link BlockData} for positions with a {@link net.minecraft.tileentity.TileEntity}. Will be
+     *                         called on the Server thread.
+     * @param steps            the maximum amount of blocks to capture per tick
+     */
+    public static void scheduleCopy(BiConsumer<ImmutableMap<BlockPos, BlockData>, Region> finisher, IWorld world, Region region,
+                                    Function<BlockState, Optional<BlockData>> stateDataFactory,
+                                    Function<BlockPos, Optional<BlockData>> tileDataFactory, int steps) {
+        Preconditions.checkArgument(steps > 0);
+        ServerTickingScheduler.runTicked(new SnapshotCopyScheduler(
+                Objects.requireNonNull(finisher),
+                Objects.requireNonNull(world),
+                Objects.requireNonNull(region),
+                Objects.requireNonNull(stateDataFactory),
+                Objects.requireNonNull(tileDataFactory),
+                Math.max(1, steps / BLOCKS_PER_SECTION)
+        ), ServerTickingScheduler.Priority.LOW);
+    }
+
+    private final BiConsumer<ImmutableMap<BlockPos, BlockData>, Region> finisher;
+    private final IWorld world;
+    private final Region region;
+    private final Function<BlockState, Optional<BlockData>> stateDataFactory;
+    private final Function<BlockPos, Optional<BlockData>> tileDataFactory;
+    private final List<ChunkSectionSnapshot> snapshots;
+    private final int minSectionX, minSectionY, maxSectionX, maxSectionY, maxSectionZ;
+    private int sectionX, sectionY, sectionZ;
+
+    private SnapshotCopyScheduler(BiConsumer<ImmutableMap<BlockPos, BlockData>, Region> finisher, IWorld world, Region region,
+                                  Function<BlockState, Optional<BlockData>> stateDataFactory,
+                                  Function<BlockPos, Optional<BlockData>> tileDataFactory, int steps) {
+        super(steps);
+        this.finisher = finisher;
+        this.world = world;
+        this.region = region;
+        this.stateDataFactory = stateDataFactory;
+        this.tileDataFactory = tileDataFactory;
+        this.snapshots = new ArrayList<>();
+        this.minSectionX = region.getMinX() >> 4;
+        this.minSectionY = region.getMinY() >> 4;
+        this.maxSectionX = region.getMaxX() >> 4;
+        this.maxSectionY = region.getMaxY() >> 4;
+        this.maxSectionZ = region.getMaxZ() >> 4;
+        this.sectionX = minSectionX;
+        this.sectionY = minSectionY;
+        this.sectionZ = region.getMinZ() >> 4;
+    }
+
+    @Override
+    protected long getRemainingEstimate() {
+        long total = (long) (maxSectionX - minSectionX + 1) * (maxSectionY - minSectionY + 1) * (maxSectionZ - (region.getMinZ() >> 4) + 1);
+        return Math.max(0, total - snapshots.size());
+    }
+
+    @Override
+    protected StepResult advance() {
+        if (sectionZ > maxSectionZ)
+            return StepResult.END;
+        IChunk chunk = world.getChunk(sectionX, sectionZ);
+        snapshots.add(ChunkSectionSnapshot.capture(chunk, sectionY, region, pos -> tileDataFactory.apply(pos).orElse(null)));
+        if (++ sectionY > maxSectionY) {
+            sectionY = minSectionY;
+            if (++ sectionX > maxSectionX) {
+                sectionX = minSectionX;
+                ++ sectionZ;
+            }
+        }
+        return StepResult.SUCCESS;
+    }
+
+    @Override
+    protected void onFinish() {
+        CompletableFuture.supplyAsync(this::evaluate, BackgroundExecutor.INSTANCE)
+                .whenCompleteAsync((res, ex) -> {
+                    if (ex != null)
+                        BuildingGadgets.LOG.error("Failed to evaluate copy of {}.", region, ex);
+                    else
+                        finisher.accept(res.getLeft(), res.getRight());
+                }, ServerTickingExecutor.INSTANCE);
+    }
+
+    private Pair<ImmutableMap<BlockPos, BlockData>, Region> evaluate() {
+        ImmutableMap.Builder<BlockPos, BlockData> builder = ImmutableMap.builder();
+        Region.Builder regionBuilder = null;
+        BlockPos.MutableBlockPos mutablePos = new BlockPos.MutableBlockPos();
+        for (ChunkSectionSnapshot snapshot : snapshots) {
+            if (snapshot.isEmpty())
+                continue;
+            for (Map.Entry<BlockPos, BlockData> entry : snapshot.getTileData().entrySet()) {
+                if (isCopyable(entry.getValue())) {
+                    builder.put(entry);
+                    if (regionBuilder == null)
+                        regionBuilder = Region.enclosingBuilder();
+                    regionBuilder.enclose(entry.getKey());
+                }
+            }
+            Region bounds = snapshot.getBounds();
+            boolean hasTiles = ! snapshot.getTileData().isEmpty();
+            for (int y = bounds.getMinY(); y <= bounds.getMaxY(); y++) {
+                for (int z = bounds.getMinZ(); z <= bounds.getMaxZ(); z++) {
+                    for (int x = bounds.getMinX(); x <= bounds.getMaxX(); x++) {
+                        BlockState state = snapshot.getBlockState(x, y, z);
+                        if (state.isAir() || (hasTiles && snapshot.hasTileData(mutablePos.setPos(x, y, z))))
+                            continue;
+                        Optional<BlockData> data = stateDataFactory.apply(state);
+                        if (data.isPresent() && isCopyable(data.get())) {
+                            builder.put(new BlockPos(x, y, z), data.get());
+                            if (regionBuilder == null)
+                                regionBuilder = Region.enclosingBuilder();
+                            regionBuilder.enclose(x, y, z);
+                        }
+                    }
+                }
+            }
+        }
+        return Pair.of(builder.build(), regionBuilder != null ? regionBuilder.build() : Region.singleZero());
+    }
+
+    private boolean isCopyable(BlockData data) {
+        return ! data.getState().isAir() && OurItems.gadgetCopyPaste.isAllowedBlock(data.getState().getBlock());
+    }
+}
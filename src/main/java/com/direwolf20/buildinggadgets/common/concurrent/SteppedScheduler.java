@@ -1,8 +1,14 @@
 package com.direwolf20.buildinggadgets.common.concurrent;
 
-import java.util.function.BooleanSupplier;
+/**
+ * An {@link ITickJob} to be run via the {@link ServerTickingScheduler}, which performs up to {@code steps} steps per tick.
+ * If {@link TickTimeBudget#isEnabled() time budgeting} is enabled, the amount of steps performed per tick is additionally limited
+ * by the time slice this job was granted from the {@link TickTimeBudget}.
+ */
+public abstract class SteppedScheduler implements ITickJob {
+    //only query System.nanoTime() every 16 steps, as it isn't that cheap on every platform
+    private static final int TIME_CHECK_MASK = 0xF;
 
-public abstract class SteppedScheduler implements BooleanSupplier {
     protected enum StepResult {
         SUCCESS,
         FAILURE,
@@ -13,28 +19,133 @@ public abstract class SteppedScheduler implements BooleanSupplier {
         }
     }
     private final int steps;
+    private final boolean timeBudgeted;
+    //whether this job is counted by the TickTimeBudget, which only happens once it is run - jobs which are never scheduled mustn't be
+    private boolean countedByBudget;
     private boolean finished;
+    private boolean cancelled;
+    private long performedSteps;
 
     public SteppedScheduler(int steps) {
+        this(steps, TickTimeBudget.isEnabled());
+    }
+
+    public SteppedScheduler(int steps, boolean timeBudgeted) {
         this.steps = steps;
+        this.timeBudgeted = timeBudgeted;
         this.finished = false;
+        this.cancelled = false;
+        this.performedSteps = 0;
+        this.countedByBudget = false;
     }
 
     @Override
     public boolean getAsBoolean() {
         if (finished)
             return false;
-        for (int i = 0; advance() != StepResult.END && i < steps - 1; ++ i)
-            ;
-        boolean res = advance() != StepResult.END;
+        if (timeBudgeted && ! countedByBudget) {
+            countedByBudget = true;
+            TickTimeBudget.onJobStarted();
+        }
+        boolean res = timeBudgeted ? runBudgeted() : runSteps();
+        onStepsPerformed();
         if (! res) {
-            this.finished = true;
+            markFinished();
             onFinish();
         }
         return res;
     }
 
+    @Override
+    public double getProgress() {
+        if (finished)
+            return 1;
+        long remaining = getRemainingEstimate();
+        if (remaining < 0 || remaining == Long.MAX_VALUE)
+            return - 1;
+        return performedSteps / (double) Math.max(1, performedSteps + remaining);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Marks this job as finished and calls {@link #onCancel()}.
+     */
+    @Override
+    public final void onCancelled() {
+        if (finished)
+            return;
+        markFinished();
+        cancelled = true;
+        onCancel();
+    }
+
+    private void markFinished() {
+        this.finished = true;
+        if (countedByBudget) {
+            countedByBudget = false;
+            TickTimeBudget.onJobFinished();
+        }
+    }
+
+    private boolean runSteps() {
+        for (int i = 0; step() != StepResult.END && i < steps - 1; ++ i)
+            ;
+        return step() != StepResult.END;
+    }
+
+    private boolean runBudgeted() {
+        long start = System.nanoTime();
+        long deadline = start + TickTimeBudget.acquireSlice();
+        int performed = 0;
+        StepResult res;
+        //always perform at least one step, so that we progress even if the budget is exhausted
+        do {
+            res = step();
+            ++ performed;
+        } while (res != StepResult.END && performed < steps && ((performed & TIME_CHECK_MASK) != 0 || System.nanoTime() < deadline));
+        TickTimeBudget.release(System.nanoTime() - start);
+        return res != StepResult.END;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return whether this job was cancelled, instead of running until it's last step
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private StepResult step() {
+        StepResult res = advance();
+        if (res != StepResult.END)
+            ++ performedSteps;
+        return res;
+    }
+
+    /**
+     * @return an estimate of how many steps remain to be performed, or a negative value if unknown
+     */
+    protected long getRemainingEstimate() {
+        return - 1;
+    }
+
     protected abstract StepResult advance();
 
+    /**
+     * Called after the steps of a tick were performed - including the last tick, before {@link #onFinish()}.
+     */
+    protected void onStepsPerformed() {}
+
     protected abstract void onFinish();
+
+    /**
+     * Called instead of {@link #onFinish()} if this job is cancelled before it's last step, f.e. by the job command or because the
+     * Server stops. Jobs cancelled this way may already have changed the world - whatever needs to be recorded about those changes
+     * (like an undo) should be recorded here. Steps of the last tick were already followed by {@link #onStepsPerformed()}.
+     */
+    protected void onCancel() {}
 }
@@ -0,0 +1,87 @@
+package com.direwolf20.buildinggadgets.common.concurrent;
+
+import com.direwolf20.buildinggadgets.common.config.Config;
+import net.minecraftforge.event.TickEvent.Phase;
+import net.minecraftforge.event.TickEvent.ServerTickEvent;
+import net.minecraftforge.eventbus.api.EventPriority;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod.EventBusSubscriber;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks how much time the Server spends per tick and hands out fair time slices to all active {@link SteppedScheduler} jobs.
+ * <p>
+ * The total budget per tick is the headroom the last tick left until the target tick length of 50ms was reached (not counting
+ * the time spent in the jobs themselves), capped by the configured maximum. This budget is then split evenly among all jobs
+ * which are currently running, so that multiple players pasting at once cannot stall the tick loop.
+ * <p>
+ * All methods are expected to be called from the Server thread.
+ */
+@EventBusSubscriber
+public final class TickTimeBudget {
+    private static final long TARGET_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long MIN_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    //weight of the newest sample when smoothing the measured tick length
+    private static final double SMOOTHING = 0.25;
+
+    private static int activeJobs = 0;
+    private static long tickStart = 0;
+    private static long usedThisTick = 0;
+    private static long budgetThisTick = MIN_BUDGET_NANOS;
+    private static double smoothedForeignNanos = 0;
+
+    private TickTimeBudget() {}
+
+    public static boolean isEnabled() {
+        return Config.GADGETS.tickTimeBudget.get();
+    }
+
+    static void onJobStarted() {
+        ++ activeJobs;
+    }
+
+    static void onJobFinished() {
+        activeJobs = Math.max(0, activeJobs - 1);
+    }
+
+    /**
+     * @return the amount of nanoseconds the calling job may spend in this tick. This may be 0, if the budget is already exhausted,
+     *         in which case the job should only perform a minimal amount of work to guarantee progress.
+     */
+    static long acquireSlice() {
+        long slice = budgetThisTick / Math.max(1, activeJobs);
+        return Math.max(0, Math.min(slice, budgetThisTick - usedThisTick));
+    }
+
+    static void release(long usedNanos) {
+        usedThisTick += usedNanos;
+    }
+
+    public static int getActiveJobs() {
+        return activeJobs;
+    }
+
+    public static long getBudgetThisTick() {
+        return budgetThisTick;
+    }
+
+    @SubscribeEvent(priority = EventPriority.HIGHEST)
+    public static void onTickStart(ServerTickEvent event) {
+        if (event.phase != Phase.START)
+            return;
+        long maxBudget = TimeUnit.MILLISECONDS.toNanos(Config.GADGETS.maxTickBudget.get());
+        long headroom = TARGET_TICK_NANOS - (long) smoothedForeignNanos;
+        budgetThisTick = Math.max(MIN_BUDGET_NANOS, Math.min(maxBudget, headroom));
+        usedThisTick = 0;
+        tickStart = System.nanoTime();
+    }
+
+    @SubscribeEvent(priority = EventPriority.LOWEST)
+    public static void onTickEnd(ServerTickEvent event) {
+        if (event.phase != Phase.END || tickStart == 0)
+            return;
+        long foreign = Math.max(0, System.nanoTime() - tickStart - usedThisTick);
+        smoothedForeignNanos = smoothedForeignNanos * (1 - SMOOTHING) + foreign * SMOOTHING;
+    }
+}
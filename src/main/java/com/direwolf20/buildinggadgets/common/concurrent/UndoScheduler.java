@@ -22,9 +22,7 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.world.BlockEvent.BreakEvent;
 
-import java.util.Map;
 import java.util.Objects;
-import java.util.Spliterator;
 
 public final class UndoScheduler extends SteppedScheduler {
     public static UndoScheduler scheduleUndo(Undo undo, IItemIndex index, IBuildContext context, int steps) {
@@ -38,7 +36,8 @@ public final class UndoScheduler extends SteppedScheduler {
         return res;
     }
 
-    private final Spliterator<Map.Entry<BlockPos, BlockInfo>> spliterator;
+    private final Undo undo;
+    private int cursor;
     private boolean lastWasSuccess;
     private final IBuildContext context;
     private final IItemIndex index;
@@ -50,44 +49,52 @@ public final class UndoScheduler extends SteppedScheduler {
         assert ! context.getUsedStack().isEmpty();
         this.useContext = new BlockItemUseContext(new ItemUseContext(context.getBuildingPlayer(), Hand.MAIN_HAND,
                 VectorHelper.getLookingAt(context.getBuildingPlayer(), context.getUsedStack())));
-        this.spliterator = undo.getUndoData().entrySet().spliterator();
+        this.undo = undo;
+        this.cursor = 0;
         this.index = index;
         this.context = context;
     }
 
+    @Override
+    protected long getRemainingEstimate() {
+        return undo.size() - cursor;
+    }
+
     @Override
     protected StepResult advance() {
-        if (! spliterator.tryAdvance(this::undoBlock))
+        if (cursor >= undo.size())
             return StepResult.END;
+        undoBlock(undo.getPosition(cursor), undo.getInfo(cursor));
+        cursor++;
         return lastWasSuccess ? StepResult.SUCCESS : StepResult.FAILURE;
     }
 
-    private void undoBlock(Map.Entry<BlockPos, BlockInfo> entry) {
+    private void undoBlock(BlockPos pos, BlockInfo info) {
         //if the block that was placed is no longer there, we should not undo anything
-        BlockState state = context.getWorld().getBlockState(entry.getKey());
-        TileEntity te = context.getWorld().getTileEntity(entry.getKey());
+        BlockState state = context.getWorld().getBlockState(pos);
+        TileEntity te = context.getWorld().getTileEntity(pos);
         BlockData data;
         if (state.getBlock() == OurBlocks.constructionBlock && te instanceof ConstructionBlockTileEntity) {
             data = ((ConstructionBlockTileEntity) te).getConstructionBlockData();
         } else
             data = TileSupport.createBlockData(state, te);
-        if (! data.equals(entry.getValue().getPlacedData())) {
+        if (! data.equals(info.getPlacedData())) {
             lastWasSuccess = false;
             return;
         }
-        if (! state.isAir(context.getWorld(), entry.getKey())) {
-            BreakEvent event = new BreakEvent(context.getWorld().getWorld(), entry.getKey(), state, context.getBuildingPlayer());
+        if (! state.isAir(context.getWorld(), pos)) {
+            BreakEvent event = new BreakEvent(context.getWorld().getWorld(), pos, state, context.getBuildingPlayer());
             if (MinecraftForge.EVENT_BUS.post(event)) {
                 lastWasSuccess = false;
                 return;
             }
         }
-        MatchResult matchResult = index.tryMatch(entry.getValue().getProducedItems());
+        MatchResult matchResult = index.tryMatch(info.getProducedItems());
         lastWasSuccess = matchResult.isSuccess();
         if (lastWasSuccess) {
             index.applyMatch(matchResult);
-            index.insert(entry.getValue().getUsedItems());
-            EffectBlock.spawnUndoBlock(context, new PlacementTarget(entry.getKey(), entry.getValue().getRecordedData()));
+            index.insert(info.getUsedItems());
+            EffectBlock.spawnUndoBlock(context, new PlacementTarget(pos, info.getRecordedData()));
         }
     }
 
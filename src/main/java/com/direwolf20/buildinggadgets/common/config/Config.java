@@ -1,6 +1,7 @@
 package com.direwolf20.buildinggadgets.common.config;
 
 import com.direwolf20.buildinggadgets.common.BuildingGadgets;
+import com.direwolf20.buildinggadgets.common.network.split.PacketSplitManager;
 import com.direwolf20.buildinggadgets.common.util.ref.Reference;
 import net.minecraftforge.common.ForgeConfigSpec;
 import net.minecraftforge.fml.common.Mod.EventBusSubscriber;
@@ -42,6 +43,15 @@ public class Config {
         /* Client Only!*/
         public final BooleanValue absoluteCoordDefault;
         public final BooleanValue allowOverwriteBlocks;
+        public final IntValue templateCacheSize;
+        public final IntValue templateCacheBlocks;
+        public final IntValue templateMaxAge;
+        public final IntValue templateMaxCount;
+        public final IntValue templateMaxSize;
+        public final IntValue undoMaxAge;
+        public final IntValue undoMaxCount;
+        public final IntValue undoMaxSize;
+        public final IntValue splitPacketBytesPerTick;
 
         private CategoryGeneral() {
             SERVER_BUILDER.comment("General mod settings")/*.translation(LANG_KEY_GENERAL)*/.push("general");
@@ -67,6 +77,58 @@ public class Config {
                     .translation(LANG_KEY_GENERAL + ".allowOverwriteBlocks")
                     .define("Allow non-Air-Block-Overwrite", true);
 
+            templateCacheSize = SERVER_BUILDER
+                    .comment("How many Templates the Server keeps in memory at most. Each Template is stored in it's own file and Templates which " +
+                            "weren't used recently are unloaded, once this is exceeded.")
+                    .translation(LANG_KEY_GENERAL + ".templateCacheSize")
+                    .defineInRange("Cached Templates", 64, 1, Integer.MAX_VALUE);
+
+            templateCacheBlocks = SERVER_BUILDER
+                    .comment("How many Blocks all Templates kept in memory by the Server may contain together, before Templates which weren't " +
+                            "used recently are unloaded.")
+                    .translation(LANG_KEY_GENERAL + ".templateCacheBlocks")
+                    .defineInRange("Cached Template Blocks", 4_000_000, 1, Integer.MAX_VALUE);
+
+            templateMaxAge = SERVER_BUILDER
+                    .comment("After how many days without being used a Template is deleted from the Server. 0 disables this limit.",
+                            "Deleted Templates can no longer be pasted by Gadgets or Templates referencing them!")
+                    .translation(LANG_KEY_GENERAL + ".templateMaxAge")
+                    .defineInRange("Template Max Age (Days)", 0, 0, Integer.MAX_VALUE);
+
+            templateMaxCount = SERVER_BUILDER
+                    .comment("How many Templates the Server stores at most. Once exceeded, the least recently used Templates are deleted. 0 disables this limit.")
+                    .translation(LANG_KEY_GENERAL + ".templateMaxCount")
+                    .defineInRange("Max Templates", 0, 0, Integer.MAX_VALUE);
+
+            templateMaxSize = SERVER_BUILDER
+                    .comment("How many megabytes all Templates stored by the Server may take up on disk. Once exceeded, the least recently used " +
+                            "Templates are deleted. 0 disables this limit.")
+                    .translation(LANG_KEY_GENERAL + ".templateMaxSize")
+                    .defineInRange("Max Template Storage (MB)", 0, 0, Integer.MAX_VALUE);
+
+            undoMaxAge = SERVER_BUILDER
+                    .comment("After how many days without being used the Undo-History of a Gadget is deleted. 0 disables this limit.")
+                    .translation(LANG_KEY_GENERAL + ".undoMaxAge")
+                    .defineInRange("Undo Max Age (Days)", 0, 0, Integer.MAX_VALUE);
+
+            undoMaxCount = SERVER_BUILDER
+                    .comment("How many Undo-Histories are stored at most per Gadget type. Once exceeded, the least recently used Histories are deleted. " +
+                            "0 disables this limit.")
+                    .translation(LANG_KEY_GENERAL + ".undoMaxCount")
+                    .defineInRange("Max Undo Histories", 0, 0, Integer.MAX_VALUE);
+
+            undoMaxSize = SERVER_BUILDER
+                    .comment("Roughly how many megabytes the Undo-Histories of one Gadget type may take up in the world save. Once exceeded, the " +
+                            "least recently used Histories are deleted. 0 disables this limit.")
+                    .translation(LANG_KEY_GENERAL + ".undoMaxSize")
+                    .defineInRange("Max Undo Storage (MB)", 0, 0, Integer.MAX_VALUE);
+
+            splitPacketBytesPerTick = SERVER_BUILDER
+                    .comment("How many bytes of large transfers (like Templates) are sent to each player per tick. Higher values transfer " +
+                            "Templates faster, but may delay other packets (like chunks) on slow connections.")
+                    .translation(LANG_KEY_GENERAL + ".splitPacketBytesPerTick")
+                    .defineInRange("Bytes Per Tick For Large Transfers", 131_072, PacketSplitManager.SPLIT_BORDER, Integer.MAX_VALUE);
+
             CLIENT_BUILDER.pop();
             SERVER_BUILDER.pop();
         }
@@ -120,6 +182,8 @@ public class Config {
     public static final class CategoryGadgets {
         public final IntValue maxRange;
         public final IntValue placeSteps;
+        public final BooleanValue tickTimeBudget;
+        public final IntValue maxTickBudget;
         public final CategoryGadgetBuilding GADGET_BUILDING;
         public final CategoryGadgetExchanger GADGET_EXCHANGER;
         public final CategoryGadgetDestruction GADGET_DESTRUCTION;
@@ -142,6 +206,19 @@ public class Config {
                     //use the old cap as the synchronous border... This implies that 32*32*32 areas are the max size for a synchronous copy by default
                     .defineInRange("Max Placement/Tick", 1024, 1, Integer.MAX_VALUE);
 
+            tickTimeBudget = SERVER_BUILDER
+                    .comment("Whether placing, copying and undoing should be limited by the time spent per Tick instead of only by a fixed amount of Blocks.",
+                            "If enabled, all running operations share a time budget, which adapts to how long the rest of the Server-Tick takes. " +
+                                    "The per Tick Block limits still apply as an upper bound.")
+                    .translation(LANG_KEY_GADGETS + ".tick_time_budget")
+                    .define("Use Tick Time Budget", false);
+
+            maxTickBudget = SERVER_BUILDER
+                    .comment("Maximum amount of milliseconds all placing, copying and undoing operations may take together in one Tick.",
+                            "Only has an effect if 'Use Tick Time Budget' is enabled.")
+                    .translation(LANG_KEY_GADGETS + ".max_tick_budget")
+                    .defineInRange("Max Time/Tick", 10, 1, 50);
+
             GADGET_BUILDING     = new CategoryGadgetBuilding();
             GADGET_EXCHANGER    = new CategoryGadgetExchanger();
             GADGET_DESTRUCTION  = new CategoryGadgetDestruction();
@@ -249,6 +326,7 @@ public class Config {
             public final IntValue energyCost;
             public final IntValue undoSize;
             public final IntValue copySteps;
+            public final BooleanValue snapshotCopy;
             public final IntValue maxCopySize;
             public final IntValue maxBuildSize;
 
@@ -266,6 +344,14 @@ public class Config {
                         //use the old cap as the per tick border... This implies that 32*32*32 areas are the max size for a one tick copy by default
                         .defineInRange("Max Copy/Tick", 32768, 1, Integer.MAX_VALUE);
 
+                snapshotCopy = SERVER_BUILDER
+                        .comment("Whether copies should only capture snapshots of the copied chunk sections on the Server thread and evaluate them " +
+                                        "on a background thread.",
+                                "This greatly reduces the time copying takes on the Server thread, but may not detect blocks from other mods, " +
+                                        "which decide whether they are air based on the world, correctly.")
+                        .translation(LANG_KEY_GADGET_COPY_PASTE + ".snapshot_copy")
+                        .define("Copy Off-Thread", false);
+
                 maxCopySize = SERVER_BUILDER
                         .comment("Maximum dimensions (x, y and z) that can be copied by a Template without requiring special permission.",
                                 "Permission can be granted using the '/buildinggadgets OverrideCopySize [<Player>]' command.")
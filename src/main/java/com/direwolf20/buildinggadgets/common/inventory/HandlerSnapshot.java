@@ -0,0 +1,62 @@
+package com.direwolf20.buildinggadgets.common.inventory;
+
+import net.minecraft.item.Item;
+import net.minecraftforge.items.IItemHandler;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Records which {@link Item} each slot of some {@link IItemHandler IItemHandlers} held when they were indexed. The structure of a
+ * {@link PlayerItemIndex} only depends on that - counts are always read from the slots themselves - so comparing a snapshot
+ * against the current slots tells whether an index can be reused, at a fraction of the cost of indexing again. The handlers to
+ * compare against still have to be looked up by the caller (one capability query each), but no handle is created.
+ */
+final class HandlerSnapshot {
+    private final IItemHandler[] handlers;
+    private final Item[][] items;
+
+    /**
+     * @param handlers the indexed handlers, null entries are allowed and represent absent handlers (f.e. an unbound remote inventory)
+     */
+    static HandlerSnapshot of(List<IItemHandler> handlers) {
+        IItemHandler[] handlerArray = handlers.toArray(new IItemHandler[0]);
+        Item[][] items = new Item[handlerArray.length][];
+        for (int i = 0; i < handlerArray.length; i++) {
+            if (handlerArray[i] == null)
+                continue;
+            items[i] = new Item[handlerArray[i].getSlots()];
+            for (int slot = 0; slot < items[i].length; slot++)
+                items[i][slot] = handlerArray[i].getStackInSlot(slot).getItem();
+        }
+        return new HandlerSnapshot(handlerArray, items);
+    }
+
+    private HandlerSnapshot(IItemHandler[] handlers, Item[][] items) {
+        this.handlers = handlers;
+        this.items = items;
+    }
+
+    /**
+     * @return whether the given handlers are the ones recorded, and each of their slots still holds the recorded {@link Item}
+     */
+    boolean matches(List<IItemHandler> currentHandlers) {
+        if (currentHandlers.size() != handlers.length)
+            return false;
+        for (int i = 0; i < handlers.length; i++) {
+            IItemHandler handler = currentHandlers.get(i);
+            //wrappers are commonly recreated, but compare equal if they wrap the same inventory
+            if (! Objects.equals(handler, handlers[i]))
+                return false;
+            if (handler == null)
+                continue;
+            if (handler.getSlots() != items[i].length)
+                return false;
+            for (int slot = 0; slot < items[i].length; slot++) {
+                if (handler.getStackInSlot(slot).getItem() != items[i][slot])
+                    return false;
+            }
+        }
+        return true;
+    }
+}
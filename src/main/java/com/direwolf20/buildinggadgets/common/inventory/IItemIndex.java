@@ -32,8 +32,24 @@ public interface IItemIndex {
 
     boolean applyMatch(MatchResult result);
 
+    /**
+     * @return how many of the given object could currently be extracted, or {@link Integer#MAX_VALUE} if there's no limit
+     */
+    default int count(IUniqueObject<?> obj) {
+        MatchResult result = tryMatch(MaterialList.simpleBuilder().addItem(obj, Integer.MAX_VALUE).build());
+        return result.isSuccess() ? Integer.MAX_VALUE : result.getFoundItems().count(obj);
+    }
+
     default boolean applyMatch(MaterialList list) {
         MatchResult result = tryMatch(list);
         return result.isSuccess() && applyMatch(result);
     }
+
+    /**
+     * Starts reserving materials for multiple targets, which are then extracted all at once. Implementations should override this
+     * if they can do better than matching each reservation against everything reserved before.
+     */
+    default IMaterialReservation reserve() {
+        return new RecordingMaterialReservation(this);
+    }
 }
@@ -0,0 +1,38 @@
+package com.direwolf20.buildinggadgets.common.inventory;
+
+import com.direwolf20.buildinggadgets.common.inventory.materials.MaterialList;
+
+import java.util.Set;
+
+/**
+ * Reserves materials from an {@link IItemIndex} for multiple targets, so that they can be extracted all at once instead of
+ * matching and extracting for every single target. Each reservation takes everything reserved before it into account, so
+ * the resulting {@link MatchResult MatchResults} are the per-target allocation of the available materials.
+ * <p>
+ * Nothing is extracted before {@link #settle()} is called. Discarding a reservation without settling it is therefore always safe.
+ *
+ * @see IItemIndex#reserve()
+ */
+public interface IMaterialReservation {
+    /**
+     * Reserves the first option of the given {@link MaterialList} which is still available.
+     *
+     * @return a successful {@link MatchResult} whose {@link MatchResult#getChosenOption() chosen option} are the reserved materials,
+     *         or a failure if no option is available anymore. Failures don't report the found Items.
+     */
+    MatchResult reserve(MaterialList list);
+
+    /**
+     * Releases a successful reservation, f.e. because it's target turned out to be invalid after all.
+     */
+    void release(MatchResult reservation);
+
+    /**
+     * Extracts the materials of all reservations which weren't released. If less can be extracted than was reserved (because the
+     * inventories changed in the meantime), the most recent reservations are failed until the remaining ones can be satisfied - the
+     * materials of failed reservations aren't extracted at all.
+     *
+     * @return the settled reservations, compared by identity
+     */
+    Set<MatchResult> settle();
+}
@@ -63,10 +63,44 @@ public class InventoryHelper {
             ImmutableSet.<IProperty<?>>builder().add(CropsBlock.AGE).build();
     public static final CreativeItemIndex CREATIVE_INDEX = new CreativeItemIndex();
 
+    //indexes of the players, which are reused as long as they are up to date. Keyed by id rather than by player, as each index
+    //references it's player (and the player's inventories) - they are evicted on logout instead. One map per logical side, as the
+    //client and an integrated server see players with the same id.
+    private static final Map<UUID, PlayerItemIndex> SERVER_INDEX_CACHE = Collections.synchronizedMap(new HashMap<>());
+    private static final Map<UUID, PlayerItemIndex> CLIENT_INDEX_CACHE = Collections.synchronizedMap(new HashMap<>());
+
+    /**
+     * @return an index of all Items accessible to the given player. The index may be shared with earlier operations of the same
+     *         player if their inventories didn't change in the meantime, so it must not be used once the operation is done.
+     */
     public static IItemIndex index(ItemStack tool, PlayerEntity player) {
         if (player.isCreative())
             return CREATIVE_INDEX;
-        return new PlayerItemIndex(tool, player);
+        Map<UUID, PlayerItemIndex> cache = getIndexCache(player);
+        PlayerItemIndex index = cache.get(player.getUniqueID());
+        if (index == null || ! index.isUpToDate(tool, player)) {
+            index = new PlayerItemIndex(tool, player);
+            cache.put(player.getUniqueID(), index);
+        }
+        return index;
+    }
+
+    /**
+     * Drops the cached index of the given player, f.e. when it logs out.
+     */
+    public static void evictIndex(PlayerEntity player) {
+        getIndexCache(player).remove(player.getUniqueID());
+    }
+
+    /**
+     * Drops all cached indexes of the client, f.e. once it disconnected.
+     */
+    public static void clearClientIndexes() {
+        CLIENT_INDEX_CACHE.clear();
+    }
+
+    private static Map<UUID, PlayerItemIndex> getIndexCache(PlayerEntity player) {
+        return player.world.isRemote ? CLIENT_INDEX_CACHE : SERVER_INDEX_CACHE;
     }
 
     static List<IInsertProvider> indexInsertProviders(ItemStack tool, PlayerEntity player) {
@@ -78,9 +112,9 @@ public class InventoryHelper {
         return builder.build();
     }
 
-    static Map<Class<?>, Map<Object, List<IObjectHandle<?>>>> indexMap(ItemStack tool, PlayerEntity player) {
+    static Map<Class<?>, Map<Object, List<IObjectHandle<?>>>> indexMap(List<IItemHandler> handlers) {
         Map<Class<?>, Map<Object, List<IObjectHandle<?>>>> map = new HashMap<>();
-        for (IItemHandler handler : getHandlers(tool, player)) {
+        for (IItemHandler handler : handlers) {
             if (handler != null)
                 ItemHandlerProvider.index(handler, map);
         }
@@ -332,9 +366,20 @@ public class InventoryHelper {
     }
 
     public static Optional<BlockData> getSafeBlockData(PlayerEntity player, BlockPos pos, BlockItemUseContext useContext) {
+        return getSafeBlockData(player, pos, player.world.getBlockState(pos), useContext);
+    }
+
+    /**
+     * Variant of {@link #getSafeBlockData(PlayerEntity, BlockPos, Hand)} for callers which already read the state at the given position.
+     */
+    public static Optional<BlockData> getSafeBlockData(PlayerEntity player, BlockPos pos, BlockState state, Hand hand) {
+        BlockItemUseContext blockItemUseContext = new BlockItemUseContext(new ItemUseContext(player, hand, CommonUtils.fakeRayTrace(player.getPositionVec(), pos)));
+        return getSafeBlockData(player, pos, state, blockItemUseContext);
+    }
+
+    private static Optional<BlockData> getSafeBlockData(PlayerEntity player, BlockPos pos, BlockState state, BlockItemUseContext useContext) {
         World world = player.world;
-        BlockState state = world.getBlockState(pos);
-        if (state.getBlock() instanceof FlowingFluidBlock || ! state.getFluidState().isEmpty())
+        if (isFluid(state))
             return Optional.empty();
         if (state.getBlock() == OurBlocks.constructionBlock) {
             TileEntity te = world.getTileEntity(pos);
@@ -356,6 +401,20 @@ public class InventoryHelper {
         return Optional.of(new BlockData(state, TileSupport.createTileData(world, pos)));
     }
 
+    /**
+     * World independent variant of {@link #getSafeBlockData(PlayerEntity, BlockPos, BlockItemUseContext)} for positions without a
+     * {@link TileEntity}. As this doesn't access the world, it may be called from any thread.
+     */
+    public static Optional<BlockData> getSafeBlockData(BlockState state) {
+        if (isFluid(state))
+            return Optional.empty();
+        return Optional.of(new BlockData(state, TileSupport.dummyTileEntityData()));
+    }
+
+    private static boolean isFluid(BlockState state) {
+        return state.getBlock() instanceof FlowingFluidBlock || ! state.getFluidState().isEmpty();
+    }
+
     //proper generics...
     private static <T extends Comparable<T>> BlockState applyProperty(BlockState state, BlockState from, IProperty<T> prop) {
         return state.with(prop, from.get(prop));
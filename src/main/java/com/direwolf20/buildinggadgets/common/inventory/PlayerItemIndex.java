@@ -6,24 +6,39 @@ import com.direwolf20.buildinggadgets.common.inventory.materials.objects.IUnique
 import com.direwolf20.buildinggadgets.common.inventory.materials.objects.UniqueItem;
 import com.google.common.collect.*;
 import com.google.common.collect.Multiset.Entry;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
 import net.minecraft.entity.item.ItemEntity;
 import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
 import net.minecraft.item.Items;
+import net.minecraftforge.items.IItemHandler;
 
 import java.util.*;
 
 /**
  * Item Index representation all Items accessible for the Player by BuildingGadgets.
  * To allow for better performance, the Items in the player's Inventory are indexed by their Item and upon query only those with the appropriate Item need to be iterated.
+ * <p>
+ * Indexes are reused across operations by {@link InventoryHelper#index(ItemStack, PlayerEntity)} for as long as they are
+ * {@link #isUpToDate(ItemStack, PlayerEntity) up to date}, as indexing walks every slot of every handler - which renderers would otherwise do each frame.
  */
 public final class PlayerItemIndex implements IItemIndex {
+    //nested handlers (f.e. in backpacks) aren't covered by the snapshot, so indexes are refreshed after this many ticks regardless
+    private static final long MAX_AGE = 20;
     //use a class map first, to allow for non-Item IUniqueObjects...
     private Map<Class<?>, Map<Object, List<IObjectHandle<?>>>> handleMap;
+    //the Item entries of handleMap (sharing the lists), as almost all lookups are for Items. Items are singletons, so they can be compared by reference.
+    private Reference2ObjectOpenHashMap<Item, List<IObjectHandle<?>>> itemHandles;
     private List<IInsertProvider> insertProviders;
     private final ItemStack stack;
     private final PlayerEntity player;
+    private HandlerSnapshot snapshot;
+    private long indexTime;
+    //simulated insertions move handles without changing the slots, so the index no longer matches the handlers
+    private boolean structureModified;
 
     public PlayerItemIndex(ItemStack stack, PlayerEntity player) {
         this.stack = stack;
@@ -31,8 +46,20 @@ public final class PlayerItemIndex implements IItemIndex {
         reIndex();
     }
 
+    /**
+     * @return whether this index was created for the given player (and not f.e. for it's instance before respawning) and still
+     *         reflects it's inventories, so that it can be used for an operation with the given tool
+     */
+    boolean isUpToDate(ItemStack tool, PlayerEntity player) {
+        return this.player == player
+                && ! structureModified
+                && player.world.getGameTime() - indexTime < MAX_AGE
+                && snapshot.matches(InventoryHelper.getHandlers(tool, player));
+    }
+
     @Override
     public Multiset<IUniqueObject<?>> insert(Multiset<IUniqueObject<?>> items, boolean simulate) {
+        structureModified = true;
         Multiset<IUniqueObject<?>> copy = HashMultiset.create(items);
         Multiset<IUniqueObject<?>> toRemove = HashMultiset.create();
         for (Multiset.Entry<IUniqueObject<?>> entry : copy.entrySet()) {
@@ -80,9 +107,7 @@ public final class PlayerItemIndex implements IItemIndex {
     }
 
     private int insertIntoEmptyHandles(ItemStack stack, int remainingCount, boolean simulate) {
-        List<IObjectHandle<?>> emptyHandles = handleMap
-                .computeIfAbsent(Item.class, c -> new HashMap<>())
-                .getOrDefault(Items.AIR, ImmutableList.of());
+        List<IObjectHandle<?>> emptyHandles = itemHandles.getOrDefault(Items.AIR, ImmutableList.of());
         for (Iterator<IObjectHandle<?>> it = emptyHandles.iterator(); it.hasNext() && remainingCount >= 0; ) {
             IObjectHandle<?> handle = it.next();
             UniqueItem item = UniqueItem.ofStack(stack);
@@ -90,9 +115,7 @@ public final class PlayerItemIndex implements IItemIndex {
             if (match > 0)
                 remainingCount -= match;
             it.remove();
-            handleMap.get(Item.class)
-                    .computeIfAbsent(item.getIndexObject(), i -> new ArrayList<>())
-                    .add(handle);
+            getOrCreateItemHandles(item.getIndexObject()).add(handle);
             if (remainingCount <= 0)
                 return 0;
         }
@@ -111,9 +134,7 @@ public final class PlayerItemIndex implements IItemIndex {
 
     private int performComplexInsert(IUniqueObject<?> obj, int count, boolean simulate) {
         int remainingCount = count;
-        List<IObjectHandle<?>> handles = handleMap
-                .getOrDefault(obj.getIndexClass(), ImmutableMap.of())
-                .getOrDefault(obj.getIndexObject(), ImmutableList.of());
+        List<IObjectHandle<?>> handles = getHandles(obj);
         for (Iterator<IObjectHandle<?>> it = handles.iterator(); it.hasNext() && remainingCount >= 0; ) {
             IObjectHandle<?> handle = it.next();
             int match = handle.insert(obj, remainingCount, simulate);
@@ -129,8 +150,16 @@ public final class PlayerItemIndex implements IItemIndex {
 
     @Override
     public void reIndex() {
-        this.handleMap = InventoryHelper.indexMap(stack, player);
+        List<IItemHandler> handlers = InventoryHelper.getHandlers(stack, player);
+        this.handleMap = InventoryHelper.indexMap(handlers);
+        Map<Object, List<IObjectHandle<?>>> itemMap = handleMap.getOrDefault(Item.class, ImmutableMap.of());
+        this.itemHandles = new Reference2ObjectOpenHashMap<>(itemMap.size());
+        for (Map.Entry<Object, List<IObjectHandle<?>>> entry : itemMap.entrySet())
+            itemHandles.put((Item) entry.getKey(), entry.getValue());
         this.insertProviders = InventoryHelper.indexInsertProviders(stack, player);
+        this.snapshot = HandlerSnapshot.of(handlers);
+        this.indexTime = player.world.getGameTime();
+        this.structureModified = false;
     }
 
     @Override
@@ -163,34 +192,57 @@ public final class PlayerItemIndex implements IItemIndex {
         ImmutableMultiset.Builder<IUniqueObject<?>> availableBuilder = ImmutableMultiset.builder();
         boolean failure = false;
         for (Entry<IUniqueObject<?>> entry : multiset.entrySet()) {
-            int remainingCount = entry.getCount();
-            Class<?> indexClass = entry.getElement().getIndexClass();
-            List<IObjectHandle<?>> entries = handleMap
-                    .getOrDefault(indexClass, ImmutableMap.of())
-                    .getOrDefault(entry.getElement().getIndexObject(), ImmutableList.of());
-            for (Iterator<IObjectHandle<?>> it = entries.iterator(); it.hasNext() && remainingCount >= 0; ) {
-                IObjectHandle<?> handle = it.next();
-                int match = handle.match(entry.getElement(), remainingCount, simulate);
-                if (match > 0)
-                    remainingCount -= match;
-                if (handle.shouldCleanup()) {
-                    it.remove();
-                    if (indexClass == Item.class)  //make it ready for insertion if this is an Item handle
-                        handleMap.computeIfAbsent(Item.class, c -> new HashMap<>())
-                                .computeIfAbsent(Items.AIR, i -> new ArrayList<>())
-                                .add(handle);
-                }
-            }
-            remainingCount = Math.max(0, remainingCount);
-            if (remainingCount > 0)
+            int found = extract(entry.getElement(), entry.getCount(), simulate);
+            if (found < entry.getCount())
                 failure = true;
-            availableBuilder.addCopies(entry.getElement(), entry.getCount() - remainingCount);
+            availableBuilder.addCopies(entry.getElement(), found);
         }
         if (failure)
             return MatchResult.failure(list, availableBuilder.build(), ImmutableMultiset.of());
         return MatchResult.success(list, availableBuilder.build(), ImmutableMultiset.of());
     }
 
+    /**
+     * @return how many of the given object could be extracted, at most {@code count}
+     */
+    private int extract(IUniqueObject<?> obj, int count, boolean simulate) {
+        int remainingCount = count;
+        Class<?> indexClass = obj.getIndexClass();
+        List<IObjectHandle<?>> entries = getHandles(obj);
+        //stop as soon as enough was found, there's no point in asking the remaining handles for nothing
+        for (Iterator<IObjectHandle<?>> it = entries.iterator(); it.hasNext() && remainingCount > 0; ) {
+            IObjectHandle<?> handle = it.next();
+            int match = handle.match(obj, remainingCount, simulate);
+            if (match > 0)
+                remainingCount -= match;
+            if (handle.shouldCleanup()) {
+                it.remove();
+                if (indexClass == Item.class)  //make it ready for insertion if this is an Item handle
+                    getOrCreateItemHandles(Items.AIR).add(handle);
+            }
+        }
+        return count - Math.max(0, remainingCount);
+    }
+
+    private List<IObjectHandle<?>> getHandles(IUniqueObject<?> obj) {
+        if (obj.getIndexClass() == Item.class)
+            return itemHandles.getOrDefault(obj.getIndexObject(), ImmutableList.of());
+        return handleMap
+                .getOrDefault(obj.getIndexClass(), ImmutableMap.of())
+                .getOrDefault(obj.getIndexObject(), ImmutableList.of());
+    }
+
+    private List<IObjectHandle<?>> getOrCreateItemHandles(Item item) {
+        List<IObjectHandle<?>> handles = itemHandles.get(item);
+        if (handles == null) {
+            handles = new ArrayList<>();
+            itemHandles.put(item, handles);
+            //keep the generic map in sync, it is handed to IUniqueObject#tryCreateInsertStack
+            handleMap.computeIfAbsent(Item.class, c -> new HashMap<>()).put(item, handles);
+        }
+        return handles;
+    }
+
     @Override
     public boolean applyMatch(MatchResult result) {
         if (! result.isSuccess())
@@ -198,4 +250,110 @@ public final class PlayerItemIndex implements IItemIndex {
         return match(result.getMatchedList(), result.getChosenOption(), false).isSuccess();
     }
 
+    @Override
+    public int count(IUniqueObject<?> obj) {
+        return extract(obj, Integer.MAX_VALUE, true);
+    }
+
+    @Override
+    public IMaterialReservation reserve() {
+        return new Reservation();
+    }
+
+    /**
+     * Keeps track of the available and reserved amount per object, so that a reservation is only a few lookups once each object
+     * was counted. Settling extracts the total of each object in one go.
+     */
+    private final class Reservation implements IMaterialReservation {
+        private final Object2IntOpenHashMap<IUniqueObject<?>> available;
+        private final Object2IntOpenHashMap<IUniqueObject<?>> reserved;
+        private final List<MatchResult> reservations;
+
+        private Reservation() {
+            this.available = new Object2IntOpenHashMap<>();
+            this.reserved = new Object2IntOpenHashMap<>();
+            this.reservations = new ArrayList<>();
+        }
+
+        @Override
+        public MatchResult reserve(MaterialList list) {
+            Iterator<ImmutableMultiset<IUniqueObject<?>>> it = list.iterator();
+            if (! it.hasNext()) //nothing required
+                return track(MatchResult.success(list, ImmutableMultiset.of(), ImmutableMultiset.of()));
+            while (it.hasNext()) {
+                ImmutableMultiset<IUniqueObject<?>> option = it.next();
+                if (isAvailable(option)) {
+                    for (Entry<IUniqueObject<?>> entry : option.entrySet())
+                        reserved.addTo(entry.getElement(), entry.getCount());
+                    return track(MatchResult.success(list, option, option));
+                }
+            }
+            return MatchResult.failure(list, ImmutableMultiset.of(), ImmutableMultiset.of());
+        }
+
+        @Override
+        public void release(MatchResult reservation) {
+            //usually the most recent one is released, so search from the end
+            for (int i = reservations.size() - 1; i >= 0; i--) {
+                if (reservations.get(i) == reservation) {
+                    reservations.remove(i);
+                    unReserve(reservation);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public Set<MatchResult> settle() {
+            //verify first, as failing reservations afterwards would require putting extracted materials back
+            Object2IntOpenHashMap<IUniqueObject<?>> missing = new Object2IntOpenHashMap<>();
+            for (Object2IntMap.Entry<IUniqueObject<?>> entry : reserved.object2IntEntrySet()) {
+                int found = extract(entry.getKey(), entry.getIntValue(), true);
+                if (found < entry.getIntValue())
+                    missing.put(entry.getKey(), entry.getIntValue() - found);
+            }
+            for (int i = reservations.size() - 1; i >= 0 && ! missing.isEmpty(); i--) {
+                MatchResult reservation = reservations.get(i);
+                if (reservation.getChosenOption().elementSet().stream().noneMatch(missing::containsKey))
+                    continue;
+                reservations.remove(i);
+                unReserve(reservation);
+                for (Entry<IUniqueObject<?>> entry : reservation.getChosenOption().entrySet()) {
+                    if (missing.containsKey(entry.getElement()) && missing.addTo(entry.getElement(), - entry.getCount()) - entry.getCount() <= 0)
+                        missing.removeInt(entry.getElement());
+                }
+            }
+            for (Object2IntMap.Entry<IUniqueObject<?>> entry : reserved.object2IntEntrySet())
+                extract(entry.getKey(), entry.getIntValue(), false);
+            Set<MatchResult> settled = Collections.newSetFromMap(new IdentityHashMap<>());
+            settled.addAll(reservations);
+            reservations.clear();
+            reserved.clear();
+            available.clear();
+            return settled;
+        }
+
+        private MatchResult track(MatchResult reservation) {
+            reservations.add(reservation);
+            return reservation;
+        }
+
+        private boolean isAvailable(ImmutableMultiset<IUniqueObject<?>> option) {
+            for (Entry<IUniqueObject<?>> entry : option.entrySet()) {
+                IUniqueObject<?> obj = entry.getElement();
+                int count = available.computeIntIfAbsent(obj, PlayerItemIndex.this::count);
+                if (count - reserved.getInt(obj) < entry.getCount())
+                    return false;
+            }
+            return true;
+        }
+
+        private void unReserve(MatchResult reservation) {
+            for (Entry<IUniqueObject<?>> entry : reservation.getChosenOption().entrySet()) {
+                if (reserved.addTo(entry.getElement(), - entry.getCount()) - entry.getCount() <= 0)
+                    reserved.removeInt(entry.getElement());
+            }
+        }
+    }
+
 }
@@ -2,15 +2,26 @@ package com.direwolf20.buildinggadgets.common.inventory;
 
 import com.direwolf20.buildinggadgets.common.inventory.materials.MaterialList;
 import com.direwolf20.buildinggadgets.common.inventory.materials.objects.IUniqueObject;
+import com.direwolf20.buildinggadgets.common.inventory.materials.objects.UniqueItem;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableMultiset;
 import com.google.common.collect.Multiset;
+import com.google.common.collect.Multiset.Entry;
 import com.google.common.collect.Multisets;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.item.Item;
+
+import java.util.Iterator;
 
 /**
  * An {@link IItemIndex} which instead of inserting or extracting Items from the backing {@link IItemIndex} keeps record of
- * everything that was attempted to be inserted and then simulates extraction/insertion of the combination of the "record" and
- * the new Items. Works just like {@link com.direwolf20.buildinggadgets.common.util.tools.SimulateEnergyStorage} - only for Items.
+ * everything that was attempted to be extracted. Works just like {@link com.direwolf20.buildinggadgets.common.util.tools.SimulateEnergyStorage} - only for Items.
+ * <p>
+ * The backing index is only asked for the {@link IItemIndex#count(IUniqueObject) count} of each object once, afterwards matches
+ * are decided on the remaining counts alone. Objects which only describe an Item (the common case) are kept by Item id, so
+ * simulating the placement of a large build is a single pass over it's targets. Note that objects which match the same stacks
+ * (f.e. an Item with and without a partial nbt match) are counted independently.
  *
  * @see com.direwolf20.buildinggadgets.common.util.tools.SimulateEnergyStorage
  */
@@ -18,18 +29,29 @@ public final class RecordingItemIndex implements IItemIndex {
     private final IItemIndex other;
     private Multiset<IUniqueObject<?>> extractedItems;
     private Multiset<IUniqueObject<?>> insertedItems;
+    //remaining counts of objects which only describe an Item, by Item id
+    private final Int2IntOpenHashMap remainingItems;
+    private final Object2IntOpenHashMap<IUniqueObject<?>> remainingObjects;
 
     public RecordingItemIndex(IItemIndex other) {
         this.other = other;
         this.extractedItems = HashMultiset.create();
         this.insertedItems = HashMultiset.create();
+        this.remainingItems = new Int2IntOpenHashMap();
+        this.remainingItems.defaultReturnValue(- 1);
+        this.remainingObjects = new Object2IntOpenHashMap<>();
+        this.remainingObjects.defaultReturnValue(- 1);
     }
 
     @Override
     public Multiset<IUniqueObject<?>> insert(Multiset<IUniqueObject<?>> items, boolean simulate) {
         Multiset<IUniqueObject<?>> res = other.insert(items, simulate);
-        if (! simulate)
+        if (! simulate) {
             insertedItems.addAll(items);
+            //the backing index changed, so these need to be counted again
+            for (IUniqueObject<?> obj : items.elementSet())
+                forget(obj);
+        }
         return res;
     }
 
@@ -38,30 +60,48 @@ public final class RecordingItemIndex implements IItemIndex {
         other.reIndex();
         insertedItems.clear();
         extractedItems.clear();
+        remainingItems.clear();
+        remainingObjects.clear();
     }
 
     @Override
     public MatchResult tryMatch(MaterialList list) {
-        return other.tryMatch(MaterialList.and(list, MaterialList.of(extractedItems)));
+        Iterator<ImmutableMultiset<IUniqueObject<?>>> it = list.iterator();
+        if (! it.hasNext())
+            return MatchResult.success(list, ImmutableMultiset.of(), ImmutableMultiset.of());
+        ImmutableMultiset<IUniqueObject<?>> first = it.next();
+        for (ImmutableMultiset<IUniqueObject<?>> option = first; ; option = it.next()) {
+            if (isAvailable(option))
+                return MatchResult.success(list, option, option);
+            if (! it.hasNext())
+                break;
+        }
+        return MatchResult.failure(list, evaluateFoundItems(list), first);
     }
 
     @Override
     public MatchResult tryMatch(Multiset<IUniqueObject<?>> items) {
-        return other.tryMatch(ImmutableMultiset.<IUniqueObject<?>>builder()
-                .addAll(items)
-                .addAll(extractedItems)
-                .build());
+        return tryMatch(MaterialList.of(items));
     }
 
     @Override
     public boolean applyMatch(MatchResult result) {
         if (result.isSuccess()) {
-            extractedItems.addAll(Multisets.difference(result.getChosenOption(), extractedItems));
+            for (Entry<IUniqueObject<?>> entry : result.getChosenOption().entrySet()) {
+                IUniqueObject<?> obj = entry.getElement();
+                setRemaining(obj, getRemaining(obj) - entry.getCount());
+                extractedItems.add(obj, entry.getCount());
+            }
             return true;
         }
         return false;
     }
 
+    @Override
+    public int count(IUniqueObject<?> obj) {
+        return Math.max(0, getRemaining(obj));
+    }
+
     public Multiset<IUniqueObject<?>> getExtractedItems() {
         return Multisets.unmodifiableMultiset(extractedItems);
     }
@@ -69,4 +109,66 @@ public final class RecordingItemIndex implements IItemIndex {
     public Multiset<IUniqueObject<?>> getInsertedItems() {
         return Multisets.unmodifiableMultiset(insertedItems);
     }
+
+    private boolean isAvailable(ImmutableMultiset<IUniqueObject<?>> option) {
+        for (Entry<IUniqueObject<?>> entry : option.entrySet()) {
+            if (getRemaining(entry.getElement()) < entry.getCount())
+                return false;
+        }
+        return true;
+    }
+
+    private ImmutableMultiset<IUniqueObject<?>> evaluateFoundItems(MaterialList list) {
+        Multiset<IUniqueObject<?>> required = HashMultiset.create();
+        for (ImmutableMultiset<IUniqueObject<?>> option : list) {
+            for (Entry<IUniqueObject<?>> entry : option.entrySet())
+                required.setCount(entry.getElement(), Math.max(required.count(entry.getElement()), entry.getCount()));
+        }
+        ImmutableMultiset.Builder<IUniqueObject<?>> builder = ImmutableMultiset.builder();
+        for (Entry<IUniqueObject<?>> entry : required.entrySet())
+            builder.addCopies(entry.getElement(), Math.min(entry.getCount(), count(entry.getElement())));
+        return builder.build();
+    }
+
+    private int getRemaining(IUniqueObject<?> obj) {
+        if (isItemOnly(obj)) {
+            int id = Item.getIdFromItem((Item) obj.getIndexObject());
+            int remaining = remainingItems.get(id);
+            if (remaining < 0) {
+                remaining = countRemaining(obj);
+                remainingItems.put(id, remaining);
+            }
+            return remaining;
+        }
+        int remaining = remainingObjects.getInt(obj);
+        if (remaining < 0) {
+            remaining = countRemaining(obj);
+            remainingObjects.put(obj, remaining);
+        }
+        return remaining;
+    }
+
+    private void setRemaining(IUniqueObject<?> obj, int remaining) {
+        if (isItemOnly(obj))
+            remainingItems.put(Item.getIdFromItem((Item) obj.getIndexObject()), remaining);
+        else
+            remainingObjects.put(obj, remaining);
+    }
+
+    private void forget(IUniqueObject<?> obj) {
+        if (isItemOnly(obj))
+            remainingItems.remove(Item.getIdFromItem((Item) obj.getIndexObject()));
+        else
+            remainingObjects.removeInt(obj);
+    }
+
+    private int countRemaining(IUniqueObject<?> obj) {
+        int count = other.count(obj);
+        //creative indices are unlimited, don't let them run out
+        return count == Integer.MAX_VALUE ? count : Math.max(0, count - extractedItems.count(obj));
+    }
+
+    private static boolean isItemOnly(IUniqueObject<?> obj) {
+        return obj instanceof UniqueItem && ((UniqueItem) obj).isItemOnly();
+    }
 }
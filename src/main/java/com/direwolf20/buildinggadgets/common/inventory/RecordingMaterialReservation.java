@@ -0,0 +1,61 @@
+package com.direwolf20.buildinggadgets.common.inventory;
+
+import com.direwolf20.buildinggadgets.common.inventory.materials.MaterialList;
+import com.direwolf20.buildinggadgets.common.inventory.materials.objects.IUniqueObject;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Multisets;
+
+import java.util.*;
+
+/**
+ * {@link IMaterialReservation} for arbitrary {@link IItemIndex indices}: reservations are matched together with everything reserved
+ * before (just like {@link RecordingItemIndex} does) and applied one by one when settling.
+ */
+final class RecordingMaterialReservation implements IMaterialReservation {
+    private final IItemIndex index;
+    private final Multiset<IUniqueObject<?>> reserved;
+    private final List<MatchResult> reservations;
+
+    RecordingMaterialReservation(IItemIndex index) {
+        this.index = index;
+        this.reserved = HashMultiset.create();
+        this.reservations = new ArrayList<>();
+    }
+
+    @Override
+    public MatchResult reserve(MaterialList list) {
+        MatchResult combined = index.tryMatch(MaterialList.and(list, MaterialList.of(reserved)));
+        if (! combined.isSuccess())
+            return MatchResult.failure(list, ImmutableMultiset.of(), ImmutableMultiset.of());
+        ImmutableMultiset<IUniqueObject<?>> share = ImmutableMultiset.copyOf(Multisets.difference(combined.getChosenOption(), reserved));
+        reserved.addAll(share);
+        MatchResult res = MatchResult.success(list, share, share);
+        reservations.add(res);
+        return res;
+    }
+
+    @Override
+    public void release(MatchResult reservation) {
+        for (int i = reservations.size() - 1; i >= 0; i--) {
+            if (reservations.get(i) == reservation) {
+                reservations.remove(i);
+                Multisets.removeOccurrences(reserved, reservation.getChosenOption());
+                return;
+            }
+        }
+    }
+
+    @Override
+    public Set<MatchResult> settle() {
+        Set<MatchResult> settled = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (MatchResult reservation : reservations) {
+            if (index.applyMatch(reservation))
+                settled.add(reservation);
+        }
+        reservations.clear();
+        reserved.clear();
+        return settled;
+    }
+}
@@ -0,0 +1,167 @@
+package com.direwolf20.buildinggadgets.common.inventory;
+
+import com.direwolf20.buildinggadgets.common.network.PacketHandler;
+import com.direwolf20.buildinggadgets.common.network.packets.PacketRemoteInventoryCacheDelta;
+import com.direwolf20.buildinggadgets.common.util.GadgetUtils;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.minecraft.entity.player.ServerPlayerEntity;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.BlockPos;
+import net.minecraftforge.fml.server.ServerLifecycleHooks;
+import net.minecraftforge.items.IItemHandler;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * Keeps the remote inventory caches of clients (see {@link com.direwolf20.buildinggadgets.client.cache.RemoteInventoryCache}) up
+ * to date. Clients subscribe to the inventory their gadget is linked to and renew the subscription whilst they use it. As
+ * {@link IItemHandler} doesn't notify about changes, subscribed inventories are still scanned periodically - but only the counts
+ * which changed since the last scan are sent.
+ * <p>
+ * Subscriptions which aren't renewed in time, or whose player left, are dropped.
+ */
+public enum RemoteInventorySubscriptions {
+    INSTANCE;
+    private static final int SCAN_INTERVAL = 20;
+    //clients renew every 10 seconds, so this leaves enough room for lag
+    private static final int LEASE_TICKS = 20 * 30;
+
+    private final Map<UUID, Subscription> copyPasteSubscriptions = new HashMap<>();
+    private final Map<UUID, Subscription> gadgetSubscriptions = new HashMap<>();
+
+    /**
+     * Subscribes the given player to the inventory at the given location, replacing the player's previous subscription. If the
+     * subscription is already known, it is renewed and rescanned instead.
+     *
+     * @param dim the dimension of the inventory, or null to unsubscribe
+     * @param pos the position of the inventory, or null to unsubscribe
+     */
+    public void subscribe(ServerPlayerEntity player, int subscriptionId, @Nullable ResourceLocation dim, @Nullable BlockPos pos, boolean isCopyPaste) {
+        Map<UUID, Subscription> subscriptions = getSubscriptions(isCopyPaste);
+        if (dim == null || pos == null) {
+            subscriptions.remove(player.getUniqueID());
+            return;
+        }
+        Subscription subscription = subscriptions.get(player.getUniqueID());
+        if (subscription == null || ! subscription.matches(subscriptionId, dim, pos)) {
+            subscription = new Subscription(subscriptionId, dim, pos, isCopyPaste);
+            subscriptions.put(player.getUniqueID(), subscription);
+        }
+        subscription.renew();
+        subscription.update(player);
+    }
+
+    public void onServerTick() {
+        MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+        if (server == null)
+            return;
+        tick(server, copyPasteSubscriptions);
+        tick(server, gadgetSubscriptions);
+    }
+
+    public void clear() {
+        copyPasteSubscriptions.clear();
+        gadgetSubscriptions.clear();
+    }
+
+    private void tick(MinecraftServer server, Map<UUID, Subscription> subscriptions) {
+        Iterator<Map.Entry<UUID, Subscription>> it = subscriptions.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<UUID, Subscription> entry = it.next();
+            ServerPlayerEntity player = server.getPlayerList().getPlayerByUUID(entry.getKey());
+            if (player == null || ! entry.getValue().tick())
+                it.remove();
+            else if (entry.getValue().shouldScan())
+                entry.getValue().update(player);
+        }
+    }
+
+    private Map<UUID, Subscription> getSubscriptions(boolean isCopyPaste) {
+        return isCopyPaste ? copyPasteSubscriptions : gadgetSubscriptions;
+    }
+
+    private static final class Subscription {
+        private final int id;
+        private final ResourceLocation dim;
+        private final BlockPos pos;
+        private final boolean isCopyPaste;
+        //the counts the client knows about, by item id
+        private Int2IntOpenHashMap sentCounts;
+        private boolean sentInitial;
+        private int leaseTicks;
+        private int ticksUntilScan;
+
+        private Subscription(int id, ResourceLocation dim, BlockPos pos, boolean isCopyPaste) {
+            this.id = id;
+            this.dim = dim;
+            this.pos = pos.toImmutable();
+            this.isCopyPaste = isCopyPaste;
+            this.sentCounts = new Int2IntOpenHashMap();
+            this.sentInitial = false;
+        }
+
+        private boolean matches(int id, ResourceLocation dim, BlockPos pos) {
+            return this.id == id && this.dim.equals(dim) && this.pos.equals(pos);
+        }
+
+        private void renew() {
+            leaseTicks = LEASE_TICKS;
+        }
+
+        /**
+         * @return whether the subscription is still valid
+         */
+        private boolean tick() {
+            ticksUntilScan--;
+            return --leaseTicks > 0;
+        }
+
+        private boolean shouldScan() {
+            return ticksUntilScan <= 0;
+        }
+
+        private void update(ServerPlayerEntity player) {
+            ticksUntilScan = SCAN_INTERVAL;
+            Int2IntOpenHashMap counts = scan(player);
+            //pairs of item id and count difference
+            IntArrayList delta = new IntArrayList();
+            for (Int2IntMap.Entry entry : counts.int2IntEntrySet()) {
+                int difference = entry.getIntValue() - sentCounts.get(entry.getIntKey());
+                if (difference != 0) {
+                    delta.add(entry.getIntKey());
+                    delta.add(difference);
+                }
+            }
+            for (Int2IntMap.Entry entry : sentCounts.int2IntEntrySet()) {
+                if (! counts.containsKey(entry.getIntKey())) {
+                    delta.add(entry.getIntKey());
+                    delta.add(- entry.getIntValue());
+                }
+            }
+            sentCounts = counts;
+            //the first update resets the client, as it may still hold counts from an earlier subscription (f.e. on another server)
+            if (! sentInitial || ! delta.isEmpty())
+                PacketHandler.sendTo(new PacketRemoteInventoryCacheDelta(id, ! sentInitial, delta.toIntArray(), isCopyPaste), player);
+            sentInitial = true;
+        }
+
+        private Int2IntOpenHashMap scan(ServerPlayerEntity player) {
+            Int2IntOpenHashMap counts = new Int2IntOpenHashMap();
+            IItemHandler inventory = GadgetUtils.getRemoteInventory(pos, dim, player.world);
+            if (inventory == null)
+                return counts;
+            for (int i = 0; i < inventory.getSlots(); i++) {
+                ItemStack stack = inventory.getStackInSlot(i);
+                if (! stack.isEmpty())
+                    counts.addTo(Item.getIdFromItem(stack.getItem()), stack.getCount());
+            }
+            return counts;
+        }
+    }
+}
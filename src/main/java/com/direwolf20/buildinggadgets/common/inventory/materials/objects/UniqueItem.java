@@ -129,6 +129,13 @@ public final class UniqueItem implements IUniqueObject<Item> {
         return item;
     }
 
+    /**
+     * @return whether this matches every stack of it's Item, because neither nbt nor capability data is required
+     */
+    public boolean isItemOnly() {
+        return tagCompound == null && forgeCaps == null;
+    }
+
     @Nullable
     public CompoundNBT getTag() {
         return tagCompound != null ? tagCompound.copy() : null;
@@ -15,6 +15,7 @@ import com.direwolf20.buildinggadgets.common.commands.OverrideBuildSizeCommand;
 import com.direwolf20.buildinggadgets.common.commands.OverrideCopySizeCommand;
 import com.direwolf20.buildinggadgets.common.concurrent.CopyScheduler;
 import com.direwolf20.buildinggadgets.common.concurrent.PlacementScheduler;
+import com.direwolf20.buildinggadgets.common.concurrent.SnapshotCopyScheduler;
 import com.direwolf20.buildinggadgets.common.config.Config;
 import com.direwolf20.buildinggadgets.common.inventory.IItemIndex;
 import com.direwolf20.buildinggadgets.common.inventory.InventoryHelper;
@@ -35,6 +36,7 @@ import com.direwolf20.buildinggadgets.common.util.lang.*;
 import com.direwolf20.buildinggadgets.common.util.ref.NBTKeys;
 import com.direwolf20.buildinggadgets.common.util.ref.Reference.BlockReference.TagReference;
 import com.direwolf20.buildinggadgets.common.util.tools.NetworkIO;
+import com.direwolf20.buildinggadgets.common.world.RegionBlockReader;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList.Builder;
 import com.google.common.collect.ImmutableSortedSet;
@@ -60,6 +62,7 @@ import net.minecraft.util.math.ChunkPos;
 import net.minecraft.util.math.RayTraceResult.Type;
 import net.minecraft.util.text.ITextComponent;
 import net.minecraft.util.text.Style;
+import net.minecraft.world.IBlockReader;
 import net.minecraft.world.World;
 import net.minecraftforge.common.capabilities.ICapabilityProvider;
 import net.minecraftforge.common.util.Constants.NBT;
@@ -356,8 +359,13 @@ public class GadgetCopyPaste extends AbstractGadget {
                 .buildingPlayer(player)
                 .usedStack(stack)
                 .build(world);
+        if (Config.GADGETS.GADGET_COPY_PASTE.snapshotCopy.get()) {
+            performSnapshotCopy(stack, context, region);
+            return;
+        }
+        IBlockReader reader = RegionBlockReader.of(world, region);
         WorldBuildView buildView = WorldBuildView.create(context, region,
-                (c, p) -> InventoryHelper.getSafeBlockData(player, p, player.getActiveHand()));
+                (c, p) -> InventoryHelper.getSafeBlockData(player, p, reader.getBlockState(p), player.getActiveHand()));
         performCopy(stack, buildView);
     }
 
@@ -397,6 +405,22 @@ public class GadgetCopyPaste extends AbstractGadget {
         }, buildView, Config.GADGETS.GADGET_COPY_PASTE.copySteps.get());
     }
 
+    private void performSnapshotCopy(ItemStack stack, IBuildContext context, Region region) {
+        assert context.getBuildingPlayer() != null;
+        PlayerEntity player = context.getBuildingPlayer();
+        SnapshotCopyScheduler.scheduleCopy((map, enclosing) -> {
+                    Template newTemplate = new Template(map,
+                            TemplateHeader.builder(enclosing)
+                                    .name("Copy " + getAndIncrementCopyCounter(stack))
+                                    .author(player.getName().getUnformattedComponentText())
+                                    .build());
+                    onCopyFinished(newTemplate.normalize(), stack, player);
+                }, context.getWorld(), region,
+                InventoryHelper::getSafeBlockData,
+                p -> InventoryHelper.getSafeBlockData(player, p, player.getActiveHand()),
+                Config.GADGETS.GADGET_COPY_PASTE.copySteps.get());
+    }
+
     private void onCopyFinished(Template newTemplate, ItemStack stack, PlayerEntity player) {
         if (! Additions.sizeInvalid(player, newTemplate.getHeader().getBoundingBox()))
             sendMessage(stack, player, MessageTranslation.AREA_COPIED, Styles.DK_GREEN);
@@ -458,7 +482,8 @@ public class GadgetCopyPaste extends AbstractGadget {
         PlacementScheduler.schedulePlacement(view, checker, Config.GADGETS.placeSteps.get())
                 .withFinisher(p -> {
                     pushUndo(stack, p.getUndoBuilder().build(view.getContext().getWorld().getDimension().getType()));
-                    onBuildFinished(stack, player, view.getBoundingBox());
+                    if (! p.isCancelled())
+                        onBuildFinished(stack, player, view.getBoundingBox());
                 });
     }
 
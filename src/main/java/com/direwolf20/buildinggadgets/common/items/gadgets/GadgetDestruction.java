@@ -6,8 +6,8 @@ import com.direwolf20.buildinggadgets.common.building.BlockData;
 import com.direwolf20.buildinggadgets.common.building.Region;
 import com.direwolf20.buildinggadgets.common.building.placement.IPositionPlacementSequence;
 import com.direwolf20.buildinggadgets.common.building.placement.PlacementSequences.ConnectedSurface;
-import com.direwolf20.buildinggadgets.common.building.placement.SetBackedPlacementSequence;
 import com.direwolf20.buildinggadgets.common.building.tilesupport.TileSupport;
+import com.direwolf20.buildinggadgets.common.concurrent.DestructionScheduler;
 import com.direwolf20.buildinggadgets.common.config.Config;
 import com.direwolf20.buildinggadgets.common.items.gadgets.renderers.BaseRenderer;
 import com.direwolf20.buildinggadgets.common.items.gadgets.renderers.DestructionRender;
@@ -23,6 +23,7 @@ import com.direwolf20.buildinggadgets.common.util.lang.Styles;
 import com.direwolf20.buildinggadgets.common.util.lang.TooltipTranslation;
 import com.direwolf20.buildinggadgets.common.util.ref.NBTKeys;
 import com.direwolf20.buildinggadgets.common.util.ref.Reference.BlockReference.TagReference;
+import com.direwolf20.buildinggadgets.common.world.RegionBlockReader;
 import com.google.common.collect.ImmutableMultiset;
 import net.minecraft.block.BlockState;
 import net.minecraft.client.util.ITooltipFlag;
@@ -38,6 +39,7 @@ import net.minecraft.util.Hand;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.BlockRayTraceResult;
 import net.minecraft.util.text.ITextComponent;
+import net.minecraft.world.IBlockReader;
 import net.minecraft.world.World;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.common.util.BlockSnapshot;
@@ -45,12 +47,10 @@ import net.minecraftforge.event.ForgeEventFactory;
 import net.minecraftforge.event.world.BlockEvent;
 
 import javax.annotation.Nullable;
-import java.util.HashSet;
 import java.util.List;
 import java.util.function.Function;
 import java.util.function.IntSupplier;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
 
 public class GadgetDestruction extends AbstractGadget {
 
@@ -193,7 +193,20 @@ public class GadgetDestruction extends AbstractGadget {
         setAnchorSide(stack, null);
     }
 
+    /**
+     * @return the positions which would be cleared, evaluated lazily while iterating. Only the state of the blocks is checked,
+     *         no events are fired - which is all that's needed for rendering. Blocks are read through a {@link RegionBlockReader},
+     *         so the result should be iterated right away.
+     */
     public static IPositionPlacementSequence getClearingPositions(World world, BlockPos pos, Direction incomingSide, PlayerEntity player, ItemStack stack) {
+        return getClearingPositions(world, RegionBlockReader.of(world, getClearingRegion(pos, incomingSide, player, stack)), false, pos, incomingSide, player, stack);
+    }
+
+    /**
+     * @param checkProtection whether blocks protected by other mods (see {@link #isBreakAllowed(World, BlockPos, PlayerEntity, BlockState)})
+     *                        should end a connected area, as they would when actually clearing it
+     */
+    private static IPositionPlacementSequence getClearingPositions(World world, IBlockReader reader, boolean checkProtection, BlockPos pos, Direction incomingSide, PlayerEntity player, ItemStack stack) {
         ItemStack tool = getGadget(player);
         GadgetDestruction item = (GadgetDestruction) tool.getItem();
         int depth = getToolValue(stack, NBTKeys.GADGET_VALUE_DEPTH);
@@ -206,11 +219,12 @@ public class GadgetDestruction extends AbstractGadget {
         BlockState stateTarget = fuzzy ? null : world.getBlockState(pos);
 
         if (AbstractGadget.getConnectedArea(stack))
-            return ConnectedSurface.create(world, boundary, Function.identity(), startPos, null, (s, p) -> isValidBlock(world, p, player, s, fuzzy));
+            return ConnectedSurface.create(world, boundary, Function.identity(), startPos, null, (s, p) -> {
+                BlockState state = reader.getBlockState(p);
+                return isClearableBlock(world, p, player, state, s, fuzzy) && (! checkProtection || isBreakAllowed(world, p, player, state));
+            });
         else
-            return new SetBackedPlacementSequence(boundary.stream()
-                    .filter(p -> isValidBlock(world, p, player, stateTarget, fuzzy))
-                    .collect(Collectors.toCollection(HashSet::new)), boundary);
+            return CommonUtils.filterPositions(boundary, p -> isClearableBlock(world, p, player, reader.getBlockState(p), stateTarget, fuzzy));
     }
 
     public static List<BlockPos> getClearingPositionsForRendering(World world, BlockPos pos, Direction incomingSide, PlayerEntity player, ItemStack stack) {
@@ -223,6 +237,13 @@ public class GadgetDestruction extends AbstractGadget {
     }
 
     public static boolean isValidBlock(World world, BlockPos voidPos, PlayerEntity player, BlockState currentBlock, @Nullable BlockState stateTarget, boolean fuzzy) {
+        return isClearableBlock(world, voidPos, player, currentBlock, stateTarget, fuzzy) && (world.isRemote || isBreakAllowed(world, voidPos, player, currentBlock));
+    }
+
+    /**
+     * Checks whether the block may be cleared based on it's state alone, without firing any events.
+     */
+    public static boolean isClearableBlock(World world, BlockPos voidPos, PlayerEntity player, BlockState currentBlock, @Nullable BlockState stateTarget, boolean fuzzy) {
         if (currentBlock.getBlock().isAir(currentBlock, world, voidPos) ||
                 currentBlock.equals(OurBlocks.effectBlock.getDefaultState()) ||
                 currentBlock.getBlockHardness(world, voidPos) < 0 ||
@@ -230,16 +251,18 @@ public class GadgetDestruction extends AbstractGadget {
                 ! world.isBlockModifiable(player, voidPos)) return false;
 
         TileEntity te = world.getTileEntity(voidPos);
-        if ((te != null) && ! (te instanceof ConstructionBlockTileEntity)) return false;
+        return (te == null) || (te instanceof ConstructionBlockTileEntity);
+    }
 
-        if (! world.isRemote) {
-            BlockSnapshot blockSnapshot = BlockSnapshot.getBlockSnapshot(world, voidPos);
-            if (ForgeEventFactory.onBlockPlace(player, blockSnapshot, Direction.UP))
-                return false;
-            BlockEvent.BreakEvent e = new BlockEvent.BreakEvent(world, voidPos, currentBlock, player);
-            return ! MinecraftForge.EVENT_BUS.post(e);
-        }
-        return true;
+    /**
+     * Fires the events protection mods use to deny breaking the block. Should only be called on the server.
+     */
+    public static boolean isBreakAllowed(World world, BlockPos voidPos, PlayerEntity player, BlockState currentBlock) {
+        BlockSnapshot blockSnapshot = BlockSnapshot.getBlockSnapshot(world, voidPos);
+        if (ForgeEventFactory.onBlockPlace(player, blockSnapshot, Direction.UP))
+            return false;
+        BlockEvent.BreakEvent e = new BlockEvent.BreakEvent(world, voidPos, currentBlock, player);
+        return ! MinecraftForge.EVENT_BUS.post(e);
     }
 
     public static Region getClearingRegion(BlockPos pos, Direction side, PlayerEntity player, ItemStack stack) {
@@ -259,23 +282,29 @@ public class GadgetDestruction extends AbstractGadget {
         return new Region(first, second);
     }
 
+    /**
+     * Clears the area over multiple ticks. Positions are evaluated as they are reached, and only then the break events are fired
+     * for them. The world is read directly, as chunks may be unloaded while the destruction is in progress.
+     */
     public void clearArea(World world, BlockPos pos, Direction side, ServerPlayerEntity player, ItemStack stack) {
-        IPositionPlacementSequence positions = getClearingPositions(world, pos, side, player, stack);
-        Undo.Builder builder = Undo.builder();
-        for (BlockPos clearPos : positions) {
+        //connected areas already fire the protection events while searching, which must only happen once per position
+        boolean protectionChecked = AbstractGadget.getConnectedArea(stack);
+        IPositionPlacementSequence positions = getClearingPositions(world, world, protectionChecked, pos, side, player, stack);
+        DestructionScheduler.scheduleDestruction(positions, (clearPos, builder) -> {
             BlockState state = world.getBlockState(clearPos);
             TileEntity te = world.getTileEntity(clearPos);
-            if (!isAllowedBlock(state.getBlock()))
-                continue;
+            if (! isAllowedBlock(state.getBlock()))
+                return false;
             if (te == null || state.getBlock() == OurBlocks.constructionBlock && te instanceof ConstructionBlockTileEntity) {
-                destroyBlock(world, clearPos, player, builder);
+                return destroyBlock(world, clearPos, player, state, builder, protectionChecked);
             }
-        }
-        pushUndo(stack, builder.build(world.getDimension().getType()));
+            return false;
+        }, Config.GADGETS.placeSteps.get())
+                .withFinisher(d -> pushUndo(stack, d.getUndoBuilder().build(world.getDimension().getType())));
     }
 
-    private boolean destroyBlock(World world, BlockPos voidPos, ServerPlayerEntity player, Undo.Builder builder) {
-        if (world.isAirBlock(voidPos))
+    private boolean destroyBlock(World world, BlockPos voidPos, ServerPlayerEntity player, BlockState state, Undo.Builder builder, boolean protectionChecked) {
+        if (state.isAir(world, voidPos))
             return false;
 
         ItemStack tool = getGadget(player);
@@ -285,6 +314,9 @@ public class GadgetDestruction extends AbstractGadget {
         if (! this.canUse(tool, player))
             return false;
 
+        if (! protectionChecked && ! isBreakAllowed(world, voidPos, player, state))
+            return false;
+
         this.applyDamage(tool, player);
         builder.record(world, voidPos, BlockData.AIR, ImmutableMultiset.of(), ImmutableMultiset.of());
         EffectBlock.spawnEffectBlock(world, voidPos, TileSupport.createBlockData(world, voidPos), EffectBlock.Mode.REMOVE, false);
@@ -7,9 +7,7 @@ import com.direwolf20.buildinggadgets.common.util.GadgetUtils;
 import com.direwolf20.buildinggadgets.common.util.exceptions.CapabilityNotPresentException;
 import com.direwolf20.buildinggadgets.common.util.ref.NBTKeys;
 import com.direwolf20.buildinggadgets.common.util.tools.CapabilityUtil;
-import com.direwolf20.buildinggadgets.common.util.tools.UniqueItem;
 import com.direwolf20.buildinggadgets.common.world.FakeBuilderWorld;
-import com.google.common.collect.Multiset;
 import com.mojang.blaze3d.platform.GlStateManager;
 import net.minecraft.block.BlockState;
 import net.minecraft.block.Blocks;
@@ -201,14 +199,10 @@ public abstract class BaseRenderer {
         return builderWorld;
     }
 
-    static RemoteInventoryCache getCacheInventory() {
+    public static RemoteInventoryCache getCacheInventory() {
         return cacheInventory;
     }
 
-    public static void setInventoryCache(Multiset<UniqueItem> cache) {
-        BaseRenderer.cacheInventory.setCache(cache);
-    }
-
     public static void updateInventoryCache() {
         cacheInventory.forceUpdate();
     }
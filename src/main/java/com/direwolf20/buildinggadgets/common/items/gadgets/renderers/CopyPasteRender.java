@@ -217,7 +217,6 @@ public class CopyPasteRender extends BaseRenderer {
     private void renderMissing(PlayerEntity player, ItemStack stack, IBuildView view, RenderSorter sorter) {
         int energyCost = ((GadgetCopyPaste) stack.getItem()).getEnergyCost(stack);
         //wrap in a recording index, to prevent a single item of some type from allowing all of that kind.
-        //it sadly makes it very inefficient - we should try to find a faster solution
         IItemIndex index = new RecordingItemIndex(InventoryHelper.index(stack, player));
         boolean overwrite = Config.GENERAL.allowOverwriteBlocks.get();
         BlockItemUseContext useContext = new BlockItemUseContext(new ItemUseContext(player, Hand.MAIN_HAND, VectorHelper.getLookingAt(player, stack)));
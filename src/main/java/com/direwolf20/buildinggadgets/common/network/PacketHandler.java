@@ -19,7 +19,7 @@ import java.util.function.Function;
 import java.util.function.Supplier;
 
 public class PacketHandler {
-    private static final String PROTOCOL_VERSION = Integer.toString(4);
+    private static final String PROTOCOL_VERSION = Integer.toString(5);
     private static short index = 0;
     private static final PacketSplitManager SPLIT_MANAGER = new PacketSplitManager();
 
@@ -53,11 +53,14 @@ public class PacketHandler {
 
         // Both Sides
         registerMessage(SplitPacket.class, SPLIT_MANAGER::encode, SPLIT_MANAGER::decode, SPLIT_MANAGER::handle);
-        getSplitManager().registerSplitPacket(SplitPacketUpdateTemplate.class, SplitPacketUpdateTemplate::encode, SplitPacketUpdateTemplate::new, SplitPacketUpdateTemplate::handle);
+        getSplitManager().registerSplitPacket(SplitPacketUpdateTemplate.class, SplitPacketUpdateTemplate::encode, SplitPacketUpdateTemplate::new, SplitPacketUpdateTemplate::handle, SplitPacketUpdateTemplate.CODEC);
+        getSplitManager().registerSplitPacket(SplitPacketTemplateDiff.class, SplitPacketTemplateDiff::encode, SplitPacketTemplateDiff::new, SplitPacketTemplateDiff::handle, SplitPacketUpdateTemplate.CODEC);
         registerMessage(PacketSetRemoteInventoryCache.class, PacketSetRemoteInventoryCache::encode, PacketSetRemoteInventoryCache::decode, PacketSetRemoteInventoryCache.Handler::handle);
         registerMessage(PacketRequestTemplate.class, PacketRequestTemplate::encode, PacketRequestTemplate::new, PacketRequestTemplate::handle);
         //Client side
         registerMessage(PacketTemplateManagerTemplateCreated.class, PacketTemplateManagerTemplateCreated::encode, PacketTemplateManagerTemplateCreated::new, PacketTemplateManagerTemplateCreated::handle);
+        registerMessage(PacketTemplateVersion.class, PacketTemplateVersion::encode, PacketTemplateVersion::new, PacketTemplateVersion::handle);
+        registerMessage(PacketRemoteInventoryCacheDelta.class, PacketRemoteInventoryCacheDelta::encode, PacketRemoteInventoryCacheDelta::new, PacketRemoteInventoryCacheDelta::handle);
     }
 
     public static void sendTo(Object msg, ServerPlayerEntity player) {
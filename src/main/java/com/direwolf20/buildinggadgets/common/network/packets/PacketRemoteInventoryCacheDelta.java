@@ -0,0 +1,59 @@
+package com.direwolf20.buildinggadgets.common.network.packets;
+
+import com.direwolf20.buildinggadgets.client.events.EventTooltip;
+import com.direwolf20.buildinggadgets.common.items.gadgets.renderers.BaseRenderer;
+import com.direwolf20.buildinggadgets.common.util.compression.VarInts;
+import net.minecraft.network.PacketBuffer;
+import net.minecraftforge.fml.network.NetworkEvent.Context;
+
+import java.util.function.Supplier;
+
+/**
+ * Updates the client's remote inventory cache with the item counts which changed since the last update of the same subscription
+ * (see {@link PacketSetRemoteInventoryCache}). Each change is sent as the item id and the zig-zag encoded count difference,
+ * both as var-ints - so a small change in a large inventory only takes a few bytes.
+ */
+public final class PacketRemoteInventoryCacheDelta {
+    private final int subscriptionId;
+    //whether the client should discard all counts it knows before applying this
+    private final boolean reset;
+    //pairs of item id and count difference
+    private final int[] delta;
+    private final boolean isCopyPaste;
+
+    public PacketRemoteInventoryCacheDelta(PacketBuffer buffer) {
+        this.isCopyPaste = buffer.readBoolean();
+        this.subscriptionId = buffer.readVarInt();
+        this.reset = buffer.readBoolean();
+        int changes = buffer.readVarInt();
+        this.delta = new int[changes * 2];
+        for (int i = 0; i < delta.length; i += 2) {
+            delta[i] = buffer.readVarInt();
+            delta[i + 1] = VarInts.unZigZag(buffer.readVarInt());
+        }
+    }
+
+    public PacketRemoteInventoryCacheDelta(int subscriptionId, boolean reset, int[] delta, boolean isCopyPaste) {
+        this.subscriptionId = subscriptionId;
+        this.reset = reset;
+        this.delta = delta;
+        this.isCopyPaste = isCopyPaste;
+    }
+
+    public void encode(PacketBuffer buffer) {
+        buffer.writeBoolean(isCopyPaste);
+        buffer.writeVarInt(subscriptionId);
+        buffer.writeBoolean(reset);
+        buffer.writeVarInt(delta.length / 2);
+        for (int i = 0; i < delta.length; i += 2) {
+            buffer.writeVarInt(delta[i]);
+            buffer.writeVarInt(VarInts.zigZag(delta[i + 1]));
+        }
+    }
+
+    public void handle(Supplier<Context> contextSupplier) {
+        contextSupplier.get().enqueueWork(() -> (isCopyPaste ? EventTooltip.getCache() : BaseRenderer.getCacheInventory())
+                .applyDelta(subscriptionId, reset, delta));
+        contextSupplier.get().setPacketHandled(true);
+    }
+}
@@ -7,16 +7,39 @@ import net.minecraft.network.PacketBuffer;
 import net.minecraftforge.fml.LogicalSide;
 import net.minecraftforge.fml.network.NetworkEvent.Context;
 
+import java.util.OptionalLong;
 import java.util.UUID;
 import java.util.function.Supplier;
 
 public final class PacketRequestTemplate extends UUIDPacket {
+    //content hash of the Template the requesting side already holds, if any. Allows the other side to send a diff or nothing.
+    private final boolean hasKnownHash;
+    private final long knownHash;
+
     public PacketRequestTemplate(UUID id) {
         super(id);
+        this.hasKnownHash = false;
+        this.knownHash = 0;
+    }
+
+    public PacketRequestTemplate(UUID id, long knownHash) {
+        super(id);
+        this.hasKnownHash = true;
+        this.knownHash = knownHash;
     }
 
     public PacketRequestTemplate(PacketBuffer buffer) {
         super(buffer);
+        this.hasKnownHash = buffer.readBoolean();
+        this.knownHash = hasKnownHash ? buffer.readLong() : 0;
+    }
+
+    @Override
+    public void encode(PacketBuffer buffer) {
+        super.encode(buffer);
+        buffer.writeBoolean(hasKnownHash);
+        if (hasKnownHash)
+            buffer.writeLong(knownHash);
     }
 
     public void handle(Supplier<Context> contextSupplier) {
@@ -24,7 +47,8 @@ public final class PacketRequestTemplate extends UUIDPacket {
             if (contextSupplier.get().getDirection().getReceptionSide() == LogicalSide.CLIENT)
                 ClientProxy.CACHE_TEMPLATE_PROVIDER.requestRemoteUpdate(new SimpleTemplateKey(getId()));
             else
-                SaveManager.INSTANCE.getTemplateProvider().requestRemoteUpdate(new SimpleTemplateKey(getId()));
+                SaveManager.INSTANCE.getTemplateProvider().sendUpdate(getId(), contextSupplier.get().getSender(),
+                        hasKnownHash ? OptionalLong.of(knownHash) : OptionalLong.empty());
         });
     }
 }
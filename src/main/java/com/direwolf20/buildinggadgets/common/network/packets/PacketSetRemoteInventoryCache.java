@@ -1,75 +1,50 @@
 package com.direwolf20.buildinggadgets.common.network.packets;
 
-import com.direwolf20.buildinggadgets.client.events.EventTooltip;
-import com.direwolf20.buildinggadgets.common.inventory.InventoryHelper;
-import com.direwolf20.buildinggadgets.common.items.gadgets.renderers.BaseRenderer;
-import com.direwolf20.buildinggadgets.common.network.PacketHandler;
-import com.direwolf20.buildinggadgets.common.util.GadgetUtils;
-import com.direwolf20.buildinggadgets.common.util.tools.UniqueItem;
-import com.google.common.collect.ImmutableMultiset;
-import com.google.common.collect.Multiset;
-import com.google.common.collect.Multiset.Entry;
+import com.direwolf20.buildinggadgets.common.inventory.RemoteInventorySubscriptions;
 import net.minecraft.entity.player.ServerPlayerEntity;
-import net.minecraft.item.Item;
-import net.minecraft.item.ItemStack;
 import net.minecraft.network.PacketBuffer;
 import net.minecraft.util.ResourceLocation;
 import net.minecraft.util.math.BlockPos;
 import net.minecraftforge.fml.network.NetworkEvent.Context;
-import net.minecraftforge.items.IItemHandler;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
-import java.util.HashSet;
-import java.util.Set;
+import javax.annotation.Nullable;
 import java.util.function.Supplier;
 
+/**
+ * Subscribes the sender to the remote inventory at the given location, or unsubscribes it if there is none. Sending the same
+ * subscription again renews it and requests an immediate update. The server answers with {@link PacketRemoteInventoryCacheDelta}.
+ */
 public class PacketSetRemoteInventoryCache {
 
-    private boolean isCopyPaste;
-    private Multiset<UniqueItem> cache;
-    private Pair<ResourceLocation, BlockPos> loc;
+    private final boolean isCopyPaste;
+    private final int subscriptionId;
+    @Nullable
+    private final Pair<ResourceLocation, BlockPos> loc;
 
-    public PacketSetRemoteInventoryCache(Multiset<UniqueItem> cache, boolean isCopyPaste) {
-        this.cache = cache;
-        this.isCopyPaste = isCopyPaste;
-    }
-
-    public PacketSetRemoteInventoryCache(Pair<ResourceLocation, BlockPos> loc, boolean isCopyPaste) {
+    public PacketSetRemoteInventoryCache(int subscriptionId, @Nullable Pair<ResourceLocation, BlockPos> loc, boolean isCopyPaste) {
+        this.subscriptionId = subscriptionId;
         this.loc = loc;
         this.isCopyPaste = isCopyPaste;
     }
 
     public static PacketSetRemoteInventoryCache decode(PacketBuffer buf) {
         boolean isCopyPaste = buf.readBoolean();
-        if (buf.readBoolean()) {
-            Pair<ResourceLocation, BlockPos> loc = new ImmutablePair<>(buf.readResourceLocation(), buf.readBlockPos());
-            return new PacketSetRemoteInventoryCache(loc, isCopyPaste);
-        }
-        int len = buf.readInt();
-        ImmutableMultiset.Builder<UniqueItem> builder = ImmutableMultiset.builder();
-        for (int i = 0; i < len; i++)
-            builder.addCopies(new UniqueItem(Item.getItemById(buf.readInt())), buf.readInt());
-
-        Multiset<UniqueItem> cache = builder.build();
-        return new PacketSetRemoteInventoryCache(cache, isCopyPaste);
+        int subscriptionId = buf.readVarInt();
+        Pair<ResourceLocation, BlockPos> loc = null;
+        if (buf.readBoolean())
+            loc = new ImmutablePair<>(buf.readResourceLocation(), buf.readBlockPos());
+        return new PacketSetRemoteInventoryCache(subscriptionId, loc, isCopyPaste);
     }
 
     public static void encode(PacketSetRemoteInventoryCache msg, PacketBuffer buf) {
         buf.writeBoolean(msg.isCopyPaste());
-        boolean isRequest = msg.getCache() == null;
-        buf.writeBoolean(isRequest);
-        if (isRequest) {
+        buf.writeVarInt(msg.getSubscriptionId());
+        buf.writeBoolean(msg.getLoc() != null);
+        if (msg.getLoc() != null) {
             buf.writeResourceLocation(msg.getLoc().getLeft());
             buf.writeLong(msg.getLoc().getRight().toLong());
-            return;
-        }
-        Set<Entry<UniqueItem>> items = msg.getCache().entrySet();
-        buf.writeInt(items.size());
-        for (Entry<UniqueItem> entry : items) {
-            UniqueItem uniqueItem = entry.getElement();
-            buf.writeInt(Item.getIdFromItem(uniqueItem.getItem()));
-            buf.writeInt(entry.getCount());
         }
     }
 
@@ -77,10 +52,11 @@ public class PacketSetRemoteInventoryCache {
         return isCopyPaste;
     }
 
-    public Multiset<UniqueItem> getCache() {
-        return cache;
+    public int getSubscriptionId() {
+        return subscriptionId;
     }
 
+    @Nullable
     public Pair<ResourceLocation, BlockPos> getLoc() {
         return loc;
     }
@@ -90,30 +66,12 @@ public class PacketSetRemoteInventoryCache {
             ctx.get().enqueueWork(() -> {
                 ServerPlayerEntity player = ctx.get().getSender();
                 if (player != null) {
-                    Set<UniqueItem> itemTypes = new HashSet<>();
-                    ImmutableMultiset.Builder<UniqueItem> builder = ImmutableMultiset.builder();
-                    IItemHandler remoteInventory = GadgetUtils.getRemoteInventory(msg.loc.getRight(), msg.loc.getLeft(), player.world);
-                    if (remoteInventory != null) {
-                        for (int i = 0; i < remoteInventory.getSlots(); i++) {
-                            ItemStack stack = remoteInventory.getStackInSlot(i);
-                            if (!stack.isEmpty()) {
-                                Item item = stack.getItem();
-                                UniqueItem uniqueItem = new UniqueItem(item);
-                                if (!itemTypes.contains(uniqueItem)) {
-                                    itemTypes.add(uniqueItem);
-                                    builder.addCopies(uniqueItem, InventoryHelper.countInContainer(remoteInventory, item));
-                                }
-                            }
-                        }
-                    }
-                    PacketHandler.sendTo(new PacketSetRemoteInventoryCache(builder.build(), msg.isCopyPaste()), player);
-                    return;
+                    Pair<ResourceLocation, BlockPos> loc = msg.getLoc();
+                    RemoteInventorySubscriptions.INSTANCE.subscribe(player, msg.getSubscriptionId(),
+                            loc != null ? loc.getLeft() : null, loc != null ? loc.getRight() : null, msg.isCopyPaste());
                 }
-                if (msg.isCopyPaste())
-                    EventTooltip.setCache(msg.getCache());
-                else
-                    BaseRenderer.setInventoryCache(msg.getCache());
+                ctx.get().setPacketHandled(true);
             });
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,46 @@
+package com.direwolf20.buildinggadgets.common.network.packets;
+
+import com.direwolf20.buildinggadgets.client.ClientProxy;
+import net.minecraft.network.PacketBuffer;
+import net.minecraftforge.fml.network.NetworkEvent.Context;
+
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Announces the current version, content hash and content digest of a Template to the client. The client only requests the
+ * Template, if it doesn't already hold an equal one - reporting what it has, so that the server can answer with a diff.
+ */
+public final class PacketTemplateVersion extends UUIDPacket {
+    private static final int MAX_DIGEST_LENGTH = 64;
+    private final int version;
+    private final long contentHash;
+    private final byte[] contentDigest;
+
+    public PacketTemplateVersion(PacketBuffer buffer) {
+        super(buffer);
+        this.version = buffer.readVarInt();
+        this.contentHash = buffer.readLong();
+        this.contentDigest = buffer.readByteArray(MAX_DIGEST_LENGTH);
+    }
+
+    public PacketTemplateVersion(UUID id, int version, long contentHash, byte[] contentDigest) {
+        super(id);
+        this.version = version;
+        this.contentHash = contentHash;
+        this.contentDigest = contentDigest;
+    }
+
+    @Override
+    public void encode(PacketBuffer buffer) {
+        super.encode(buffer);
+        buffer.writeVarInt(version);
+        buffer.writeLong(contentHash);
+        buffer.writeByteArray(contentDigest);
+    }
+
+    public void handle(Supplier<Context> contextSupplier) {
+        contextSupplier.get().enqueueWork(() -> ClientProxy.CACHE_TEMPLATE_PROVIDER.onRemoteVersion(getId(), version, contentHash, contentDigest));
+        contextSupplier.get().setPacketHandled(true);
+    }
+}
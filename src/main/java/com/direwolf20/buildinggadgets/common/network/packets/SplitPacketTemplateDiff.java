@@ -0,0 +1,38 @@
+package com.direwolf20.buildinggadgets.common.network.packets;
+
+import com.direwolf20.buildinggadgets.client.ClientProxy;
+import com.direwolf20.buildinggadgets.common.template.TemplateDiff;
+import net.minecraft.network.PacketBuffer;
+import net.minecraftforge.fml.network.NetworkEvent.Context;
+
+import java.util.UUID;
+import java.util.function.Supplier;
+
+public final class SplitPacketTemplateDiff extends UUIDPacket {
+    private final int version;
+    private final TemplateDiff diff;
+
+    public SplitPacketTemplateDiff(PacketBuffer buffer) {
+        super(buffer);
+        this.version = buffer.readVarInt();
+        this.diff = TemplateDiff.readFrom(buffer);
+    }
+
+    public SplitPacketTemplateDiff(UUID id, int version, TemplateDiff diff) {
+        super(id);
+        this.version = version;
+        this.diff = diff;
+    }
+
+    @Override
+    public void encode(PacketBuffer buffer) {
+        super.encode(buffer);
+        buffer.writeVarInt(version);
+        diff.writeTo(buffer);
+    }
+
+    public void handle(Supplier<Context> contextSupplier) {
+        contextSupplier.get().enqueueWork(() -> ClientProxy.CACHE_TEMPLATE_PROVIDER.applyDiff(getId(), version, diff));
+        contextSupplier.get().setPacketHandled(true);
+    }
+}
@@ -1,46 +1,59 @@
 package com.direwolf20.buildinggadgets.common.network.packets;
 
 import com.direwolf20.buildinggadgets.client.ClientProxy;
+import com.direwolf20.buildinggadgets.common.network.split.DeflatePayloadCodec;
+import com.direwolf20.buildinggadgets.common.network.split.IPayloadCodec;
 import com.direwolf20.buildinggadgets.common.save.SaveManager;
 import com.direwolf20.buildinggadgets.common.template.SimpleTemplateKey;
 import com.direwolf20.buildinggadgets.common.template.Template;
 import com.direwolf20.buildinggadgets.common.template.TemplateIO;
 import com.direwolf20.buildinggadgets.common.util.exceptions.TemplateReadException;
 import com.direwolf20.buildinggadgets.common.util.exceptions.TemplateWriteException;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
 import net.minecraft.network.PacketBuffer;
 import net.minecraftforge.fml.LogicalSide;
 import net.minecraftforge.fml.network.NetworkEvent.Context;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.util.UUID;
 import java.util.function.Supplier;
+import java.util.zip.Deflater;
 
 public final class SplitPacketUpdateTemplate extends UUIDPacket {
+    /**
+     * Compresses the whole message, using a dictionary of common block names. Also used for {@link SplitPacketTemplateDiff}.
+     */
+    public static final IPayloadCodec CODEC = new DeflatePayloadCodec(Deflater.DEFAULT_COMPRESSION, TemplateIO.createTransferDictionary(), 64 * 1024 * 1024);
     private final Template template;
+    //the version of the Template on the server, -1 if sent by a client
+    private final int version;
 
     public SplitPacketUpdateTemplate(PacketBuffer buffer) {
         super(buffer);
-        byte[] bytes = new byte[buffer.readableBytes()];
-        buffer.readBytes(bytes);
+        version = buffer.readVarInt();
         try {
-            template = TemplateIO.readTemplate(new ByteArrayInputStream(bytes), null);
+            template = TemplateIO.readTemplateUncompressed(new ByteBufInputStream(buffer), null, true);
         } catch (TemplateReadException e) {
             throw new RuntimeException("Failed to read TemplateItem from buffer!", e);
         }
     }
 
     public SplitPacketUpdateTemplate(UUID id, Template template) {
+        this(id, template, - 1);
+    }
+
+    public SplitPacketUpdateTemplate(UUID id, Template template, int version) {
         super(id);
         this.template = template;
+        this.version = version;
     }
 
+    @Override
     public void encode(PacketBuffer buffer) {
         super.encode(buffer);
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        try {
-            TemplateIO.writeTemplate(template, stream);
-            buffer.writeBytes(stream.toByteArray());
+        buffer.writeVarInt(version);
+        try { //stream directly into the buffer, instead of creating an intermediate copy. Compression is up to the CODEC.
+            TemplateIO.writeTemplateUncompressed(template, new ByteBufOutputStream(buffer), true);
         } catch (TemplateWriteException e) {
             throw new RuntimeException("Failed to write TemplateItem during Packet Encoding!", e);
         }
@@ -49,7 +62,7 @@ public final class SplitPacketUpdateTemplate extends UUIDPacket {
     public void handle(Supplier<Context> contextSupplier) {
         contextSupplier.get().enqueueWork(() -> {
             if (contextSupplier.get().getDirection().getReceptionSide() == LogicalSide.CLIENT)
-                ClientProxy.CACHE_TEMPLATE_PROVIDER.setTemplate(new SimpleTemplateKey(getId()), template);
+                ClientProxy.CACHE_TEMPLATE_PROVIDER.onRemoteUpdate(getId(), version, template);
             else
                 SaveManager.INSTANCE.getTemplateProvider().setTemplate(new SimpleTemplateKey(getId()), template);
         });
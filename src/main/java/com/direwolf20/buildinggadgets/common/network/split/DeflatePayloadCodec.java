@@ -0,0 +1,165 @@
+package com.direwolf20.buildinggadgets.common.network.split;
+
+import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses payloads using raw zlib streams with an optional preset dictionary. A dictionary containing strings which are likely
+ * to appear in the payload (f.e. block names) lets even small payloads compress well, as the first occurrence of each string
+ * can already refer to the dictionary.
+ * <p>
+ * Output is written directly into the backing arrays of pooled heap buffers, so that neither side needs intermediate copies
+ * of the whole payload. Input without a backing array (f.e. reassembled parts received from the network) is fed in chunks.
+ * The {@link Deflater} and {@link Inflater} instances are reused, as creating them is comparatively expensive. They are kept in a
+ * small pool owned by the codec instead of per thread, as threads (f.e. the integrated server's) come and go and would otherwise
+ * leave their native zlib memory behind. Instances which don't fit into the pool are {@link Deflater#end() ended} right away.
+ */
+public final class DeflatePayloadCodec implements IPayloadCodec {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MIN_WRITABLE = 4096;
+    private static final int MAX_POOLED = 4;
+
+    private final ByteBufAllocator allocator;
+    @Nullable
+    private final byte[] dictionary;
+    private final int maxDecodedBytes;
+    private final int level;
+    private final Queue<Deflater> deflaters;
+    private final Queue<Inflater> inflaters;
+
+    public DeflatePayloadCodec(int level, @Nullable byte[] dictionary, int maxDecodedBytes) {
+        this(PooledByteBufAllocator.DEFAULT, level, dictionary, maxDecodedBytes);
+    }
+
+    public DeflatePayloadCodec(ByteBufAllocator allocator, int level, @Nullable byte[] dictionary, int maxDecodedBytes) {
+        Preconditions.checkArgument(maxDecodedBytes > 0, "Cannot limit decoded payloads to %s bytes!", maxDecodedBytes);
+        this.allocator = allocator;
+        this.dictionary = dictionary != null ? Arrays.copyOf(dictionary, dictionary.length) : null;
+        this.maxDecodedBytes = maxDecodedBytes;
+        this.level = level;
+        this.deflaters = new ArrayBlockingQueue<>(MAX_POOLED);
+        this.inflaters = new ArrayBlockingQueue<>(MAX_POOLED);
+    }
+
+    @Override
+    public ByteBuf encode(ByteBuf message) {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null)
+            deflater = new Deflater(level, true);
+        try {
+            return encode(deflater, message);
+        } finally {
+            deflater.reset();
+            if (! deflaters.offer(deflater))
+                deflater.end();
+        }
+    }
+
+    private ByteBuf encode(Deflater deflater, ByteBuf message) {
+        if (dictionary != null)
+            deflater.setDictionary(dictionary);
+        ByteBuf target = allocator.heapBuffer(Math.max(MIN_WRITABLE, message.readableBytes() / 4));
+        try {
+            byte[] scratch = message.hasArray() ? null : new byte[Math.min(CHUNK_SIZE, message.readableBytes())];
+            for (int index = message.readerIndex(); index < message.writerIndex(); ) {
+                int length = Math.min(CHUNK_SIZE, message.writerIndex() - index);
+                if (scratch == null)
+                    deflater.setInput(message.array(), message.arrayOffset() + index, length);
+                else {
+                    message.getBytes(index, scratch, 0, length);
+                    deflater.setInput(scratch, 0, length);
+                }
+                index += length;
+                while (! deflater.needsInput())
+                    deflate(deflater, target);
+            }
+            deflater.finish();
+            while (! deflater.finished())
+                deflate(deflater, target);
+            return target;
+        } catch (RuntimeException e) {
+            target.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public ByteBuf decode(ByteBuf payload) {
+        Inflater inflater = inflaters.poll();
+        if (inflater == null)
+            inflater = new Inflater(true);
+        try {
+            return decode(inflater, payload);
+        } finally {
+            inflater.reset();
+            if (! inflaters.offer(inflater))
+                inflater.end();
+        }
+    }
+
+    private ByteBuf decode(Inflater inflater, ByteBuf payload) {
+        //raw streams don't request the dictionary, it has to be set up front
+        if (dictionary != null)
+            inflater.setDictionary(dictionary);
+        //the max capacity makes sure, that growing the buffer never allocates more than the limit
+        int initialCapacity = Math.min(maxDecodedBytes, Math.max(MIN_WRITABLE, payload.readableBytes() * 4));
+        ByteBuf target = allocator.heapBuffer(initialCapacity, maxDecodedBytes);
+        try {
+            byte[] scratch = payload.hasArray() ? null : new byte[Math.min(CHUNK_SIZE, payload.readableBytes())];
+            for (int index = payload.readerIndex(); index < payload.writerIndex() && ! inflater.finished(); ) {
+                int length = Math.min(CHUNK_SIZE, payload.writerIndex() - index);
+                if (scratch == null)
+                    inflater.setInput(payload.array(), payload.arrayOffset() + index, length);
+                else {
+                    payload.getBytes(index, scratch, 0, length);
+                    inflater.setInput(scratch, 0, length);
+                }
+                index += length;
+                while (! inflater.needsInput() && ! inflater.finished())
+                    inflate(inflater, target);
+            }
+            Preconditions.checkArgument(inflater.finished(), "Payload ended before the compressed stream did!");
+            return target;
+        } catch (RuntimeException e) {
+            target.release();
+            throw e;
+        }
+    }
+
+    private static void deflate(Deflater deflater, ByteBuf target) {
+        target.ensureWritable(MIN_WRITABLE);
+        int written = deflater.deflate(target.array(), target.arrayOffset() + target.writerIndex(), target.writableBytes());
+        target.writerIndex(target.writerIndex() + written);
+    }
+
+    /**
+     * Inflates at most up to the limit, so that hostile payloads can't make the buffer grow beyond it before they are rejected.
+     */
+    private void inflate(Inflater inflater, ByteBuf target) {
+        int remaining = maxDecodedBytes - target.writerIndex();
+        try {
+            if (remaining == 0) {
+                //only the end of the stream may be left, which doesn't produce any output
+                int written = inflater.inflate(new byte[1]);
+                Preconditions.checkArgument(written == 0 && (inflater.finished() || inflater.needsInput()),
+                        "Decoded payload exceeds the limit of %s bytes!", maxDecodedBytes);
+                return;
+            }
+            target.ensureWritable(Math.min(MIN_WRITABLE, remaining));
+            int written = inflater.inflate(target.array(), target.arrayOffset() + target.writerIndex(), Math.min(target.writableBytes(), remaining));
+            target.writerIndex(target.writerIndex() + written);
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Malformed compressed payload!", e);
+        }
+    }
+}
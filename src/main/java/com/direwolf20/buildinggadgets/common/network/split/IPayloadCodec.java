@@ -0,0 +1,40 @@
+package com.direwolf20.buildinggadgets.common.network.split;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Transforms the encoded form of a split message before it is split into parts, and back after all parts have been received.
+ * Both sides must use the same codec for a message type, which is ensured by registering it together with the message in
+ * {@link PacketSplitManager#registerSplitPacket(Class, java.util.function.BiConsumer, java.util.function.Function, java.util.function.BiConsumer, IPayloadCodec)}.
+ * <p>
+ * Implementations have to be thread safe, as messages are encoded on the game threads and decoded on the network threads.
+ */
+public interface IPayloadCodec {
+    /**
+     * Passes the payload through unchanged.
+     */
+    IPayloadCodec NONE = new IPayloadCodec() {
+        @Override
+        public ByteBuf encode(ByteBuf message) {
+            return message.retain();
+        }
+
+        @Override
+        public ByteBuf decode(ByteBuf payload) {
+            return payload.retain();
+        }
+    };
+
+    /**
+     * @param message the encoded message, which is read but not released by this method
+     * @return the payload to split. The caller is responsible for releasing it.
+     */
+    ByteBuf encode(ByteBuf message);
+
+    /**
+     * @param payload the reassembled payload, which is read but not released by this method
+     * @return the encoded message. The caller is responsible for releasing it.
+     * @throws IllegalArgumentException if the payload is malformed
+     */
+    ByteBuf decode(ByteBuf payload);
+}
@@ -1,14 +1,16 @@
 package com.direwolf20.buildinggadgets.common.network.split;
 
 import com.direwolf20.buildinggadgets.common.BuildingGadgets;
+import com.google.common.base.Preconditions;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
 import net.minecraft.network.PacketBuffer;
 
-import java.util.LinkedList;
-import java.util.List;
-import java.util.ListIterator;
+import java.util.Arrays;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
@@ -16,17 +18,31 @@ import java.util.function.Function;
 final class PacketDecoder<MSG> {
     private final Cache<Short, PendingPacket> pendingPackets;
     private final Function<PacketBuffer, MSG> decoder;
+    private final IPayloadCodec codec;
+    private final int maxParts;
 
-    PacketDecoder(Function<PacketBuffer, MSG> decoder) {
+    /**
+     * @param maxParts the exclusive upper bound for part counts and indices. Both are read from untrusted data, so they are checked
+     *                 against this before anything is allocated for them.
+     */
+    PacketDecoder(Function<PacketBuffer, MSG> decoder, IPayloadCodec codec, int maxParts) {
+        Preconditions.checkArgument(maxParts > 0, "Cannot limit messages to %s parts!", maxParts);
         pendingPackets = CacheBuilder.newBuilder()
                 .expireAfterAccess(1, TimeUnit.MINUTES)
+                .removalListener((RemovalNotification<Short, PendingPacket> notification) -> notification.getValue().release())
                 .build();
         this.decoder = decoder;
+        this.codec = codec;
+        this.maxParts = maxParts;
     }
 
     Optional<MSG> decode(SplitPacket packet) {
         try {
-            return pendingPackets.get(packet.getSessionId(), PendingPacket::new).add(packet);
+            PendingPacket pending = pendingPackets.get(packet.getSessionId(), PendingPacket::new);
+            Optional<MSG> res = pending.add(packet);
+            if (res.isPresent())
+                pendingPackets.invalidate(packet.getSessionId());
+            return res;
         } catch (Exception e) {
             BuildingGadgets.LOG.error("An error occurred whilst assembling packet {} ins session {} with index {} which {}. Discarding.",
                     packet.getId(), packet.getSessionId(), packet.getIndex(), packet.hasMore() ? "has follow up packets" : "no follow up packets", e);
@@ -35,50 +51,100 @@ final class PacketDecoder<MSG> {
         }
     }
 
+    /**
+     * @return the amount of parts received for all incomplete messages, whose total amount of parts is already known
+     */
+    int getReceivedParts() {
+        int res = 0;
+        for (PendingPacket pending : pendingPackets.asMap().values()) {
+            if (pending.partCount > 0)
+                res += pending.received;
+        }
+        return res;
+    }
+
+    /**
+     * @return the total amount of parts of all incomplete messages, whose total amount of parts is already known
+     */
+    int getExpectedParts() {
+        int res = 0;
+        for (PendingPacket pending : pendingPackets.asMap().values()) {
+            if (pending.partCount > 0)
+                res += pending.partCount;
+        }
+        return res;
+    }
+
+    /**
+     * Collects the payloads of one session in a slot per part index, so that parts can be inserted in constant time regardless of
+     * the order in which they arrive. Owns the payloads until they are either assembled or the session is discarded.
+     */
     private final class PendingPacket {
-        private final List<SplitPacket> partialPackets;
-        private boolean receivedLast;
+        private ByteBuf[] parts;
+        private int partCount; //unknown until the first part was received
+        private int received;
 
         private PendingPacket() {
-            partialPackets = new LinkedList<>();
+            parts = new ByteBuf[1];
+            partCount = - 1;
+            received = 0;
         }
 
         private Optional<MSG> add(SplitPacket packet) {
-            if (! packet.hasMore())
-                receivedLast = true;
-            ListIterator<SplitPacket> it = partialPackets.listIterator();
-            while (it.hasNext() && packet != null) {
-                SplitPacket curPacket = it.next();
-                if (packet.getIndex() < curPacket.getIndex()) {
-                    it.set(packet);
-                    it.add(curPacket);
-                    packet = null;
-                }
+            try {
+                store(packet);
+            } catch (RuntimeException e) {
+                packet.getPayload().release(); //it isn't owned by this yet
+                throw e;
             }
-            if (packet != null)
-                partialPackets.add(packet);
-            if (receivedLast)
-                return checkComplete();
+            if (received == partCount)
+                return Optional.of(assemble());
             return Optional.empty();
         }
 
-        private Optional<MSG> checkComplete() {
-            int index = 0;
-            for (SplitPacket packet : partialPackets) {
-                if (packet.getIndex() != index++)
-                    return Optional.empty();
+        private void store(SplitPacket packet) {
+            int index = packet.getIndex();
+            Preconditions.checkArgument(index >= 0 && index < maxParts, "Part index %s is out of range!", index);
+            if (index == 0) {
+                Preconditions.checkArgument(packet.getPartCount() > 0 && packet.getPartCount() < maxParts, "Invalid part count %s!", packet.getPartCount());
+                for (int i = packet.getPartCount(); i < parts.length; i++)
+                    Preconditions.checkArgument(parts[i] == null, "Received part %s of only %s parts!", i, packet.getPartCount());
+                partCount = packet.getPartCount();
+                if (parts.length < partCount)
+                    parts = Arrays.copyOf(parts, partCount);
             }
-            return assemble();
+            Preconditions.checkArgument(partCount < 0 || index < partCount, "Part index %s is out of range!", index);
+            if (index >= parts.length) //the first part hasn't arrived yet
+                parts = Arrays.copyOf(parts, Math.min(maxParts, Math.max(index + 1, parts.length * 2)));
+            Preconditions.checkArgument(parts[index] == null, "Received part %s twice!", index);
+            parts[index] = packet.getPayload();
+            received++;
         }
 
-        private Optional<MSG> assemble() {
-            PacketBuffer payloadBuffer = new PacketBuffer(Unpooled.buffer(Short.MAX_VALUE, Integer.MAX_VALUE));
-            for (SplitPacket packet : partialPackets) {
-                PacketBuffer payload = packet.getPayload();
-                payloadBuffer.writeBytes(payload);
+        private MSG assemble() {
+            //the composite takes over ownership of all parts
+            CompositeByteBuf payload = Unpooled.compositeBuffer(partCount).addComponents(true, Arrays.copyOf(parts, partCount));
+            Arrays.fill(parts, null);
+            ByteBuf message;
+            try {
+                message = codec.decode(payload);
+            } finally {
+                payload.release();
+            }
+            try {
+                return decoder.apply(new PacketBuffer(message));
+            } finally {
+                message.release();
             }
-            return Optional.of(decoder.apply(payloadBuffer));
         }
 
+        private void release() {
+            for (int i = 0; i < parts.length; i++) {
+                if (parts[i] != null) {
+                    parts[i].release();
+                    parts[i] = null;
+                }
+            }
+        }
     }
 }
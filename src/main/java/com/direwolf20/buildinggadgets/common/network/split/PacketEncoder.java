@@ -1,61 +1,86 @@
 package com.direwolf20.buildinggadgets.common.network.split;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.AbstractIterator;
-import io.netty.buffer.Unpooled;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import net.minecraft.network.PacketBuffer;
 
-import javax.annotation.Nonnull;
-import java.util.Iterator;
 import java.util.function.BiConsumer;
 
+import static com.direwolf20.buildinggadgets.common.network.split.PacketSplitManager.MAX_PARTS;
 import static com.direwolf20.buildinggadgets.common.network.split.PacketSplitManager.SPLIT_BORDER;
 
 final class PacketEncoder<MSG> {
     private final BiConsumer<MSG, PacketBuffer> messageEncoder;
+    private final IPayloadCodec codec;
     private final int id;
     private short curSession;
 
-    PacketEncoder(BiConsumer<MSG, PacketBuffer> messageEncoder, int id) {
+    PacketEncoder(BiConsumer<MSG, PacketBuffer> messageEncoder, IPayloadCodec codec, int id) {
         this.messageEncoder = messageEncoder;
+        this.codec = codec;
         this.id = id;
         this.curSession = 0;
     }
 
-    Iterable<SplitPacket> encode(MSG msg) {
-        return new Iterable<SplitPacket>() { //save some memory by evaluating the copied buffers lazily
-            private short curSession = PacketEncoder.this.curSession++;
-
-            @Override
-            @Nonnull
-            public Iterator<SplitPacket> iterator() {
-                return new AbstractIterator<SplitPacket>() {
-                    private PacketBuffer messageBuffer = new PacketBuffer(Unpooled.buffer(Short.MAX_VALUE, Integer.MAX_VALUE));
-                    private int index = 0;
-
-                    {
-                        messageBuffer.markReaderIndex();
-                        messageBuffer.markWriterIndex();
-                        messageEncoder.accept(msg, messageBuffer);
-                        messageBuffer.resetReaderIndex();
-                    }
-
-                    @Override
-                    protected SplitPacket computeNext() {
-                        if (messageBuffer == null)
-                            return endOfData();
-                        PacketBuffer payload;
-                        boolean hasMore = messageBuffer.readableBytes() > SPLIT_BORDER;
-                        if (hasMore) {
-                            payload = new PacketBuffer(messageBuffer.copy(messageBuffer.readerIndex(), SPLIT_BORDER));
-                            messageBuffer.readerIndex(messageBuffer.readerIndex() + SPLIT_BORDER);
-                        } else {
-                            payload = new PacketBuffer(messageBuffer.copy());
-                            messageBuffer = null; //we are finished - hand it to the GC
-                        }
-                        return new SplitPacket(id, index++, curSession, hasMore, payload);
-                    }
-                };
+    SplitMessage encode(MSG msg) {
+        //pooled heap buffers, so that codecs can work on the backing arrays and large messages don't churn through fresh arrays
+        ByteBuf messageBuffer = PooledByteBufAllocator.DEFAULT.heapBuffer(Short.MAX_VALUE);
+        try {
+            messageEncoder.accept(msg, new PacketBuffer(messageBuffer));
+            SplitMessage res = new SplitMessage(codec.encode(messageBuffer), id, curSession++);
+            if (res.getPartCount() >= MAX_PARTS) {
+                res.release();
+                throw new IllegalArgumentException("Message " + msg + " takes " + res.getPartCount() + " parts, but only less than " + MAX_PARTS + " are accepted!");
             }
-        };
+            return res;
+        } finally {
+            messageBuffer.release();
+        }
+    }
+
+    /**
+     * The parts of one encoded message. Parts are sliced from the encoded message as they are requested, so that a queued
+     * message only occupies it's encoded size. The message owns the encoded buffer and has to be {@link #release() released},
+     * once all parts are written or it is discarded.
+     */
+    static final class SplitMessage extends AbstractIterator<SplitPacket> {
+        private final ByteBuf messageBuffer;
+        private final int id;
+        private final short session;
+        private final int partCount;
+        private int index;
+
+        private SplitMessage(ByteBuf messageBuffer, int id, short session) {
+            this.messageBuffer = messageBuffer;
+            this.id = id;
+            this.session = session;
+            this.partCount = Math.max(1, (messageBuffer.readableBytes() + SPLIT_BORDER - 1) / SPLIT_BORDER);
+            this.index = 0;
+        }
+
+        int getPartCount() {
+            return partCount;
+        }
+
+        int getRemainingBytes() {
+            return messageBuffer.refCnt() > 0 ? messageBuffer.readableBytes() : 0;
+        }
+
+        void release() {
+            if (messageBuffer.refCnt() > 0)
+                messageBuffer.release();
+        }
+
+        @Override
+        protected SplitPacket computeNext() {
+            if (index == partCount || messageBuffer.refCnt() == 0)
+                return endOfData();
+            boolean hasMore = index + 1 < partCount;
+            //slices are enough, as the payload is copied when the packet is written - which happens before the message is released
+            PacketBuffer payload = new PacketBuffer(messageBuffer.readSlice(hasMore ? SPLIT_BORDER : messageBuffer.readableBytes()));
+            return new SplitPacket(id, index++, session, hasMore, partCount, payload);
+        }
     }
 }
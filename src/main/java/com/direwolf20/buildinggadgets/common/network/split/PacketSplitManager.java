@@ -1,58 +1,125 @@
 package com.direwolf20.buildinggadgets.common.network.split;
 
+import com.direwolf20.buildinggadgets.common.config.Config;
 import com.direwolf20.buildinggadgets.common.network.PacketHandler;
 import com.google.common.base.Preconditions;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import net.minecraft.entity.player.ServerPlayerEntity;
 import net.minecraft.network.PacketBuffer;
+import net.minecraftforge.fml.LogicalSide;
 import net.minecraftforge.fml.network.NetworkEvent.Context;
 import net.minecraftforge.fml.network.PacketDistributor.PacketTarget;
 
+import java.util.EnumMap;
 import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalDouble;
 import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
+/**
+ * Splits messages into {@link SplitPacket SplitPackets} and reassembles them. The client and an integrated server share this
+ * manager, therefore each logical side has it's own encoders, decoders and {@link SplitPacketSender} - so that neither sessions nor
+ * queues of one side can interfere with the other and each sender is only ever ticked by the thread of it's side.
+ */
 public final class PacketSplitManager {
     public static final int SPLIT_BORDER = 30000;
+    /**
+     * The maximum size of an encoded message. Messages may only consist of less than {@code MAX_MESSAGE_BYTES / SPLIT_BORDER} parts.
+     */
+    public static final int MAX_MESSAGE_BYTES = 64 * 1024 * 1024;
+    static final int MAX_PARTS = MAX_MESSAGE_BYTES / SPLIT_BORDER;
+    //all messages sent to the server share one budget, as do all messages to unspecific targets
+    private static final Object SERVER_DESTINATION = new Object();
     private int id;
-    private final Map<Class<?>, PacketSplitHandler<?>> classToHandlerMap;
-    private final Int2ObjectMap<PacketSplitHandler<?>> idToHandlerMap;
+    private final Map<LogicalSide, SideState> sides;
 
     public PacketSplitManager() {
-        this.classToHandlerMap = new IdentityHashMap<>();
-        this.idToHandlerMap = new Int2ObjectOpenHashMap<>();
+        this.sides = new EnumMap<>(LogicalSide.class);
+        for (LogicalSide side : LogicalSide.values())
+            sides.put(side, new SideState());
     }
 
     public <MSG> void registerSplitPacket(Class<MSG> msgClass, BiConsumer<MSG, PacketBuffer> encoder, Function<PacketBuffer, MSG> decoder, BiConsumer<MSG, Supplier<Context>> handler) {
-        PacketEncoder<MSG> splitEncoder = new PacketEncoder<>(encoder, id);
-        PacketDecoder<MSG> splitDecoder = new PacketDecoder<>(decoder);
-        PacketSplitHandler<MSG> splitHandler = new PacketSplitHandler<>(splitEncoder, splitDecoder, handler);
-        classToHandlerMap.put(msgClass, splitHandler);
-        idToHandlerMap.put(id++, splitHandler);
+        registerSplitPacket(msgClass, encoder, decoder, handler, IPayloadCodec.NONE);
     }
 
+    /**
+     * @param codec the codec applied to the whole encoded message before it is split, f.e. to compress it
+     */
+    public <MSG> void registerSplitPacket(Class<MSG> msgClass, BiConsumer<MSG, PacketBuffer> encoder, Function<PacketBuffer, MSG> decoder, BiConsumer<MSG, Supplier<Context>> handler, IPayloadCodec codec) {
+        for (SideState side : sides.values()) {
+            PacketEncoder<MSG> splitEncoder = new PacketEncoder<>(encoder, codec, id);
+            PacketDecoder<MSG> splitDecoder = new PacketDecoder<>(decoder, codec, MAX_PARTS);
+            PacketSplitHandler<MSG> splitHandler = new PacketSplitHandler<>(splitEncoder, splitDecoder, handler);
+            side.classToHandlerMap.put(msgClass, splitHandler);
+            side.idToHandlerMap.put(id, splitHandler);
+        }
+        id++;
+    }
+
+    /**
+     * Queues the given message for the given player. Parts are sent throttled by {@link #tick(LogicalSide)}.
+     */
     public void sendTo(Object message, ServerPlayerEntity player) {
-        send(message, packet -> PacketHandler.sendTo(packet, player));
+        send(LogicalSide.SERVER, message, player.getUniqueID(), packet -> PacketHandler.sendTo(packet, player), () -> ! player.hasDisconnected());
     }
 
     public void sendToServer(Object message) {
-        send(message, PacketHandler::sendToServer);
+        send(LogicalSide.CLIENT, message, SERVER_DESTINATION, PacketHandler::sendToServer, () -> true);
     }
 
     public void send(Object message, PacketTarget target) {
-        send(message, packet -> PacketHandler.HANDLER.send(target, packet));
+        send(target.getDirection().getOriginationSide(), message, target.getDirection(), packet -> PacketHandler.HANDLER.send(target, packet), () -> true);
     }
 
-    private void send(Object message, Consumer<SplitPacket> packetConsumer) {
+    private void send(LogicalSide side, Object message, Object destination, Consumer<SplitPacket> packetConsumer, BooleanSupplier isOpen) {
+        SideState state = sides.get(side);
         @SuppressWarnings("unchecked") //it will only ever have been inserted for the correct class!
-                PacketSplitHandler<Object> handler = (PacketSplitHandler<Object>) classToHandlerMap.get(message.getClass());
+                PacketSplitHandler<Object> handler = (PacketSplitHandler<Object>) state.classToHandlerMap.get(message.getClass());
         Preconditions.checkArgument(handler != null, "Cannot send unknown packet " + message + "!");
-        handler.splitPackets(message, packetConsumer);
+        state.sender.send(destination, handler.encoder.encode(message), packetConsumer, isOpen);
+    }
+
+    /**
+     * Sends the parts queued on the given side, up to the configured amount of bytes per destination. Must be called once per tick
+     * by each side.
+     */
+    public void tick(LogicalSide side) {
+        sides.get(side).sender.tick();
+    }
+
+    /**
+     * Drops all parts queued on the given side, f.e. when the client disconnects.
+     */
+    public void clearQueued(LogicalSide side) {
+        sides.get(side).sender.clear();
+    }
+
+    /**
+     * Drops the parts queued for the given player, f.e. when it disconnects. Other players' transfers are unaffected.
+     */
+    public void clearQueued(ServerPlayerEntity player) {
+        sides.get(LogicalSide.SERVER).sender.clear(player.getUniqueID());
+    }
+
+    /**
+     * @return the fraction of parts received by the client for all split messages currently being received, or empty if there are
+     *         none. Intended for displaying progress whilst f.e. a large Template is transferred.
+     */
+    public OptionalDouble getIncomingProgress() {
+        int received = 0;
+        int expected = 0;
+        for (PacketSplitHandler<?> handler : sides.get(LogicalSide.CLIENT).idToHandlerMap.values()) {
+            received += handler.decoder.getReceivedParts();
+            expected += handler.decoder.getExpectedParts();
+        }
+        return expected > 0 ? OptionalDouble.of((double) received / expected) : OptionalDouble.empty();
     }
 
     public void encode(SplitPacket msg, PacketBuffer buf) {
@@ -64,11 +131,23 @@ public final class PacketSplitManager {
     }
 
     public void handle(SplitPacket msg, Supplier<Context> ctx) {
-        PacketSplitHandler<?> handler = idToHandlerMap.get(msg.getId());
+        PacketSplitHandler<?> handler = sides.get(ctx.get().getDirection().getReceptionSide()).idToHandlerMap.get(msg.getId());
         Preconditions.checkArgument(handler != null, "Cannot handler packet with unknown id " + msg.getId() + "!");
         handler.handleSplit(msg, ctx);
     }
 
+    private static final class SideState {
+        private final Map<Class<?>, PacketSplitHandler<?>> classToHandlerMap;
+        private final Int2ObjectMap<PacketSplitHandler<?>> idToHandlerMap;
+        private final SplitPacketSender sender;
+
+        private SideState() {
+            this.classToHandlerMap = new IdentityHashMap<>();
+            this.idToHandlerMap = new Int2ObjectOpenHashMap<>();
+            this.sender = new SplitPacketSender(() -> Config.GENERAL.splitPacketBytesPerTick.get());
+        }
+    }
+
     private static final class PacketSplitHandler<MSG> {
         private final PacketEncoder<MSG> encoder;
         private final PacketDecoder<MSG> decoder;
@@ -87,10 +166,6 @@ public final class PacketSplitManager {
                 ctx.get().setPacketHandled(true);
             });
         }
-
-        private void splitPackets(MSG msg, Consumer<SplitPacket> consumer) {
-            encoder.encode(msg).forEach(consumer);
-        }
     }
 
 }
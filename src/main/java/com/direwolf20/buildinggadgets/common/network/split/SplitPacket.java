@@ -1,30 +1,39 @@
 package com.direwolf20.buildinggadgets.common.network.split;
 
-import io.netty.buffer.Unpooled;
 import net.minecraft.network.PacketBuffer;
 
+/**
+ * One part of a message split by the {@link PacketSplitManager}. Only the first part (index 0) carries the total amount of
+ * parts, so that the receiver can allocate all slots up front.
+ */
 public final class SplitPacket {
     private final int id;
     private final int index;
     private final short sessionId;
     private final boolean hasMore;
+    private final int partCount;
     private final PacketBuffer payload;
 
+    /**
+     * The payload of the returned packet is a retained slice of the given buffer, no bytes are copied. The receiver of the packet
+     * is responsible for releasing it.
+     */
     static SplitPacket readFrom(PacketBuffer buffer) {
         int id = buffer.readVarInt();
         int index = buffer.readVarInt();
         short sessionId = buffer.readShort();
         boolean hasMore = buffer.readBoolean();
-        PacketBuffer payload = new PacketBuffer(Unpooled.buffer(buffer.readableBytes(), Integer.MAX_VALUE));
-        buffer.readBytes(payload);
-        return new SplitPacket(id, index, sessionId, hasMore, payload);
+        int partCount = index == 0 ? buffer.readVarInt() : - 1;
+        PacketBuffer payload = new PacketBuffer(buffer.readRetainedSlice(buffer.readableBytes()));
+        return new SplitPacket(id, index, sessionId, hasMore, partCount, payload);
     }
 
-    SplitPacket(int id, int index, short sessionId, boolean hasMore, PacketBuffer payload) {
+    SplitPacket(int id, int index, short sessionId, boolean hasMore, int partCount, PacketBuffer payload) {
         this.id = id;
         this.index = index;
         this.sessionId = sessionId;
         this.hasMore = hasMore;
+        this.partCount = partCount;
         this.payload = payload;
     }
 
@@ -33,7 +42,9 @@ public final class SplitPacket {
         buffer.writeVarInt(index);
         buffer.writeShort(sessionId);
         buffer.writeBoolean(hasMore);
-        buffer.writeBytes(payload);
+        if (index == 0)
+            buffer.writeVarInt(partCount);
+        buffer.writeBytes(payload, payload.readerIndex(), payload.readableBytes());
     }
 
     public int getId() {
@@ -52,6 +63,13 @@ public final class SplitPacket {
         return hasMore;
     }
 
+    /**
+     * @return the total amount of parts of the message, or -1 if this isn't the first part
+     */
+    public int getPartCount() {
+        return partCount;
+    }
+
     public PacketBuffer getPayload() {
         return payload;
     }
@@ -0,0 +1,120 @@
+package com.direwolf20.buildinggadgets.common.network.split;
+
+import com.direwolf20.buildinggadgets.common.network.split.PacketEncoder.SplitMessage;
+
+import java.util.*;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+
+/**
+ * Sends the parts of split messages throttled, instead of all at once. Each destination has it's own queue, which is drained by
+ * {@link #tick()} under a budget of bytes per tick. Within a queue the message with the fewest remaining bytes goes first, so
+ * that small messages aren't stuck behind bulk transfers, which are backfilled with the remaining budget.
+ * <p>
+ * Messages consisting of a single part bypass the queue entirely.
+ */
+final class SplitPacketSender {
+    private final IntSupplier bytesPerTick;
+    private final Map<Object, DestinationQueue> queues;
+
+    SplitPacketSender(IntSupplier bytesPerTick) {
+        this.bytesPerTick = Objects.requireNonNull(bytesPerTick);
+        this.queues = new HashMap<>();
+    }
+
+    /**
+     * @param destination a key identifying the receiver, all messages for the same key share one budget
+     * @param isOpen      whether the receiver is still connected, the queue is dropped once this returns false
+     */
+    synchronized void send(Object destination, SplitMessage message, Consumer<SplitPacket> packetConsumer, BooleanSupplier isOpen) {
+        if (message.getPartCount() == 1) {
+            try {
+                message.forEachRemaining(packetConsumer);
+            } finally {
+                message.release();
+            }
+            return;
+        }
+        queues.computeIfAbsent(destination, d -> new DestinationQueue(isOpen))
+                .add(new QueuedMessage(message, packetConsumer));
+    }
+
+    synchronized void tick() {
+        int budget = bytesPerTick.getAsInt();
+        Iterator<DestinationQueue> it = queues.values().iterator();
+        while (it.hasNext()) {
+            DestinationQueue queue = it.next();
+            if (! queue.isOpen.getAsBoolean()) {
+                queue.release();
+                it.remove();
+            } else if (queue.drain(budget))
+                it.remove();
+        }
+    }
+
+    synchronized void clear(Object destination) {
+        DestinationQueue queue = queues.remove(destination);
+        if (queue != null)
+            queue.release();
+    }
+
+    synchronized void clear() {
+        queues.values().forEach(DestinationQueue::release);
+        queues.clear();
+    }
+
+    private static final class DestinationQueue {
+        private final PriorityQueue<QueuedMessage> messages;
+        private final BooleanSupplier isOpen;
+
+        private DestinationQueue(BooleanSupplier isOpen) {
+            this.messages = new PriorityQueue<>(Comparator.comparingInt(m -> m.message.getRemainingBytes()));
+            this.isOpen = isOpen;
+        }
+
+        private void add(QueuedMessage message) {
+            messages.add(message);
+        }
+
+        /**
+         * @return whether the queue is empty afterwards
+         */
+        private boolean drain(int budget) {
+            //at least one part is sent per tick, even if the budget is smaller than a part
+            do {
+                QueuedMessage head = messages.poll();
+                if (head == null)
+                    return true;
+                SplitPacket packet = head.message.next();
+                budget -= packet.getPayload().readableBytes();
+                try {
+                    head.packetConsumer.accept(packet);
+                } catch (RuntimeException e) {
+                    head.message.release();
+                    throw e;
+                }
+                if (head.message.hasNext()) //re-insert, as it's priority changed
+                    messages.add(head);
+                else
+                    head.message.release();
+            } while (budget > 0);
+            return messages.isEmpty();
+        }
+
+        private void release() {
+            messages.forEach(m -> m.message.release());
+            messages.clear();
+        }
+    }
+
+    private static final class QueuedMessage {
+        private final SplitMessage message;
+        private final Consumer<SplitPacket> packetConsumer;
+
+        private QueuedMessage(SplitMessage message, Consumer<SplitPacket> packetConsumer) {
+            this.message = message;
+            this.packetConsumer = packetConsumer;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.direwolf20.buildinggadgets.common.save;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Describes how long and how much data a {@link TimedDataSave} may keep. Every limit which is {@code 0} is disabled.
+ */
+public final class RetentionPolicy {
+    public static final RetentionPolicy UNLIMITED = new RetentionPolicy(0, 0, 0);
+
+    public static RetentionPolicy of(int maxAgeDays, int maxEntries, int maxMegaBytes) {
+        if (maxAgeDays <= 0 && maxEntries <= 0 && maxMegaBytes <= 0)
+            return UNLIMITED;
+        return new RetentionPolicy(TimeUnit.DAYS.toMillis(Math.max(0, maxAgeDays)), Math.max(0, maxEntries), Math.max(0, maxMegaBytes) * 1024L * 1024L);
+    }
+
+    private final long maxAgeMillis;
+    private final int maxEntries;
+    private final long maxBytes;
+
+    private RetentionPolicy(long maxAgeMillis, int maxEntries, long maxBytes) {
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    public boolean isUnlimited() {
+        return maxAgeMillis == 0 && maxEntries == 0 && maxBytes == 0;
+    }
+
+    public boolean isExpired(long updateTime, long now) {
+        return maxAgeMillis > 0 && now - updateTime > maxAgeMillis;
+    }
+
+    public boolean exceedsEntries(int entries) {
+        return maxEntries > 0 && entries > maxEntries;
+    }
+
+    public boolean limitsBytes() {
+        return maxBytes > 0;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
@@ -9,6 +9,7 @@ import net.minecraftforge.fml.event.server.FMLServerStartedEvent;
 import net.minecraftforge.fml.event.server.FMLServerStoppedEvent;
 
 import javax.annotation.Nullable;
+import java.io.File;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
@@ -52,12 +53,33 @@ public enum SaveManager {
         BuildingGadgets.LOG.debug("Finished clearing save caches");
     }
 
+    /**
+     * Performs one incremental step of enforcing the configured {@link RetentionPolicy RetentionPolicies}. Called once per tick.
+     */
+    public void onServerTick() {
+        long now = System.currentTimeMillis();
+        for (UndoSaveContainer c : undoSaves) {
+            UndoWorldSave save = c.getCurrentSave();
+            if (save != null)
+                save.enforceRetention(now);
+        }
+        if (templateSave != null)
+            templateSave.enforceRetention(now);
+    }
+
     public static UndoWorldSave getUndoSave(ServerWorld world, IntSupplier maxLengthSupplier, String name) {
-        return get(world, () -> new UndoWorldSave(name, maxLengthSupplier), name);
+        return get(world, () -> new UndoWorldSave(name, maxLengthSupplier, getDataDirectory(world, name)), name);
     }
 
     private static TemplateSave getTemplateSave(ServerWorld world, String name) {
-        return get(world, () -> new TemplateSave(name), name);
+        return get(world, () -> new TemplateSave(name, getDataDirectory(world, name)), name);
+    }
+
+    /**
+     * @return the directory for data stored next to the save with the given name, instead of inside of it
+     */
+    private static File getDataDirectory(ServerWorld world, String name) {
+        return new File(new File(world.getSaveHandler().getWorldDirectory(), "data"), name);
     }
 
     private static <T extends WorldSavedData> T get(ServerWorld world, Supplier<T> supplier, String name) {
@@ -3,29 +3,47 @@ package com.direwolf20.buildinggadgets.common.save;
 import com.direwolf20.buildinggadgets.common.BuildingGadgets;
 import com.direwolf20.buildinggadgets.common.network.PacketHandler;
 import com.direwolf20.buildinggadgets.common.network.packets.PacketRequestTemplate;
+import com.direwolf20.buildinggadgets.common.network.packets.PacketTemplateVersion;
+import com.direwolf20.buildinggadgets.common.network.packets.SplitPacketTemplateDiff;
 import com.direwolf20.buildinggadgets.common.network.packets.SplitPacketUpdateTemplate;
 import com.direwolf20.buildinggadgets.common.template.ITemplateKey;
 import com.direwolf20.buildinggadgets.common.template.ITemplateProvider;
 import com.direwolf20.buildinggadgets.common.template.Template;
+import com.direwolf20.buildinggadgets.common.template.TemplateDiff;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import net.minecraft.entity.player.ServerPlayerEntity;
 import net.minecraftforge.fml.network.PacketDistributor;
 import net.minecraftforge.fml.network.PacketDistributor.PacketTarget;
 import org.apache.logging.log4j.util.TriConsumer;
 
-import java.util.Collections;
-import java.util.Set;
-import java.util.UUID;
-import java.util.WeakHashMap;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
+/**
+ * Server side {@link ITemplateProvider}. Remote updates only announce the version and content hash of a {@link Template} to the
+ * clients, which then request it while reporting the content hash of the {@link Template} they hold. Recently replaced
+ * {@link Template Templates} are remembered by their hash, so that the answer can be a {@link TemplateDiff} against what the
+ * client already has - or just the version, if it is up to date.
+ */
 public final class SaveTemplateProvider implements ITemplateProvider {
+    //upper bound for the blocks of all remembered Templates
+    private static final long MAX_SUPERSEDED_BLOCKS = 2_000_000;
+
     private final Supplier<TemplateSave> save;
     private final Set<IUpdateListener> updateListeners;
+    private final Cache<Long, Template> supersededTemplates;
 
     public SaveTemplateProvider(Supplier<TemplateSave> save) {
         this.save = save;
         this.updateListeners = Collections.newSetFromMap(new WeakHashMap<>());
+        this.supersededTemplates = CacheBuilder.newBuilder()
+                .maximumWeight(MAX_SUPERSEDED_BLOCKS)
+                .weigher((Long hash, Template template) -> template.size() + 1)
+                .expireAfterAccess(5, TimeUnit.MINUTES)
+                .build();
     }
 
     public TemplateSave getSave() {
@@ -40,7 +58,12 @@ public final class SaveTemplateProvider implements ITemplateProvider {
 
     @Override
     public void setTemplate(ITemplateKey key, Template template) {
-        getSave().setTemplate(key.getTemplateId(this::getFreeId), template);
+        UUID id = key.getTemplateId(this::getFreeId);
+        Template previous = getSave().getTemplateIfPresent(id);
+        //clients may still hold the previous version, remember it so that they can receive a diff
+        if (previous != null && previous != template)
+            supersededTemplates.put(previous.getContentHash(), previous);
+        getSave().setTemplate(id, template);
         notifyListeners(key, template, l -> l::onTemplateUpdate);
     }
 
@@ -54,7 +77,7 @@ public final class SaveTemplateProvider implements ITemplateProvider {
         UUID id = getId(key);
         Template template = getSave().getTemplate(id);
         notifyListeners(key, template, l -> l::onTemplateUpdateSend);
-        PacketHandler.getSplitManager().send(new SplitPacketUpdateTemplate(id, template), PacketDistributor.ALL.noArg());
+        PacketHandler.sendToAllClients(new PacketTemplateVersion(id, getSave().getVersion(id), template.getContentHash(), template.getContentDigest()));
         return true;
     }
 
@@ -81,10 +104,37 @@ public final class SaveTemplateProvider implements ITemplateProvider {
     public boolean requestRemoteUpdate(ITemplateKey key, PacketTarget target) {
         UUID id = getId(key);
         Template template = getSave().getTemplate(id);
-        PacketHandler.getSplitManager().send(new SplitPacketUpdateTemplate(id, template), target);
+        PacketHandler.send(new PacketTemplateVersion(id, getSave().getVersion(id), template.getContentHash(), template.getContentDigest()), target);
         return true;
     }
 
+    /**
+     * Answers a request for the {@link Template} with the given id. If the player already holds the current {@link Template}
+     * only it's version is acknowledged, if it holds a recently replaced version a {@link TemplateDiff} is sent - as long as that is smaller than
+     * the {@link Template} itself.
+     *
+     * @param knownHash the {@link Template#getContentHash() content hash} of the {@link Template} the player holds, if any
+     */
+    public void sendUpdate(UUID id, ServerPlayerEntity player, OptionalLong knownHash) {
+        Template template = getSave().getTemplate(id);
+        int version = getSave().getVersion(id);
+        if (knownHash.isPresent()) {
+            if (knownHash.getAsLong() == template.getContentHash()) {
+                PacketHandler.sendTo(new PacketTemplateVersion(id, version, template.getContentHash(), template.getContentDigest()), player);
+                return;
+            }
+            Template base = supersededTemplates.getIfPresent(knownHash.getAsLong());
+            if (base != null) {
+                TemplateDiff diff = TemplateDiff.between(base, template);
+                if (diff.size() < template.size() / 2) {
+                    PacketHandler.getSplitManager().sendTo(new SplitPacketTemplateDiff(id, version, diff), player);
+                    return;
+                }
+            }
+        }
+        PacketHandler.getSplitManager().sendTo(new SplitPacketUpdateTemplate(id, template, version), player);
+    }
+
     public boolean requestUpdate(ITemplateKey key, ServerPlayerEntity playerEntity) {
         return requestUpdate(key, PacketDistributor.PLAYER.with(() -> playerEntity));
     }
@@ -0,0 +1,129 @@
+package com.direwolf20.buildinggadgets.common.save;
+
+import com.direwolf20.buildinggadgets.common.BuildingGadgets;
+import com.direwolf20.buildinggadgets.common.template.Template;
+import com.direwolf20.buildinggadgets.common.template.TemplateIO;
+import com.direwolf20.buildinggadgets.common.util.exceptions.TemplateReadException;
+import com.direwolf20.buildinggadgets.common.util.exceptions.TemplateWriteException;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Stores each distinct {@link Template} in it's own file, named after the key it is stored under (see {@link TemplateSave}). This
+ * way only modified {@link Template Templates} need to be written and {@link Template Templates} can be loaded on demand.
+ * <p>
+ * Older versions stored one file per {@link Template} id, these can still be read and deleted.
+ */
+final class TemplateFileStore {
+    private static final String EXTENSION = ".bgt";
+    private static final String TMP_EXTENSION = ".tmp";
+    private static final int KEY_LENGTH = 16;
+
+    private final File directory;
+
+    TemplateFileStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the {@link Template} stored for the given key or {@link Optional#empty()} if there is none, or it could not be read
+     */
+    Optional<Template> read(long key) {
+        return read(getFile(key));
+    }
+
+    Optional<Template> readLegacy(UUID id) {
+        return read(getLegacyFile(id));
+    }
+
+    /**
+     * Writes the given {@link Template} to a temporary file first, so that a crash whilst writing cannot corrupt the previously
+     * stored {@link Template}.
+     *
+     * @return the size of the written file in bytes
+     */
+    long write(long key, Template template) throws IOException, TemplateWriteException {
+        if (! directory.isDirectory() && ! directory.mkdirs())
+            throw new IOException("Failed to create Template directory " + directory + "!");
+        File file = getFile(key);
+        File tmp = new File(directory, toName(key) + TMP_EXTENSION);
+        try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(tmp))) {
+            TemplateIO.writeTemplate(template, stream, true);
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return file.length();
+    }
+
+    long size(long key) {
+        return getFile(key).length();
+    }
+
+    void delete(long key) {
+        delete(getFile(key));
+    }
+
+    void deleteLegacy(UUID id) {
+        delete(getLegacyFile(id));
+    }
+
+    /**
+     * @return the keys of all stored {@link Template Templates}, excluding those stored per id by older versions
+     */
+    LongSet listKeys() {
+        LongSet res = new LongOpenHashSet();
+        String[] names = directory.list();
+        if (names == null)
+            return res;
+        for (String name : names) {
+            if (name.length() != KEY_LENGTH + EXTENSION.length() || ! name.endsWith(EXTENSION))
+                continue;
+            try {
+                res.add(Long.parseUnsignedLong(name.substring(0, KEY_LENGTH), 16));
+            } catch (NumberFormatException e) {
+                BuildingGadgets.LOG.debug("Ignoring unknown file {} in the Template directory.", name);
+            }
+        }
+        return res;
+    }
+
+    private Optional<Template> read(File file) {
+        if (! file.isFile())
+            return Optional.empty();
+        try (InputStream stream = new BufferedInputStream(new FileInputStream(file))) {
+            return Optional.of(TemplateIO.readTemplate(stream, null, true));
+        } catch (IOException | TemplateReadException e) {
+            BuildingGadgets.LOG.error("Failed to read Template from {}.", file, e);
+            return Optional.empty();
+        }
+    }
+
+    private void delete(File file) {
+        if (file.exists() && ! file.delete())
+            BuildingGadgets.LOG.warn("Failed to delete Template file {}.", file);
+    }
+
+    private File getFile(long key) {
+        return new File(directory, toName(key) + EXTENSION);
+    }
+
+    private File getLegacyFile(UUID id) {
+        return new File(directory, id + EXTENSION);
+    }
+
+    private static String toName(long key) {
+        //fixed width, so that the names can't clash with the legacy UUID names
+        return String.format("%016x", key);
+    }
+}
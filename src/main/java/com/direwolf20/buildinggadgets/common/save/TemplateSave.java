@@ -1,89 +1,387 @@
 package com.direwolf20.buildinggadgets.common.save;
 
+import com.direwolf20.buildinggadgets.common.BuildingGadgets;
+import com.direwolf20.buildinggadgets.common.config.Config;
 import com.direwolf20.buildinggadgets.common.save.TemplateSave.TemplateInfo;
 import com.direwolf20.buildinggadgets.common.template.Template;
+import com.direwolf20.buildinggadgets.common.template.TemplateIO;
+import com.direwolf20.buildinggadgets.common.util.exceptions.TemplateReadException;
+import com.direwolf20.buildinggadgets.common.util.exceptions.TemplateWriteException;
 import com.direwolf20.buildinggadgets.common.util.ref.NBTKeys;
+import it.unimi.dsi.fastutil.longs.*;
 import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.util.SharedConstants;
+import net.minecraftforge.common.util.Constants.NBT;
 
-import java.util.UUID;
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.*;
 
+/**
+ * Keeps track of all {@link Template Templates} known to the Server. The save itself only stores the ids, update times, names and
+ * authors, the blocks are stored content addressed: each distinct set of blocks is stored once, in a file named after it's
+ * {@link Template#getBlockHash() hash} (see {@link TemplateFileStore}), and shared by all ids referencing it. This means that:
+ * <ul>
+ *     <li>only {@link Template Templates} modified since the last save are written</li>
+ *     <li>{@link Template Templates} held by multiple players are stored once - on disk and in memory</li>
+ *     <li>{@link Template Templates} are only loaded once they are requested</li>
+ *     <li>{@link Template Templates} which weren't used recently are unloaded, once the limits configured in {@link Config.CategoryGeneral}
+ *     are exceeded</li>
+ * </ul>
+ * Blocks are reference counted by the ids pointing to them and deleted once a save, which no longer references them, was written
+ * successfully. Files which aren't referenced by the loaded save (f.e. because the game crashed before the save was written)
+ * are deleted the same way.
+ * Saves which still contain the {@link Template Templates} themselves, or store them per id, are migrated on the next save.
+ */
 public final class TemplateSave extends TimedDataSave<TemplateInfo> {
+    private final TemplateFileStore fileStore;
+    //modified Templates are kept in memory until they are written, so they are never part of the cache
+    private final Map<UUID, Template> dirtyTemplates;
+    private final TemplateCache cache;
+    //not persisted, as the counts can be derived from the TemplateInfos
+    private final Long2IntOpenHashMap blobReferences;
+    //only deleted once the save no longer referencing them was written
+    private final LongSet orphanedBlobs;
 
-    public TemplateSave(String name) {
+    public TemplateSave(String name, File directory) {
         super(name);
+        this.fileStore = new TemplateFileStore(directory);
+        this.dirtyTemplates = new HashMap<>();
+        this.cache = new TemplateCache();
+        this.blobReferences = new Long2IntOpenHashMap();
+        this.orphanedBlobs = new LongOpenHashSet();
     }
 
     public Template getTemplate(UUID id) {
-        TemplateInfo info = get(id, uuid -> new TemplateInfo());
-        return markDirtyAndUpdate(info).getTemplate();
+        TemplateInfo info = getIfPresent(id);
+        if (info == null) { //an unknown id is allocated, which changes the save
+            get(id);
+            return new Template();
+        }
+        //reads only refresh the last use, which is written once it is stale enough to matter for retention
+        updateTime(id);
+        return loadTemplate(id, info);
+    }
+
+    /**
+     * @return the {@link Template} with the given id, or null if the id is unknown. In contrast to {@link #getTemplate(UUID)} this
+     *         neither allocates the id nor refreshes it's last use.
+     */
+    @Nullable
+    Template getTemplateIfPresent(UUID id) {
+        TemplateInfo info = getIfPresent(id);
+        return info != null ? loadTemplate(id, info) : null;
+    }
+
+    private Template loadTemplate(UUID id, TemplateInfo info) {
+        Template template = dirtyTemplates.get(id);
+        if (template != null)
+            return template;
+        if (! info.hasBlob) {
+            Optional<Template> legacy = fileStore.readLegacy(id);
+            if (! legacy.isPresent())
+                return new Template();
+            //stored per id by an older version, move it to the shared storage with the next save
+            dirtyTemplates.put(id, legacy.get());
+            markDirty();
+            return legacy.get();
+        }
+        //the returned Template shares the blocks with all other Templates referencing the same blob
+        return getBlob(info.blobKey)
+                .map(blob -> blob.withNameAndAuthor(info.name, info.author))
+                .orElseGet(Template::new);
+    }
+
+    /**
+     * @return the version of the {@link Template} with the given id, which is incremented on each {@link #setTemplate(UUID, Template)}
+     */
+    public int getVersion(UUID id) {
+        TemplateInfo info = getIfPresent(id);
+        return info != null ? info.version : 0;
     }
 
     void setTemplate(UUID id, Template template) {
-        markDirtyAndUpdate(get(id, uuid -> new TemplateInfo(template))).setTemplate(template);
+        updateTime(id).version++;
+        dirtyTemplates.put(id, template);
+        markDirty();
     }
 
     void removeTemplate(UUID id) {
+        onEvict(id);
         remove(id);
         markDirty();
     }
 
     @Override
-    protected TemplateInfo createValue() {
-        return new TemplateInfo();
+    protected RetentionPolicy getRetentionPolicy() {
+        return RetentionPolicy.of(Config.GENERAL.templateMaxAge.get(), Config.GENERAL.templateMaxCount.get(), Config.GENERAL.templateMaxSize.get());
     }
 
     @Override
-    protected TemplateInfo readValue(CompoundNBT nbt) {
-        return new TemplateInfo(nbt);
+    protected long estimateSize(UUID id, TemplateInfo info) {
+        if (! info.hasBlob)
+            return info.storedBytes;
+        //each id referencing a shared blob only accounts for it's share, so that the blob is counted once in total
+        return info.storedBytes / Math.max(1, blobReferences.get(info.blobKey));
     }
 
-    private TemplateInfo markDirtyAndUpdate(TemplateInfo info) {
-        markDirty();
-        return info.updateTime();
+    @Override
+    protected void onEvict(UUID id) {
+        dirtyTemplates.remove(id);
+        TemplateInfo info = getIfPresent(id);
+        if (info != null && info.hasBlob) {
+            releaseBlob(info.blobKey);
+            info.hasBlob = false;
+        }
+        fileStore.deleteLegacy(id);
     }
 
-    static final class TemplateInfo extends TimedDataSave.TimedValue { //for reasons I don't understand it doesn't compile if you leave the TimedDataSave out!
-        private Template template;
+    @Override
+    public void read(CompoundNBT nbt) {
+        super.read(nbt);
+        dirtyTemplates.clear();
+        cache.clear();
+        blobReferences.clear();
+        orphanedBlobs.clear();
+        forEachValue((id, info) -> {
+            if (info.hasBlob)
+                blobReferences.addTo(info.blobKey, 1);
+            if (info.legacyTemplate != null) {
+                dirtyTemplates.put(id, info.legacyTemplate);
+                info.legacyTemplate = null;
+            }
+        });
+        if (! dirtyTemplates.isEmpty()) {
+            BuildingGadgets.LOG.info("Migrating {} Templates to separate files on the next save.", dirtyTemplates.size());
+            markDirty();
+        }
+        LongIterator stored = fileStore.listKeys().iterator();
+        while (stored.hasNext()) {
+            long key = stored.nextLong();
+            if (! blobReferences.containsKey(key))
+                orphanedBlobs.add(key);
+        }
+        if (! orphanedBlobs.isEmpty()) {
+            BuildingGadgets.LOG.info("Deleting {} unreferenced Template files with the next save.", orphanedBlobs.size());
+            markDirty();
+        }
+    }
 
-        private TemplateInfo(CompoundNBT nbt) {
-            super(nbt);
-            template = Template.deserialize(nbt.getCompound(NBTKeys.KEY_DATA), null, true);
+    @Override
+    public CompoundNBT write(CompoundNBT compound) {
+        Iterator<Map.Entry<UUID, Template>> it = dirtyTemplates.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<UUID, Template> entry = it.next();
+            TemplateInfo info = getIfPresent(entry.getKey());
+            if (info == null) { //removed in the meantime
+                it.remove();
+                continue;
+            }
+            Template template = entry.getValue();
+            try {
+                long key = storeBlob(template);
+                //retain first, in case the Template didn't change
+                blobReferences.addTo(key, 1);
+                if (info.hasBlob)
+                    releaseBlob(info.blobKey);
+                info.hasBlob = true;
+                info.blobKey = key;
+                info.name = template.getHeader().getName();
+                info.author = template.getHeader().getAuthor();
+                info.storedBytes = fileStore.size(key);
+            } catch (IOException | TemplateWriteException e) {
+                //keep it in memory, it'll be retried with the next save
+                BuildingGadgets.LOG.error("Failed to write Template {}.", entry.getKey(), e);
+                continue;
+            }
+            it.remove();
+            fileStore.deleteLegacy(entry.getKey());
         }
+        return super.write(compound);
+    }
 
-        private TemplateInfo(Template template) {
-            super();
-            this.template = template;
+    /**
+     * Writes this save like {@link net.minecraft.world.storage.WorldSavedData#save(File)}, but only deletes orphaned blobs once the
+     * save was written - until then the previous save on disk may still reference them. A failed write is retried with the next save.
+     */
+    @Override
+    public void save(File file) {
+        if (! isDirty())
+            return;
+        CompoundNBT nbt = new CompoundNBT();
+        nbt.put("data", write(new CompoundNBT()));
+        nbt.putInt("DataVersion", SharedConstants.getVersion().getWorldVersion());
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            CompressedStreamTools.writeCompressed(nbt, stream);
+        } catch (IOException e) {
+            BuildingGadgets.LOG.error("Failed to write Template save {}, keeping orphaned Templates until the next save.", file, e);
+            return;
         }
+        setDirty(false);
+        deleteOrphanedBlobs();
+    }
 
-        private TemplateInfo(long lastUpdateTime, Template template) {
-            super(lastUpdateTime);
-            this.template = template;
+    private void deleteOrphanedBlobs() {
+        LongIterator orphans = orphanedBlobs.iterator();
+        while (orphans.hasNext()) {
+            long key = orphans.nextLong();
+            if (! blobReferences.containsKey(key)) {
+                cache.remove(key);
+                fileStore.delete(key);
+            }
         }
+        orphanedBlobs.clear();
+    }
 
-        private TemplateInfo() {
-            this(new Template());
+    /**
+     * Stores the blocks of the given {@link Template}, unless an equal blob is already stored.
+     *
+     * @return the key of the blob containing the blocks of the {@link Template}
+     */
+    private long storeBlob(Template template) throws IOException, TemplateWriteException {
+        Template blob = template.withNameAndAuthor(null, null).normalize();
+        long key = blob.getBlockHash();
+        //different blocks with the same hash are extremely unlikely, but possible - in that case probe the following keys
+        while (blobReferences.containsKey(key)) {
+            Optional<Template> existing = getBlob(key);
+            if (existing.isPresent() && existing.get().hasSameBlocks(blob))
+                return key;
+            key++;
+        }
+        fileStore.write(key, blob);
+        orphanedBlobs.remove(key);
+        cache.put(key, blob);
+        return key;
+    }
+
+    private Optional<Template> getBlob(long key) {
+        Template blob = cache.get(key);
+        if (blob == null) {
+            Optional<Template> read = fileStore.read(key);
+            read.ifPresent(template -> cache.put(key, template));
+            return read;
         }
+        return Optional.of(blob);
+    }
 
-        private Template getTemplate() {
-            return template;
+    private void releaseBlob(long key) {
+        int references = blobReferences.get(key);
+        if (references <= 1) { //only deleted on the next save, as it may be reused until then
+            blobReferences.remove(key);
+            orphanedBlobs.add(key);
+        } else
+            blobReferences.put(key, references - 1);
+    }
+
+    @Override
+    protected TemplateInfo createValue(UUID id) {
+        return new TemplateInfo();
+    }
+
+    @Override
+    protected TemplateInfo readValue(UUID id, CompoundNBT nbt) {
+        return new TemplateInfo(nbt);
+    }
+
+    static final class TemplateInfo extends TimedDataSave.TimedValue { //for reasons I don't understand it doesn't compile if you leave the TimedDataSave out!
+        //only present when reading saves, which still contain the Template itself
+        @Nullable
+        private Template legacyTemplate;
+        private long storedBytes;
+        private int version;
+        private boolean hasBlob;
+        private long blobKey;
+        @Nullable
+        private String name;
+        @Nullable
+        private String author;
+
+        private TemplateInfo(CompoundNBT nbt) {
+            super(nbt);
+            storedBytes = nbt.getLong(NBTKeys.WORLD_SAVE_SIZE);
+            version = nbt.getInt(NBTKeys.WORLD_SAVE_VERSION);
+            hasBlob = nbt.contains(NBTKeys.WORLD_SAVE_BLOB, NBT.TAG_LONG);
+            blobKey = nbt.getLong(NBTKeys.WORLD_SAVE_BLOB);
+            name = nbt.contains(NBTKeys.KEY_NAME, NBT.TAG_STRING) ? nbt.getString(NBTKeys.KEY_NAME) : null;
+            author = nbt.contains(NBTKeys.KEY_AUTHOR, NBT.TAG_STRING) ? nbt.getString(NBTKeys.KEY_AUTHOR) : null;
+            if (nbt.contains(NBTKeys.KEY_DATA, NBT.TAG_BYTE_ARRAY)) {
+                try {
+                    legacyTemplate = TemplateIO.readTemplate(new ByteArrayInputStream(nbt.getByteArray(NBTKeys.KEY_DATA)), null, true);
+                } catch (TemplateReadException e) {
+                    BuildingGadgets.LOG.error("Failed to read persisted Template, it will be replaced by an empty one!", e);
+                }
+            } else if (nbt.contains(NBTKeys.KEY_DATA, NBT.TAG_COMPOUND))
+                legacyTemplate = Template.deserialize(nbt.getCompound(NBTKeys.KEY_DATA), null, true);
         }
 
-        public TemplateInfo setTemplate(Template template) {
-            this.template = template;
-            return this;
+        private TemplateInfo() {
+            super();
         }
 
         @Override
-        public TemplateInfo updateTime() {
-            return (TemplateInfo) super.updateTime();
+        protected long estimateSize() {
+            return storedBytes;
         }
 
         @Override
         public CompoundNBT write() {
             CompoundNBT nbt = super.write();
-            nbt.put(NBTKeys.KEY_DATA, template.serialize(true));
+            nbt.putLong(NBTKeys.WORLD_SAVE_SIZE, storedBytes);
+            nbt.putInt(NBTKeys.WORLD_SAVE_VERSION, version);
+            if (hasBlob)
+                nbt.putLong(NBTKeys.WORLD_SAVE_BLOB, blobKey);
+            if (name != null)
+                nbt.putString(NBTKeys.KEY_NAME, name);
+            if (author != null)
+                nbt.putString(NBTKeys.KEY_AUTHOR, author);
             return nbt;
         }
     }
 
+    /**
+     * Least recently used cache of stored blobs, bounded by the amount of blobs and the amount of blocks they contain together.
+     */
+    private static final class TemplateCache {
+        private final LinkedHashMap<Long, Template> templates = new LinkedHashMap<>(16, 0.75f, true);
+        private long blocks = 0;
+
+        @Nullable
+        private Template get(long key) {
+            return templates.get(key);
+        }
+
+        private void put(long key, Template template) {
+            Template previous = templates.put(key, template);
+            if (previous != null)
+                blocks -= previous.size();
+            blocks += template.size();
+            evict();
+        }
+
+        private void remove(long key) {
+            Template removed = templates.remove(key);
+            if (removed != null)
+                blocks -= removed.size();
+        }
+
+        private void clear() {
+            templates.clear();
+            blocks = 0;
+        }
+
+        private void evict() {
+            int maxTemplates = Config.GENERAL.templateCacheSize.get();
+            long maxBlocks = Config.GENERAL.templateCacheBlocks.get();
+            Iterator<Template> it = templates.values().iterator();
+            //the most recently used Template is always kept, even if it exceeds the block limit on it's own
+            while (templates.size() > 1 && (templates.size() > maxTemplates || blocks > maxBlocks)) {
+                blocks -= it.next().size();
+                it.remove();
+            }
+        }
+    }
 }
@@ -12,17 +12,34 @@ import net.minecraft.network.PacketBuffer;
 import net.minecraft.world.storage.WorldSavedData;
 import net.minecraftforge.common.util.Constants.NBT;
 
+import javax.annotation.Nullable;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 
 public abstract class TimedDataSave<T extends TimedValue> extends WorldSavedData {
+    //upper bound for the work enforceRetention performs per call
+    private static final int EVICTIONS_PER_STEP = 16;
+    private static final int MEASUREMENTS_PER_STEP = 64;
+    //update times which are only this much behind aren't worth writing the save for
+    private static final long UPDATE_TIME_GRANULARITY = TimeUnit.MINUTES.toMillis(1);
+
     private Map<UUID, T> idToValue;
     private Long2ObjectSortedMap<Set<UUID>> timeToId;
+    //state of the incremental size measurement
+    @Nullable
+    private Iterator<UUID> measureCursor;
+    private long measuredBytes;
+    private long excessBytes;
 
     public TimedDataSave(String name) {
         super(name);
         this.idToValue = new HashMap<>();
         this.timeToId = new Long2ObjectRBTreeMap<>();
+        this.measureCursor = null;
+        this.measuredBytes = 0;
+        this.excessBytes = 0;
     }
 
     public UUID getFreeUUID() {
@@ -37,23 +54,116 @@ public abstract class TimedDataSave<T extends TimedValue> extends WorldSavedData
     }
 
     protected T get(UUID id) {
-        return get(id, uuid -> createValue());
+        return get(id, this::createValue);
     }
 
     protected T get(UUID id, Function<UUID, T> factory) {
         markDirty();
-        return idToValue.computeIfAbsent(id, factory);
+        return idToValue.computeIfAbsent(id, uuid -> {
+            T value = factory.apply(uuid);
+            index(uuid, value.getUpdateTime());
+            return value;
+        });
+    }
+
+    /**
+     * Sets the update time of the value for the given id (creating it, if absent) to the current time. Update times must only be
+     * changed through this method, as otherwise the index used for expiring values would not be updated.
+     * <p>
+     * The save is marked as dirty if a value had to be created, or if the stored time is stale by more than a minute - so that
+     * values which are only ever read don't expire after a restart, without writing the save on every single read.
+     */
+    protected T updateTime(UUID id) {
+        T value = idToValue.get(id);
+        if (value == null)
+            value = get(id);
+        long now = System.currentTimeMillis();
+        if (now - value.getUpdateTime() > UPDATE_TIME_GRANULARITY)
+            markDirty();
+        unIndex(id, value.getUpdateTime());
+        value.setUpdateTime(now);
+        index(id, value.getUpdateTime());
+        return value;
+    }
+
+    /**
+     * @return the value stored for the given id, or null if there is none. In contrast to {@link #get(UUID)} this neither creates
+     *         a value nor marks this save as dirty.
+     */
+    @Nullable
+    protected T getIfPresent(UUID id) {
+        return idToValue.get(id);
+    }
+
+    protected void forEachValue(BiConsumer<UUID, T> consumer) {
+        idToValue.forEach(consumer);
     }
 
     protected void remove(UUID id) {
         T val = idToValue.remove(id);
-        if (val != null) {
-            Set<UUID> set = timeToId.get(val.getUpdateTime());
-            if (! set.isEmpty()) {
-                set.remove(id);
-                if (set.isEmpty())
-                    timeToId.remove(val.getUpdateTime());
-            }
+        if (val != null)
+            unIndex(id, val.getUpdateTime());
+    }
+
+    /**
+     * Performs one step of enforcing the {@link #getRetentionPolicy() RetentionPolicy}, evicting the least recently updated values
+     * first. The amount of work per call is bounded, so that this can be called once per tick without the cost growing with
+     * the amount of stored values. The size of all values is measured incrementally across multiple calls.
+     *
+     * @param now the current time in milliseconds
+     */
+    public void enforceRetention(long now) {
+        RetentionPolicy policy = getRetentionPolicy();
+        if (policy.isUnlimited()) {
+            measureCursor = null;
+            excessBytes = 0;
+            return;
+        }
+        for (int i = 0; i < EVICTIONS_PER_STEP && ! timeToId.isEmpty(); i++) {
+            long oldest = timeToId.firstLongKey();
+            if (! policy.isExpired(oldest, now) && ! policy.exceedsEntries(idToValue.size()) && excessBytes <= 0)
+                break;
+            UUID id = timeToId.get(oldest).iterator().next();
+            excessBytes -= estimateSize(id, idToValue.get(id));
+            evict(id);
+        }
+        if (policy.limitsBytes())
+            measureStep(policy);
+    }
+
+    private void measureStep(RetentionPolicy policy) {
+        if (measureCursor == null) { //copy the ids, so that modifications between steps don't interfere
+            measureCursor = new ArrayList<>(idToValue.keySet()).iterator();
+            measuredBytes = 0;
+        }
+        for (int i = 0; i < MEASUREMENTS_PER_STEP && measureCursor.hasNext(); i++) {
+            UUID id = measureCursor.next();
+            T value = idToValue.get(id);
+            if (value != null)
+                measuredBytes += estimateSize(id, value);
+        }
+        if (! measureCursor.hasNext()) {
+            excessBytes = measuredBytes - policy.getMaxBytes();
+            measureCursor = null;
+        }
+    }
+
+    private void evict(UUID id) {
+        onEvict(id);
+        remove(id);
+        markDirty();
+    }
+
+    private void index(UUID id, long time) {
+        timeToId.computeIfAbsent(time, t -> new HashSet<>()).add(id);
+    }
+
+    private void unIndex(UUID id, long time) {
+        Set<UUID> set = timeToId.get(time);
+        if (set != null) {
+            set.remove(id);
+            if (set.isEmpty())
+                timeToId.remove(time);
         }
     }
 
@@ -71,11 +181,13 @@ public abstract class TimedDataSave<T extends TimedValue> extends WorldSavedData
         timeToId.clear();
         idToValue.clear();
         if (timeList instanceof ListNBT) {
-            NBTHelper.deserializeUUIDMap((ListNBT) timeList, idToValue, inbt -> readValue((CompoundNBT) inbt));
+            NBTHelper.deserializeUUIDMap((ListNBT) timeList, idToValue, (id, inbt) -> readValue(id, (CompoundNBT) inbt));
             for (Map.Entry<UUID, T> entry : idToValue.entrySet()) {
-                timeToId.computeIfAbsent(entry.getValue().getUpdateTime(), i -> new HashSet<>()).add(entry.getKey());
+                index(entry.getKey(), entry.getValue().getUpdateTime());
             }
         }
+        measureCursor = null;
+        excessBytes = 0;
     }
 
     @Override
@@ -85,9 +197,29 @@ public abstract class TimedDataSave<T extends TimedValue> extends WorldSavedData
         return compound;
     }
 
-    protected abstract T createValue();
+    /**
+     * @return the {@link RetentionPolicy} to enforce in {@link #enforceRetention(long)}. Unlimited by default.
+     */
+    protected RetentionPolicy getRetentionPolicy() {
+        return RetentionPolicy.UNLIMITED;
+    }
+
+    /**
+     * @return an estimate of how many bytes the value with the given id takes up when serialized. Defaults to
+     *         {@link TimedValue#estimateSize()}, saves whose values share storage should only account for each value's share.
+     */
+    protected long estimateSize(UUID id, T value) {
+        return value.estimateSize();
+    }
+
+    /**
+     * Called before the value with the given id is removed, because it violated the {@link #getRetentionPolicy() RetentionPolicy}.
+     */
+    protected void onEvict(UUID id) {}
 
-    protected abstract T readValue(CompoundNBT nbt);
+    protected abstract T createValue(UUID id);
+
+    protected abstract T readValue(UUID id, CompoundNBT nbt);
 
     public static class TimedValue {
         private long lastUpdateTime;
@@ -104,15 +236,21 @@ public abstract class TimedDataSave<T extends TimedValue> extends WorldSavedData
             this(System.currentTimeMillis());
         }
 
-        public TimedValue updateTime() {
-            lastUpdateTime = System.currentTimeMillis();
-            return this;
+        void setUpdateTime(long lastUpdateTime) {
+            this.lastUpdateTime = lastUpdateTime;
         }
 
         public long getUpdateTime() {
             return lastUpdateTime;
         }
 
+        /**
+         * @return an estimate of how many bytes this value takes up when serialized, used to enforce {@link RetentionPolicy#getMaxBytes()}
+         */
+        protected long estimateSize() {
+            return 0;
+        }
+
         public CompoundNBT write() {
             CompoundNBT nbt = new CompoundNBT();
             nbt.putLong(NBTKeys.WORLD_SAVE_TIME, lastUpdateTime);
@@ -18,10 +18,17 @@ import com.direwolf20.buildinggadgets.common.util.ref.NBTKeys;
 import com.direwolf20.buildinggadgets.common.util.tools.RegistryUtils;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.HashMultiset;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Multiset;
 import com.google.common.collect.Multiset.Entry;
 import com.google.common.collect.Multisets;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import net.minecraft.block.BlockState;
 import net.minecraft.nbt.*;
 import net.minecraft.tileentity.TileEntity;
@@ -32,17 +39,21 @@ import net.minecraft.world.IBlockReader;
 import net.minecraft.world.dimension.DimensionType;
 import net.minecraftforge.common.util.Constants.NBT;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.IntFunction;
 import java.util.function.ToIntFunction;
 
 public final class Undo {
+    private static final int AXIS_BITS = 21;
+    private static final long AXIS_MASK = (1L << AXIS_BITS) - 1;
+    //serialized size of one recorded position: the packed position and 4 palette indices
+    private static final int BYTES_PER_BLOCK = Long.BYTES + 4 * Integer.BYTES;
+
     static Undo deserialize(CompoundNBT nbt) {
         Preconditions.checkArgument(nbt.contains(NBTKeys.WORLD_SAVE_DIM, NBT.TAG_STRING)
                 && nbt.contains(NBTKeys.WORLD_SAVE_UNDO_ITEMS_SERIALIZER_LIST, NBT.TAG_LIST)
-                && nbt.contains(NBTKeys.WORLD_SAVE_UNDO_BLOCK_LIST, NBT.TAG_LIST)
+                && (nbt.contains(NBTKeys.WORLD_SAVE_UNDO_BLOCK_LIST, NBT.TAG_LIST) || nbt.contains(NBTKeys.WORLD_SAVE_UNDO_POSITIONS, NBT.TAG_LONG_ARRAY))
                 && nbt.contains(NBTKeys.WORLD_SAVE_UNDO_DATA_LIST, NBT.TAG_LIST)
                 && nbt.contains(NBTKeys.WORLD_SAVE_UNDO_DATA_SERIALIZER_LIST, NBT.TAG_LIST));
         DataDecompressor<ITileDataSerializer> serializerReverseObjectIncrementer = new DataDecompressor<>(
@@ -81,13 +92,51 @@ public final class Undo {
                 (ListNBT) nbt.get(NBTKeys.WORLD_SAVE_UNDO_ITEMS_LIST),
                 inbt -> NBTHelper.deserializeMultisetEntries((ListNBT) inbt, HashMultiset.create(), entry -> readEntry(entry, itemSerializerIncrementer)),
                 value -> HashMultiset.create());
-        Map<BlockPos, BlockInfo> map = NBTHelper.deserializeMap(
-                (ListNBT) nbt.get(NBTKeys.WORLD_SAVE_UNDO_BLOCK_LIST), new HashMap<>(),
-                inbt -> NBTUtil.readBlockPos((CompoundNBT) inbt),
-                inbt -> BlockInfo.deserialize((CompoundNBT) inbt, dataReverseObjectIncrementer, itemSetReverseObjectIncrementer));
         DimensionType dim = DimensionType.byName(new ResourceLocation(nbt.getString(NBTKeys.WORLD_SAVE_DIM)));
         Region bounds = Region.deserializeFrom(nbt.getCompound(NBTKeys.WORLD_SAVE_UNDO_BOUNDS));
-        return new Undo(dim, map, bounds);
+        if (nbt.contains(NBTKeys.WORLD_SAVE_UNDO_BLOCK_LIST, NBT.TAG_LIST)) //written before the columnar layout was introduced
+            return deserializeLegacy(nbt, dim, dataReverseObjectIncrementer, itemSetReverseObjectIncrementer);
+        long[] positions = nbt.getLongArray(NBTKeys.WORLD_SAVE_UNDO_POSITIONS);
+        int[] recordedData = nbt.getIntArray(NBTKeys.WORLD_SAVE_UNDO_RECORDED_DATA);
+        int[] placedData = nbt.getIntArray(NBTKeys.WORLD_SAVE_UNDO_PLACED_DATA);
+        int[] usedItems = nbt.getIntArray(NBTKeys.WORLD_SAVE_UNDO_ITEMS_USED);
+        int[] producedItems = nbt.getIntArray(NBTKeys.WORLD_SAVE_UNDO_ITEMS_PRODUCED);
+        Preconditions.checkArgument(recordedData.length == positions.length && placedData.length == positions.length
+                && usedItems.length == positions.length && producedItems.length == positions.length, "Undo columns differ in length!");
+        //resolve the palettes once, so that indices can be looked up directly
+        int dataCount = nbt.getList(NBTKeys.WORLD_SAVE_UNDO_DATA_LIST, NBT.TAG_COMPOUND).size();
+        int itemSetCount = nbt.getList(NBTKeys.WORLD_SAVE_UNDO_ITEMS_LIST, NBT.TAG_LIST).size();
+        BlockData[] dataPalette = new BlockData[dataCount];
+        for (int i = 0; i < dataCount; i++)
+            dataPalette[i] = dataReverseObjectIncrementer.apply(i);
+        List<Multiset<IUniqueObject<?>>> itemPalette = new ArrayList<>(itemSetCount);
+        for (int i = 0; i < itemSetCount; i++)
+            itemPalette.add(itemSetReverseObjectIncrementer.apply(i));
+        checkIndices(recordedData, dataPalette.length);
+        checkIndices(placedData, dataPalette.length);
+        checkIndices(usedItems, itemPalette.size());
+        checkIndices(producedItems, itemPalette.size());
+        return new Undo(dim, bounds, positions, recordedData, placedData, usedItems, producedItems, dataPalette, itemPalette);
+    }
+
+    private static Undo deserializeLegacy(CompoundNBT nbt, DimensionType dim, IntFunction<BlockData> dataPalette, IntFunction<Multiset<IUniqueObject<?>>> itemPalette) {
+        Builder builder = builder();
+        for (INBT inbt : nbt.getList(NBTKeys.WORLD_SAVE_UNDO_BLOCK_LIST, NBT.TAG_COMPOUND)) {
+            CompoundNBT entry = (CompoundNBT) inbt;
+            BlockPos pos = NBTUtil.readBlockPos(entry.getCompound(NBTKeys.MAP_SERIALIZE_KEY));
+            CompoundNBT info = entry.getCompound(NBTKeys.MAP_SERIALIZE_VALUE);
+            builder.record(pos,
+                    dataPalette.apply(info.getInt(NBTKeys.WORLD_SAVE_UNDO_RECORDED_DATA)),
+                    dataPalette.apply(info.getInt(NBTKeys.WORLD_SAVE_UNDO_PLACED_DATA)),
+                    itemPalette.apply(info.getInt(NBTKeys.WORLD_SAVE_UNDO_ITEMS_USED)),
+                    itemPalette.apply(info.getInt(NBTKeys.WORLD_SAVE_UNDO_ITEMS_PRODUCED)));
+        }
+        return builder.build(dim);
+    }
+
+    private static void checkIndices(int[] indices, int paletteSize) {
+        for (int index : indices)
+            Preconditions.checkArgument(index >= 0 && index < paletteSize, "Undo palette index %s is out of bounds!", index);
     }
 
     private static Tuple<IUniqueObject<?>, Integer> readEntry(INBT inbt, IntFunction<IUniqueObjectSerializer> serializerIntFunction) {
@@ -102,37 +151,89 @@ public final class Undo {
         return new Builder();
     }
 
-    private DimensionType dim;
-    private Map<BlockPos, BlockInfo> dataMap;
-    private Region boundingBox;
+    private final DimensionType dim;
+    private final Region boundingBox;
+    /*
+     * The recorded blocks are stored column wise: the i-th block is at positions[i] (packed relative to the bounding box's
+     * minimum) and the remaining columns contain indices into the palettes. This is both far smaller and far cheaper to
+     * serialize than one object per block.
+     */
+    private final long[] positions;
+    private final int[] recordedData;
+    private final int[] placedData;
+    private final int[] usedItems;
+    private final int[] producedItems;
+    private final BlockData[] dataPalette;
+    private final List<Multiset<IUniqueObject<?>>> itemPalette;
 
-    public Undo(DimensionType dim, Map<BlockPos, BlockInfo> dataMap, Region boundingBox) {
+    private Undo(DimensionType dim, Region boundingBox, long[] positions, int[] recordedData, int[] placedData, int[] usedItems,
+                 int[] producedItems, BlockData[] dataPalette, List<Multiset<IUniqueObject<?>>> itemPalette) {
         this.dim = dim;
-        this.dataMap = dataMap;
         this.boundingBox = boundingBox;
+        this.positions = positions;
+        this.recordedData = recordedData;
+        this.placedData = placedData;
+        this.usedItems = usedItems;
+        this.producedItems = producedItems;
+        this.dataPalette = dataPalette;
+        this.itemPalette = itemPalette;
     }
 
     public Region getBoundingBox() {
         return boundingBox;
     }
 
-    public Map<BlockPos, BlockInfo> getUndoData() {
-        return Collections.unmodifiableMap(dataMap);
+    /**
+     * @return the amount of recorded blocks
+     */
+    public int size() {
+        return positions.length;
+    }
+
+    /**
+     * @param index the index of the recorded block, in {@code [0, size())}
+     * @return the position of the recorded block
+     */
+    public BlockPos getPosition(int index) {
+        long packed = positions[index];
+        return new BlockPos(
+                boundingBox.getMinX() + (int) ((packed >>> (2 * AXIS_BITS)) & AXIS_MASK),
+                boundingBox.getMinY() + (int) ((packed >>> AXIS_BITS) & AXIS_MASK),
+                boundingBox.getMinZ() + (int) (packed & AXIS_MASK));
+    }
+
+    /**
+     * @param index the index of the recorded block, in {@code [0, size())}
+     * @return the information recorded for the block. A new (lightweight) instance is created for every call.
+     */
+    public BlockInfo getInfo(int index) {
+        return new BlockInfo(dataPalette[recordedData[index]], dataPalette[placedData[index]],
+                itemPalette.get(usedItems[index]), itemPalette.get(producedItems[index]));
+    }
+
+    /**
+     * @return an estimate of how many bytes this {@code Undo} takes up when serialized, not counting the palettes
+     */
+    long estimateSize() {
+        return (long) positions.length * BYTES_PER_BLOCK;
     }
 
     CompoundNBT serialize() {
-        DataCompressor<BlockData> dataObjectIncrementer = new DataCompressor<>();
         DataCompressor<IUniqueObjectSerializer> itemSerializerIncrementer = new DataCompressor<>();
-        DataCompressor<Multiset<IUniqueObject<?>>> itemObjectIncrementer = new DataCompressor<>();
         DataCompressor<ITileDataSerializer> serializerObjectIncrementer = new DataCompressor<>();
         CompoundNBT res = new CompoundNBT();
-        ListNBT infoList = NBTHelper.serializeMap(dataMap, NBTUtil::writeBlockPos, i -> i.serialize(dataObjectIncrementer, itemObjectIncrementer));
-        ListNBT dataList = dataObjectIncrementer.write(d -> d.serialize(serializerObjectIncrementer, true));
-        ListNBT itemSetList = itemObjectIncrementer.write(ms -> NBTHelper.writeIterable(ms.entrySet(), entry -> writeEntry(entry, itemSerializerIncrementer)));
+        ListNBT dataList = new ListNBT();
+        for (BlockData data : dataPalette)
+            dataList.add(data.serialize(serializerObjectIncrementer, true));
+        ListNBT itemSetList = NBTHelper.writeIterable(itemPalette, ms -> NBTHelper.writeIterable(ms.entrySet(), entry -> writeEntry(entry, itemSerializerIncrementer)));
         ListNBT dataSerializerList = serializerObjectIncrementer.write(ts -> new StringNBT(ts.getRegistryName().toString()));
         ListNBT itemSerializerList = itemSerializerIncrementer.write(s -> new StringNBT(s.getRegistryName().toString()));
         res.putString(NBTKeys.WORLD_SAVE_DIM, dim.getRegistryName().toString());
-        res.put(NBTKeys.WORLD_SAVE_UNDO_BLOCK_LIST, infoList);
+        res.putLongArray(NBTKeys.WORLD_SAVE_UNDO_POSITIONS, positions);
+        res.putIntArray(NBTKeys.WORLD_SAVE_UNDO_RECORDED_DATA, recordedData);
+        res.putIntArray(NBTKeys.WORLD_SAVE_UNDO_PLACED_DATA, placedData);
+        res.putIntArray(NBTKeys.WORLD_SAVE_UNDO_ITEMS_USED, usedItems);
+        res.putIntArray(NBTKeys.WORLD_SAVE_UNDO_ITEMS_PRODUCED, producedItems);
         res.put(NBTKeys.WORLD_SAVE_UNDO_DATA_LIST, dataList);
         res.put(NBTKeys.WORLD_SAVE_UNDO_DATA_SERIALIZER_LIST, dataSerializerList);
         res.put(NBTKeys.WORLD_SAVE_UNDO_ITEMS_LIST, itemSetList);
@@ -150,14 +251,6 @@ public final class Undo {
     }
 
     public static final class BlockInfo {
-        private static BlockInfo deserialize(CompoundNBT nbt, IntFunction<BlockData> dataSupplier, IntFunction<Multiset<IUniqueObject<?>>> itemSetSupplier) {
-            BlockData data = dataSupplier.apply(nbt.getInt(NBTKeys.WORLD_SAVE_UNDO_RECORDED_DATA));
-            BlockData placedData = dataSupplier.apply(nbt.getInt(NBTKeys.WORLD_SAVE_UNDO_PLACED_DATA));
-            Multiset<IUniqueObject<?>> usedItems = itemSetSupplier.apply(nbt.getInt(NBTKeys.WORLD_SAVE_UNDO_ITEMS_USED));
-            Multiset<IUniqueObject<?>> producedItems = itemSetSupplier.apply(nbt.getInt(NBTKeys.WORLD_SAVE_UNDO_ITEMS_PRODUCED));
-            return new BlockInfo(data, placedData, usedItems, producedItems);
-        }
-
         private final BlockData recordedData;
         private final BlockData placedData;
         private final Multiset<IUniqueObject<?>> usedItems;
@@ -170,15 +263,6 @@ public final class Undo {
             this.producedItems = producedItems;
         }
 
-        private CompoundNBT serialize(ToIntFunction<BlockData> dataIdSupplier, ToIntFunction<Multiset<IUniqueObject<?>>> itemIdSupplier) {
-            CompoundNBT res = new CompoundNBT();
-            res.putInt(NBTKeys.WORLD_SAVE_UNDO_RECORDED_DATA, dataIdSupplier.applyAsInt(recordedData));
-            res.putInt(NBTKeys.WORLD_SAVE_UNDO_PLACED_DATA, dataIdSupplier.applyAsInt(placedData));
-            res.putInt(NBTKeys.WORLD_SAVE_UNDO_ITEMS_USED, itemIdSupplier.applyAsInt(usedItems));
-            res.putInt(NBTKeys.WORLD_SAVE_UNDO_ITEMS_PRODUCED, itemIdSupplier.applyAsInt(producedItems));
-            return res;
-        }
-
         public BlockData getRecordedData() {
             return recordedData;
         }
@@ -197,14 +281,38 @@ public final class Undo {
     }
 
     public static final class Builder {
-        private final ImmutableMap.Builder<BlockPos, BlockInfo> mapBuilder;
+        //absolute positions, which are packed relative to the bounding box once it is known
+        private final LongList positions;
+        private final LongSet recordedPositions;
+        private final IntList recordedData;
+        private final IntList placedData;
+        private final IntList usedItems;
+        private final IntList producedItems;
+        private final Object2IntMap<BlockData> dataIds;
+        private final List<BlockData> dataPalette;
+        private final Object2IntMap<Multiset<IUniqueObject<?>>> itemIds;
+        private final List<Multiset<IUniqueObject<?>>> itemPalette;
         private Region.Builder regionBuilder;
 
         private Builder() {
-            mapBuilder = ImmutableMap.builder();
+            positions = new LongArrayList();
+            recordedPositions = new LongOpenHashSet();
+            recordedData = new IntArrayList();
+            placedData = new IntArrayList();
+            usedItems = new IntArrayList();
+            producedItems = new IntArrayList();
+            dataIds = new Object2IntOpenHashMap<>();
+            dataPalette = new ArrayList<>();
+            itemIds = new Object2IntOpenHashMap<>();
+            itemPalette = new ArrayList<>();
             regionBuilder = null;
         }
 
+        /**
+         * Records the block currently at the given position, to be restored by the resulting {@link Undo}.
+         *
+         * @throws IllegalArgumentException if the position was already recorded
+         */
         public Builder record(IBlockReader reader, BlockPos pos, BlockData placeData, Multiset<IUniqueObject<?>> requiredItems, Multiset<IUniqueObject<?>> producedItems) {
             BlockState state = reader.getBlockState(pos);
             TileEntity te = reader.getTileEntity(pos);
@@ -213,15 +321,35 @@ public final class Undo {
         }
 
         private Builder record(BlockPos pos, BlockData recordedData, BlockData placedData, Multiset<IUniqueObject<?>> requiredItems, Multiset<IUniqueObject<?>> producedItems) {
-            mapBuilder.put(pos, new BlockInfo(recordedData, placedData, requiredItems, producedItems));
+            long packed = pos.toLong();
+            Preconditions.checkArgument(recordedPositions.add(packed), "Position %s was already recorded!", pos);
+            positions.add(packed);
+            this.recordedData.add(dataIds.computeIntIfAbsent(recordedData, d -> addTo(dataPalette, d)));
+            this.placedData.add(dataIds.computeIntIfAbsent(placedData, d -> addTo(dataPalette, d)));
+            usedItems.add(itemIds.computeIntIfAbsent(requiredItems, ms -> addTo(itemPalette, ms)));
+            this.producedItems.add(itemIds.computeIntIfAbsent(producedItems, ms -> addTo(itemPalette, ms)));
             if (regionBuilder == null)
                 regionBuilder = Region.enclosingBuilder();
             regionBuilder.enclose(pos);
             return this;
         }
 
+        private static <T> int addTo(List<T> palette, T value) {
+            palette.add(value);
+            return palette.size() - 1;
+        }
+
         public Undo build(DimensionType dim) {
-            return new Undo(dim, mapBuilder.build(), regionBuilder != null ? regionBuilder.build() : Region.singleZero());
+            Region bounds = regionBuilder != null ? regionBuilder.build() : Region.singleZero();
+            long[] packed = new long[positions.size()];
+            for (int i = 0; i < packed.length; i++) {
+                BlockPos pos = BlockPos.fromLong(positions.getLong(i));
+                packed[i] = ((long) (pos.getX() - bounds.getMinX()) << (2 * AXIS_BITS))
+                        | ((long) (pos.getY() - bounds.getMinY()) << AXIS_BITS)
+                        | (pos.getZ() - bounds.getMinZ());
+            }
+            return new Undo(dim, bounds, packed, recordedData.toIntArray(), placedData.toIntArray(), usedItems.toIntArray(),
+                    producedItems.toIntArray(), dataPalette.toArray(new BlockData[0]), new ArrayList<>(itemPalette));
         }
     }
 }
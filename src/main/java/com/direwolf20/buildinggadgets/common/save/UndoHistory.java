@@ -1,60 +1,412 @@
 package com.direwolf20.buildinggadgets.common.save;
 
+import com.direwolf20.buildinggadgets.common.BuildingGadgets;
+import com.direwolf20.buildinggadgets.common.concurrent.BackgroundExecutor;
 import com.direwolf20.buildinggadgets.common.util.helpers.NBTHelper;
 import com.direwolf20.buildinggadgets.common.util.ref.NBTKeys;
 import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.nbt.INBT;
 import net.minecraft.nbt.ListNBT;
+import net.minecraftforge.common.util.Constants.NBT;
 
-import java.util.Deque;
-import java.util.LinkedList;
+import javax.annotation.Nullable;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.IntSupplier;
+import java.util.zip.CRC32;
 
+/**
+ * The undo history of a single gadget. Only the most recent {@link Undo Undos} are kept in memory, all older ones are appended to
+ * a spill file as compressed nbt and only read back once they are popped by {@link #get()}. The file is used like a stack:
+ * popping an {@link Undo} only moves the end of the file back, so that the next spilled {@link Undo} overwrites it.
+ * <p>
+ * {@link Undo Undos} are serialized on the Server thread as soon as they are pushed down from the head, as serializing them
+ * accesses registries and tile data. Compressing and writing them happens in batches on the {@link BackgroundExecutor}, with at
+ * most one batch in flight. Until a batch was written it's {@link Undo Undos} remain pending, and saving the history stores
+ * pending {@link Undo Undos} as nbt instead of waiting for the file. As the offsets of the records are only persisted with the
+ * save, each record's checksum is persisted alongside it's offset: records which were overwritten after the last save (f.e.
+ * because the Server crashed) are detected and dropped, instead of being applied as the wrong {@link Undo}.
+ * <p>
+ * The file is only accessed on the Server thread whilst no batch is in flight.
+ */
 final class UndoHistory {
-    private final Deque<Undo> history;
+    //the file is compacted, once dropped Undos take up at least this many bytes at it's start and outweigh the live ones
+    private static final long COMPACT_THRESHOLD = 64 * 1024;
+    private static final int COPY_BUFFER_SIZE = 8192;
+    //amount of compressed Undos which are kept in memory, before they are written to the spill file
+    private static final int SPILL_BATCH_SIZE = 8;
+
     private final IntSupplier maxLengthSupplier;
+    private final File spillFile;
+    //null only if nothing is pending or spilled either
+    @Nullable
+    private Undo head;
+    //Undos which are older than the head, but not yet written. Oldest first, all of them are newer than the spilled ones.
+    //The first inFlightCount of them are being written by inFlight.
+    private final List<PendingSpill> pending;
+    @Nullable
+    private CompletableFuture<SpilledBatch> inFlight;
+    private int inFlightCount;
+    //leading records of the batch in flight, which were dropped from the history in the meantime
+    private int inFlightDropped;
+    //start offsets and checksums of the spilled Undos, oldest first. Each one ends where the next one starts and the last one at spillEnd.
+    private final LongArrayList offsets;
+    private final IntArrayList checksums;
+    private long spillEnd;
 
-    UndoHistory(IntSupplier maxLengthSupplier) {
+    UndoHistory(IntSupplier maxLengthSupplier, File spillFile) {
         this.maxLengthSupplier = Objects.requireNonNull(maxLengthSupplier);
-        this.history = new LinkedList<>();
+        this.spillFile = Objects.requireNonNull(spillFile);
+        this.head = null;
+        this.pending = new ArrayList<>();
+        this.inFlight = null;
+        this.inFlightCount = 0;
+        this.inFlightDropped = 0;
+        this.offsets = new LongArrayList();
+        this.checksums = new IntArrayList();
+        this.spillEnd = 0;
     }
 
     UndoHistory add(Undo undo) {
-        history.addFirst(undo);
+        completeSpill();
+        if (head != null)
+            pending.add(new PendingSpill(head, head.serialize()));
+        head = undo;
         ensureSize();
+        if (inFlight == null && pending.size() >= SPILL_BATCH_SIZE)
+            spill();
         return this;
     }
 
     Optional<Undo> get() {
+        completeSpill();
         ensureSize();
-        return Optional.ofNullable(history.pollFirst());
+        Undo res = head;
+        //Undos still being written can only be popped once they are in the file
+        if (pending.size() <= inFlightCount)
+            awaitSpill();
+        head = ! pending.isEmpty() ? pending.remove(pending.size() - 1).undo : unSpill();
+        return Optional.ofNullable(res);
     }
 
     Optional<Undo> peek() {
+        completeSpill();
         ensureSize();
-        return Optional.ofNullable(history.peekFirst());
+        return Optional.ofNullable(head);
+    }
+
+    /**
+     * @return the size of the resident {@link Undo Undos} plus the amount of bytes the spilled ones take up on disk
+     */
+    long estimateSize() {
+        long size = head != null ? head.estimateSize() : 0;
+        for (PendingSpill spill : pending)
+            size += spill.undo.estimateSize();
+        if (! offsets.isEmpty())
+            size += spillEnd - offsets.getLong(0);
+        return size;
+    }
+
+    /**
+     * Clears this history including the spill file.
+     */
+    void delete() {
+        awaitSpill();
+        head = null;
+        pending.clear();
+        clearSpillFile();
     }
 
     void read(CompoundNBT nbt) {
-        this.history.clear();
-        INBT list = nbt.get(NBTKeys.WORLD_SAVE_UNDO_HISTORY);
-        if (list instanceof ListNBT) {
-            NBTHelper.deserializeCollection((ListNBT) list, history, inbt -> Undo.deserialize((CompoundNBT) inbt));
-            ensureSize();
+        awaitSpill();
+        head = null;
+        pending.clear();
+        offsets.clear();
+        checksums.clear();
+        spillEnd = 0;
+        if (nbt.contains(NBTKeys.WORLD_SAVE_UNDO_HEAD, NBT.TAG_COMPOUND)) {
+            head = Undo.deserialize(nbt.getCompound(NBTKeys.WORLD_SAVE_UNDO_HEAD));
+            readSpilled(nbt.getLongArray(NBTKeys.WORLD_SAVE_UNDO_SPILL_OFFSETS), nbt.getIntArray(NBTKeys.WORLD_SAVE_UNDO_SPILL_CHECKSUMS),
+                    nbt.getLong(NBTKeys.WORLD_SAVE_UNDO_SPILL_END));
+            for (INBT inbt : nbt.getList(NBTKeys.WORLD_SAVE_UNDO_PENDING, NBT.TAG_COMPOUND)) {
+                CompoundNBT undoNBT = (CompoundNBT) inbt;
+                pending.add(new PendingSpill(Undo.deserialize(undoNBT), undoNBT));
+            }
+        } else {
+            clearSpillFile();
+            INBT list = nbt.get(NBTKeys.WORLD_SAVE_UNDO_HISTORY);
+            if (list instanceof ListNBT) { //legacy saves contain the whole history, newest first
+                List<Undo> history = NBTHelper.deserializeCollection((ListNBT) list, new ArrayList<>(), inbt -> Undo.deserialize((CompoundNBT) inbt));
+                int length = Math.min(history.size(), Math.max(0, maxLengthSupplier.getAsInt()));
+                for (int i = 0; i < length; i++)
+                    add(history.get(length - 1 - i));
+            }
         }
+        ensureSize();
     }
 
     public void write(CompoundNBT nbt) {
-        nbt.put(NBTKeys.WORLD_SAVE_UNDO_HISTORY, NBTHelper.writeIterable(history, Undo::serialize));
+        //the offsets written here only describe the records known to be in the file, everything else is saved as nbt
+        completeSpill();
+        if (head != null)
+            nbt.put(NBTKeys.WORLD_SAVE_UNDO_HEAD, head.serialize());
+        nbt.putLongArray(NBTKeys.WORLD_SAVE_UNDO_SPILL_OFFSETS, offsets.toLongArray());
+        nbt.putIntArray(NBTKeys.WORLD_SAVE_UNDO_SPILL_CHECKSUMS, checksums.toIntArray());
+        nbt.putLong(NBTKeys.WORLD_SAVE_UNDO_SPILL_END, spillEnd);
+        ListNBT pendingList = new ListNBT();
+        for (PendingSpill spill : pending) //the serialized nbt may still be read by the compression, so it mustn't be shared
+            pendingList.add(spill.nbt.copy());
+        nbt.put(NBTKeys.WORLD_SAVE_UNDO_PENDING, pendingList);
+    }
+
+    private void readSpilled(long[] savedOffsets, int[] savedChecksums, long savedEnd) {
+        //records without a checksum can't be verified, so they are dropped
+        if (savedChecksums.length != savedOffsets.length) {
+            clearSpillFile();
+            return;
+        }
+        //the file may have changed since the save was written (f.e. after a crash) - only keep the records which are still in range,
+        //records which were overwritten in range are detected by their checksum once they are read
+        long limit = Math.min(savedEnd, spillFile.length());
+        for (int i = 0; i < savedOffsets.length; i++) {
+            long start = savedOffsets[i];
+            long end = i + 1 < savedOffsets.length ? savedOffsets[i + 1] : savedEnd;
+            if (start < spillEnd || end <= start || end > limit)
+                break;
+            offsets.add(start);
+            checksums.add(savedChecksums[i]);
+            spillEnd = end;
+        }
+        if (offsets.isEmpty())
+            clearSpillFile();
+    }
+
+    /**
+     * Starts compressing and writing all pending {@link Undo Undos} on the {@link BackgroundExecutor}. They remain pending until
+     * {@link #completeSpill()} finds the batch written.
+     */
+    private void spill() {
+        List<PendingSpill> batch = new ArrayList<>(pending);
+        long start = spillEnd;
+        CompletableFuture<?>[] compressed = batch.stream().map(spill -> spill.compressed).toArray(CompletableFuture[]::new);
+        inFlight = CompletableFuture.allOf(compressed).handleAsync((v, ex) -> writeBatch(batch, start), BackgroundExecutor.INSTANCE);
+        inFlightCount = batch.size();
+        inFlightDropped = 0;
+    }
+
+    private SpilledBatch writeBatch(List<PendingSpill> batch, long start) {
+        long[] starts = new long[batch.size()];
+        int[] recordChecksums = new int[batch.size()];
+        long end = start;
+        Arrays.fill(starts, - 1);
+        try {
+            File directory = spillFile.getParentFile();
+            if (directory != null && ! directory.isDirectory() && ! directory.mkdirs())
+                throw new IOException("Failed to create Undo directory " + directory + "!");
+            try (RandomAccessFile file = new RandomAccessFile(spillFile, "rw")) {
+                file.seek(start);
+                for (int i = 0; i < batch.size(); i++) {
+                    byte[] bytes;
+                    try {
+                        bytes = batch.get(i).compressed.join();
+                    } catch (CompletionException e) {
+                        BuildingGadgets.LOG.error("Failed to compress Undo for {}, it will be dropped from the history!", spillFile, e.getCause());
+                        continue;
+                    }
+                    file.write(bytes);
+                    starts[i] = end;
+                    recordChecksums[i] = checksum(bytes);
+                    end += bytes.length;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            BuildingGadgets.LOG.error("Failed to spill Undos to {}, they will be dropped from the history!", spillFile, e);
+        }
+        return new SpilledBatch(starts, recordChecksums, end);
+    }
+
+    /**
+     * Records the batch in flight as spilled, if it was written.
+     */
+    private void completeSpill() {
+        if (inFlight == null || ! inFlight.isDone())
+            return;
+        SpilledBatch batch = inFlight.join();
+        inFlight = null;
+        //dropped records only occur before all live ones, so they just become dead bytes at the start of the file
+        for (int i = inFlightDropped; i < batch.starts.length; i++) {
+            if (batch.starts[i] >= 0) {
+                offsets.add(batch.starts[i]);
+                checksums.add(batch.checksums[i]);
+            }
+        }
+        spillEnd = batch.end;
+        pending.subList(0, inFlightCount).clear();
+        inFlightCount = 0;
+        inFlightDropped = 0;
+        trimSpillFile();
+    }
+
+    /**
+     * Waits for the batch in flight, before the file is accessed on this thread.
+     */
+    private void awaitSpill() {
+        if (inFlight == null)
+            return;
+        inFlight.join(); //never completes exceptionally, failures are logged by writeBatch
+        completeSpill();
+    }
+
+    @Nullable
+    private Undo unSpill() {
+        while (! offsets.isEmpty()) {
+            long start = offsets.removeLong(offsets.size() - 1);
+            int checksum = checksums.removeInt(checksums.size() - 1);
+            long end = spillEnd;
+            spillEnd = start;
+            try (RandomAccessFile file = new RandomAccessFile(spillFile, "r")) {
+                byte[] bytes = new byte[Math.toIntExact(end - start)];
+                file.seek(start);
+                file.readFully(bytes);
+                if (checksum(bytes) != checksum)
+                    throw new IOException("Checksum mismatch, the record was overwritten!");
+                Undo undo = Undo.deserialize(CompressedStreamTools.readCompressed(new ByteArrayInputStream(bytes)));
+                if (offsets.isEmpty())
+                    clearSpillFile();
+                return undo;
+            } catch (IOException | RuntimeException e) {
+                BuildingGadgets.LOG.error("Failed to read spilled Undo from {}, skipping it!", spillFile, e);
+            }
+        }
+        clearSpillFile();
+        return null;
     }
 
     private void ensureSize() {
         int maxLength = maxLengthSupplier.getAsInt();
         Preconditions.checkArgument(maxLength >= 0, "Cannot have a negative max History Length!!!");
-        while (history.size() > maxLength) //max-length is non-negative => this always terminates
-            history.pollLast();
+        if (maxLength == 0) {
+            delete();
+            return;
+        }
+        //the head is never null whilst something is pending or spilled, so only those need to be dropped - oldest first
+        int excess = offsets.size() + pending.size() + 1 - maxLength;
+        if (excess <= 0)
+            return;
+        int spilledExcess = Math.min(excess, offsets.size());
+        if (spilledExcess > 0) {
+            offsets.removeElements(0, spilledExcess);
+            checksums.removeElements(0, spilledExcess);
+            trimSpillFile();
+        }
+        int pendingExcess = excess - spilledExcess;
+        if (pendingExcess > 0) {
+            int droppedInFlight = Math.min(pendingExcess, inFlightCount);
+            inFlightCount -= droppedInFlight;
+            inFlightDropped += droppedInFlight;
+            pending.subList(0, pendingExcess).clear();
+        }
+    }
+
+    /**
+     * Deletes or compacts the file after records were dropped from it. Deferred while a batch is in flight, as it is written to the
+     * current end of the file.
+     */
+    private void trimSpillFile() {
+        if (inFlight != null)
+            return;
+        if (offsets.isEmpty())
+            clearSpillFile();
+        else
+            compact();
+    }
+
+    /**
+     * Moves the live records to the start of the file, if the dropped ones take up too much space. As the dropped region is
+     * at least as large as the live region, the copy never overwrites a live record - a failure leaves the file usable.
+     */
+    private void compact() {
+        long deadBytes = offsets.getLong(0);
+        long liveBytes = spillEnd - deadBytes;
+        if (deadBytes < COMPACT_THRESHOLD || deadBytes < liveBytes)
+            return;
+        try (RandomAccessFile file = new RandomAccessFile(spillFile, "rw")) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            for (long copied = 0; copied < liveBytes; ) {
+                int length = (int) Math.min(buffer.length, liveBytes - copied);
+                file.seek(deadBytes + copied);
+                file.readFully(buffer, 0, length);
+                file.seek(copied);
+                file.write(buffer, 0, length);
+                copied += length;
+            }
+            file.setLength(liveBytes);
+        } catch (IOException e) {
+            BuildingGadgets.LOG.warn("Failed to compact Undo file {}.", spillFile, e);
+            return;
+        }
+        for (int i = 0; i < offsets.size(); i++)
+            offsets.set(i, offsets.getLong(i) - deadBytes);
+        spillEnd = liveBytes;
+    }
+
+    private void clearSpillFile() {
+        offsets.clear();
+        checksums.clear();
+        spillEnd = 0;
+        if (spillFile.exists() && ! spillFile.delete())
+            BuildingGadgets.LOG.warn("Failed to delete Undo file {}.", spillFile);
+    }
+
+    private static int checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] compress(CompoundNBT nbt) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            CompressedStreamTools.writeCompressed(nbt, bytes);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static final class PendingSpill {
+        private final Undo undo;
+        //serialized on the Server thread and never modified afterwards, so that it can be compressed in the background
+        private final CompoundNBT nbt;
+        private final CompletableFuture<byte[]> compressed;
+
+        private PendingSpill(Undo undo, CompoundNBT nbt) {
+            this.undo = undo;
+            this.nbt = nbt;
+            this.compressed = CompletableFuture.supplyAsync(() -> compress(nbt), BackgroundExecutor.INSTANCE);
+        }
+    }
+
+    private static final class SpilledBatch {
+        //start offsets of the written records, -1 for records which couldn't be written
+        private final long[] starts;
+        private final int[] checksums;
+        private final long end;
+
+        private SpilledBatch(long[] starts, int[] checksums, long end) {
+            this.starts = starts;
+            this.checksums = checksums;
+            this.end = end;
+        }
     }
 }
@@ -1,19 +1,29 @@
 package com.direwolf20.buildinggadgets.common.save;
 
+import com.direwolf20.buildinggadgets.common.config.Config;
 import com.direwolf20.buildinggadgets.common.save.UndoWorldSave.UndoValue;
 import net.minecraft.nbt.CompoundNBT;
 
+import java.io.File;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.function.IntSupplier;
 
+/**
+ * Keeps track of the {@link UndoHistory} of each gadget. Only the most recent {@link Undo Undos} of each history are kept in memory
+ * and in this save, older ones are spilled to one file per gadget in the given directory.
+ */
 public class UndoWorldSave extends TimedDataSave<UndoValue> {
+    private static final String EXTENSION = ".undo";
+
     private final IntSupplier undoMaxLength;
+    private final File directory;
 
-    public UndoWorldSave(String name, IntSupplier undoMaxLength) {
+    public UndoWorldSave(String name, IntSupplier undoMaxLength, File directory) {
         super(name);
         this.undoMaxLength = Objects.requireNonNull(undoMaxLength);
+        this.directory = Objects.requireNonNull(directory);
     }
 
     public void insertUndo(UUID uuid, Undo undo) {
@@ -30,43 +40,64 @@ public class UndoWorldSave extends TimedDataSave<UndoValue> {
     }
 
     public void removeHistory(UUID uuid) {
+        onEvict(uuid);
         remove(uuid);
     }
 
     private UndoValue getAndUpdateTime(UUID uuid) {
-        UndoValue val = get(uuid);
-        val.updateTime();
-        return val;
+        markDirty();
+        return updateTime(uuid);
+    }
+
+    @Override
+    protected RetentionPolicy getRetentionPolicy() {
+        return RetentionPolicy.of(Config.GENERAL.undoMaxAge.get(), Config.GENERAL.undoMaxCount.get(), Config.GENERAL.undoMaxSize.get());
+    }
+
+    @Override
+    protected void onEvict(UUID id) {
+        UndoValue value = getIfPresent(id);
+        if (value != null)
+            value.getHistory().delete();
     }
 
     @Override
-    protected UndoValue createValue() {
-        return new UndoValue(undoMaxLength);
+    protected UndoValue createValue(UUID id) {
+        return new UndoValue(undoMaxLength, getSpillFile(id));
     }
 
     @Override
-    protected UndoValue readValue(CompoundNBT nbt) {
-        return new UndoValue(nbt, undoMaxLength);
+    protected UndoValue readValue(UUID id, CompoundNBT nbt) {
+        return new UndoValue(nbt, undoMaxLength, getSpillFile(id));
+    }
+
+    private File getSpillFile(UUID id) {
+        return new File(directory, id + EXTENSION);
     }
 
     static final class UndoValue extends TimedDataSave.TimedValue { //for reasons I don't understand it doesn't compile if you leave the TimedDataSave out!
         private final UndoHistory history;
 
-        private UndoValue(CompoundNBT nbt, IntSupplier supplier) {
+        private UndoValue(CompoundNBT nbt, IntSupplier supplier, File spillFile) {
             super(nbt);
-            this.history = new UndoHistory(supplier);
+            this.history = new UndoHistory(supplier, spillFile);
             history.read(nbt);
         }
 
-        private UndoValue(IntSupplier maxLength) {
+        private UndoValue(IntSupplier maxLength, File spillFile) {
             super();
-            this.history = new UndoHistory(maxLength);
+            this.history = new UndoHistory(maxLength, spillFile);
         }
 
         private UndoHistory getHistory() {
             return history;
         }
 
+        @Override
+        protected long estimateSize() {
+            return history.estimateSize();
+        }
+
         @Override
         public CompoundNBT write() {
             CompoundNBT nbt = super.write();
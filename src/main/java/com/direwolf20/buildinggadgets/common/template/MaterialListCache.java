@@ -0,0 +1,180 @@
+package com.direwolf20.buildinggadgets.common.template;
+
+import com.direwolf20.buildinggadgets.common.building.PlacementTarget;
+import com.direwolf20.buildinggadgets.common.building.view.IBuildContext;
+import com.direwolf20.buildinggadgets.common.inventory.materials.MaterialList;
+import com.direwolf20.buildinggadgets.common.util.CommonUtils;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import net.minecraft.util.math.Vec3d;
+import net.minecraftforge.fml.LogicalSide;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the estimated {@link MaterialList MaterialLists} of {@link Template Templates} by a SHA-256 digest of their untransformed
+ * blocks (see {@link Template#getMaterials(IBuildContext)}), so that they are only estimated once for equal blocks - no matter how
+ * often a {@link Template} is rotated, mirrored, renamed or received again. Each {@link LogicalSide} has it's own entries, as the
+ * estimation depends on the world it was evaluated in.
+ * <p>
+ * Estimating the materials places every block of a {@link Template} into a fake world backed by the real one, which is why it may
+ * only happen on the thread owning that world. Estimations are therefore queued per {@link LogicalSide} and advanced by
+ * {@link #tick(LogicalSide)} for a bounded amount of time per tick, whilst only the digest is computed in the background.
+ */
+public enum MaterialListCache {
+    INSTANCE;
+    private static final long MAX_NANOS_PER_TICK = TimeUnit.MILLISECONDS.toNanos(2);
+
+    private final Cache<Key, CompletableFuture<MaterialList>> cache = CacheBuilder.newBuilder()
+            .maximumSize(64)
+            .expireAfterAccess(5, TimeUnit.MINUTES)
+            .build();
+    private final Map<LogicalSide, Queue<Estimation>> estimations;
+
+    MaterialListCache() {
+        estimations = new EnumMap<>(LogicalSide.class);
+        for (LogicalSide side : LogicalSide.values())
+            estimations.put(side, new ConcurrentLinkedQueue<>());
+    }
+
+    /**
+     * @param digest      a future completing with the digest of the blocks to estimate the materials for, which may be computed on any thread
+     * @param view        the blocks to estimate the materials for, only iterated whilst the side owning the context's world ticks
+     * @param simulatePos the position to simulate placing the blocks from, if any
+     * @return a future completing with the materials. Failed estimations aren't kept, so that they are retried on the next request.
+     */
+    CompletableFuture<MaterialList> get(CompletableFuture<byte[]> digest, Iterable<PlacementTarget> view, IBuildContext context, @Nullable Vec3d simulatePos) {
+        LogicalSide side = context.getWorld().isRemote() ? LogicalSide.CLIENT : LogicalSide.SERVER;
+        Queue<Estimation> queue = estimations.get(side);
+        CompletableFuture<MaterialList> res = new CompletableFuture<>();
+        digest.whenComplete((bytes, ex) -> {
+            if (ex != null)
+                res.completeExceptionally(ex);
+            else
+                queue.add(new Estimation(new Key(side, bytes), view, context, simulatePos, res));
+        });
+        return res;
+    }
+
+    /**
+     * Advances the queued estimations of the given side, for a bounded amount of time. Must be called once per tick on the thread
+     * of that side.
+     */
+    public void tick(LogicalSide side) {
+        Queue<Estimation> queue = estimations.get(side);
+        long deadline = System.nanoTime() + MAX_NANOS_PER_TICK;
+        Estimation estimation;
+        while ((estimation = queue.peek()) != null) {
+            if (estimation.step(deadline))
+                queue.poll();
+            if (System.nanoTime() >= deadline)
+                return;
+        }
+    }
+
+    /**
+     * Cancels the queued estimations of the given side, f.e. because it's world was unloaded.
+     */
+    public void clear(LogicalSide side) {
+        Queue<Estimation> queue = estimations.get(side);
+        Estimation estimation;
+        while ((estimation = queue.poll()) != null)
+            estimation.fail(new CancellationException("The world of the estimation was unloaded."));
+    }
+
+    private final class Estimation {
+        private final Key key;
+        private final Iterable<PlacementTarget> view;
+        private final IBuildContext context;
+        @Nullable
+        private final Vec3d simulatePos;
+        private final CompletableFuture<MaterialList> result;
+        @Nullable
+        private Iterator<PlacementTarget> iterator;
+        @Nullable
+        private MaterialList.SubEntryBuilder builder;
+
+        private Estimation(Key key, Iterable<PlacementTarget> view, IBuildContext context, @Nullable Vec3d simulatePos, CompletableFuture<MaterialList> result) {
+            this.key = key;
+            this.view = view;
+            this.context = context;
+            this.simulatePos = simulatePos;
+            this.result = result;
+        }
+
+        /**
+         * Evaluates blocks until the deadline passed, at least one.
+         *
+         * @return whether this estimation is done
+         */
+        private boolean step(long deadline) {
+            if (iterator == null) {
+                CompletableFuture<MaterialList> cached = cache.asMap().putIfAbsent(key, result);
+                if (cached != null) { //someone else already estimated, or is estimating, equal blocks
+                    cached.whenComplete((list, ex) -> {
+                        if (ex != null)
+                            result.completeExceptionally(ex);
+                        else
+                            result.complete(list);
+                    });
+                    return true;
+                }
+                iterator = view.iterator();
+                builder = MaterialList.andBuilder();
+            }
+            assert builder != null;
+            try {
+                do {
+                    if (! iterator.hasNext()) {
+                        result.complete(builder.build());
+                        return true;
+                    }
+                    builder.add(CommonUtils.getRequiredMaterials(iterator.next(), context, simulatePos));
+                } while (System.nanoTime() < deadline);
+            } catch (RuntimeException e) {
+                fail(e);
+                return true;
+            }
+            return false;
+        }
+
+        private void fail(Throwable ex) {
+            cache.asMap().remove(key, result);
+            result.completeExceptionally(ex);
+        }
+    }
+
+    private static final class Key {
+        private final LogicalSide side;
+        private final byte[] digest;
+        private final int hash;
+
+        private Key(LogicalSide side, byte[] digest) {
+            this.side = side;
+            this.digest = digest;
+            this.hash = 31 * side.ordinal() + Arrays.hashCode(digest);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (! (o instanceof Key)) return false;
+            Key other = (Key) o;
+            return side == other.side && Arrays.equals(digest, other.digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
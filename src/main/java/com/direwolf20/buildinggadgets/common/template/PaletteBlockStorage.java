@@ -0,0 +1,480 @@
+package com.direwolf20.buildinggadgets.common.template;
+
+import com.direwolf20.buildinggadgets.common.building.BlockData;
+import com.direwolf20.buildinggadgets.common.building.PlacementTarget;
+import com.direwolf20.buildinggadgets.common.building.Region;
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.util.math.BlockPos;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Immutable and compact storage for the {@link BlockData} of a {@link Template}. Instead of mapping each {@link BlockPos} to a
+ * {@link BlockData} reference, all distinct {@link BlockData} instances are stored once in a palette and positions refer to them by
+ * index. Depending on how much of the bounding box is filled, one of two layouts is used:
+ * <ul>
+ *     <li><b>dense</b>: a {@code char[]} with one palette index (+1, 0 marks an empty position) per position in the bounding box
+ *     (2 bytes per position in the bounding box)</li>
+ *     <li><b>sparse</b>: a sorted {@code long[]} of positions packed relative to the bounding box and a parallel {@code int[]} of
+ *     palette indices (12 bytes per stored position)</li>
+ * </ul>
+ * Positions are stored relative to the minimum of the bounding box, which means that translating a storage only needs to
+ * change it's origin and can therefore be performed in O(1).
+ */
+public final class PaletteBlockStorage {
+    private static final int AXIS_BITS = 21;
+    private static final long AXIS_MASK = (1L << AXIS_BITS) - 1;
+    private static final int MAX_AXIS_SIZE = 1 << AXIS_BITS;
+    private static final int SPARSE_BYTES_PER_ENTRY = Long.BYTES + Integer.BYTES;
+    private static final int DENSE_BYTES_PER_ENTRY = Character.BYTES;
+    private static final int MAX_DENSE_PALETTE_SIZE = Character.MAX_VALUE - 1;
+    //expected sizes may come from untrusted data, so never allocate more than this up front
+    private static final int MAX_INITIAL_CAPACITY = 4096;
+
+    private static final PaletteBlockStorage EMPTY = new PaletteBlockStorage(new BlockData[0], BlockPos.ZERO, 1, 1, 1, null, new long[0], new int[0], 0);
+
+    public static PaletteBlockStorage empty() {
+        return EMPTY;
+    }
+
+    public static PaletteBlockStorage of(Map<BlockPos, BlockData> map) {
+        Builder builder = builder(map.size());
+        for (Map.Entry<BlockPos, BlockData> entry : map.entrySet())
+            builder.put(entry.getKey(), entry.getValue());
+        return builder.build();
+    }
+
+    public static Builder builder() {
+        return builder(16);
+    }
+
+    /**
+     * @param expectedSize the expected amount of positions. The builder grows as needed, so this is only a hint and is capped to
+     *                     a reasonable initial capacity.
+     */
+    public static Builder builder(int expectedSize) {
+        return new Builder(Math.max(0, Math.min(expectedSize, MAX_INITIAL_CAPACITY)));
+    }
+
+    private final BlockData[] palette;
+    private final BlockPos origin;
+    private final int xSize;
+    private final int ySize;
+    private final int zSize;
+    @Nullable
+    private final char[] dense;
+    @Nullable
+    private final long[] sparsePositions;
+    @Nullable
+    private final int[] sparseData;
+    private final int size;
+
+    private PaletteBlockStorage(BlockData[] palette, BlockPos origin, int xSize, int ySize, int zSize, @Nullable char[] dense,
+                                @Nullable long[] sparsePositions, @Nullable int[] sparseData, int size) {
+        this.palette = palette;
+        this.origin = origin;
+        this.xSize = xSize;
+        this.ySize = ySize;
+        this.zSize = zSize;
+        this.dense = dense;
+        this.sparsePositions = sparsePositions;
+        this.sparseData = sparseData;
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isDense() {
+        return dense != null;
+    }
+
+    /**
+     * @return the position of the minimum corner of this storage's bounding box
+     */
+    public BlockPos getOrigin() {
+        return origin;
+    }
+
+    /**
+     * @return the bounding box enclosing all stored positions
+     */
+    public Region getBoundingBox() {
+        return new Region(origin, origin.add(xSize - 1, ySize - 1, zSize - 1));
+    }
+
+    /**
+     * @return an estimate of the amount of bytes used by the position data of this storage, not counting the palette
+     */
+    public long estimateMemoryUsage() {
+        return dense != null ? (long) dense.length * DENSE_BYTES_PER_ENTRY : (long) size * SPARSE_BYTES_PER_ENTRY;
+    }
+
+    public List<BlockData> getPalette() {
+        return Collections.unmodifiableList(Arrays.asList(palette));
+    }
+
+    public boolean contains(int x, int y, int z) {
+        return get(x, y, z) != null;
+    }
+
+    @Nullable
+    public BlockData get(int x, int y, int z) {
+        int relX = x - origin.getX();
+        int relY = y - origin.getY();
+        int relZ = z - origin.getZ();
+        if (relX < 0 || relY < 0 || relZ < 0 || relX >= xSize || relY >= ySize || relZ >= zSize)
+            return null;
+        if (dense != null) {
+            char index = dense[denseIndex(relX, relY, relZ)];
+            return index != 0 ? palette[index - 1] : null;
+        }
+        assert sparsePositions != null && sparseData != null;
+        int index = Arrays.binarySearch(sparsePositions, pack(relX, relY, relZ));
+        return index >= 0 ? palette[sparseData[index]] : null;
+    }
+
+    /**
+     * @param x the x translation
+     * @param y the y translation
+     * @param z the z translation
+     * @return a storage with the same content, moved by the given amount. Shares all data with this storage.
+     */
+    public PaletteBlockStorage translate(int x, int y, int z) {
+        if (x == 0 && y == 0 && z == 0)
+            return this;
+        return new PaletteBlockStorage(palette, origin.add(x, y, z), xSize, ySize, zSize, dense, sparsePositions, sparseData, size);
+    }
+
+    /**
+     * @param mapper the mapping function to apply to each distinct {@link BlockData}
+     * @return a storage with the same positions, but each {@link BlockData} replaced by the mapped value. This only needs to
+     *         process the palette and not each stored position.
+     */
+    public PaletteBlockStorage mapData(UnaryOperator<BlockData> mapper) {
+        BlockData[] mapped = new BlockData[palette.length];
+        for (int i = 0; i < palette.length; i++)
+            mapped[i] = Objects.requireNonNull(mapper.apply(palette[i]));
+        return new PaletteBlockStorage(mapped, origin, xSize, ySize, zSize, dense, sparsePositions, sparseData, size);
+    }
+
+    /**
+     * Iterates over all stored positions without allocating a {@link BlockPos} for each of them.
+     */
+    public void forEach(IPositionDataConsumer action) {
+        forEach(TemplateTransform.IDENTITY, BlockPos.ZERO, action);
+    }
+
+    /**
+     * Iterates over all stored positions without allocating a {@link BlockPos} for each of them. Each position is transformed by
+     * the given {@link TemplateTransform} and then translated by the given translation. The {@link BlockData} is passed on as stored,
+     * use {@link #mapData(UnaryOperator)} to transform it.
+     */
+    public void forEach(TemplateTransform transform, BlockPos translation, IPositionDataConsumer action) {
+        int ox = origin.getX();
+        int oy = origin.getY();
+        int oz = origin.getZ();
+        int tx = translation.getX();
+        int ty = translation.getY();
+        int tz = translation.getZ();
+        if (dense != null) {
+            int i = 0;
+            for (int y = oy; y < oy + ySize; y++) {
+                for (int z = oz; z < oz + zSize; z++) {
+                    for (int x = ox; x < ox + xSize; x++, i++) {
+                        char index = dense[i];
+                        if (index != 0)
+                            action.accept(transform.transformX(x, y, z) + tx, transform.transformY(x, y, z) + ty, transform.transformZ(x, y, z) + tz, palette[index - 1]);
+                    }
+                }
+            }
+        } else {
+            assert sparsePositions != null && sparseData != null;
+            for (int i = 0; i < sparsePositions.length; i++) {
+                long packed = sparsePositions[i];
+                int x = ox + unpackX(packed);
+                int y = oy + unpackY(packed);
+                int z = oz + unpackZ(packed);
+                action.accept(transform.transformX(x, y, z) + tx, transform.transformY(x, y, z) + ty, transform.transformZ(x, y, z) + tz, palette[sparseData[i]]);
+            }
+        }
+    }
+
+    /**
+     * @param translation the translation to apply to each produced {@link PlacementTarget}
+     * @return a splittable {@link Spliterator} over all stored positions
+     */
+    public Spliterator<PlacementTarget> spliterator(BlockPos translation) {
+        return spliterator(TemplateTransform.IDENTITY, translation);
+    }
+
+    /**
+     * @param transform   the transform to apply to each position, before translating it
+     * @param translation the translation to apply to each produced {@link PlacementTarget}
+     * @return a splittable {@link Spliterator} over all stored positions
+     */
+    public Spliterator<PlacementTarget> spliterator(TemplateTransform transform, BlockPos translation) {
+        if (dense != null)
+            return new DenseSpliterator(transform, translation, 0, dense.length);
+        assert sparsePositions != null;
+        return new SparseSpliterator(transform, translation, 0, sparsePositions.length);
+    }
+
+    private PlacementTarget createTarget(TemplateTransform transform, BlockPos translation, int relX, int relY, int relZ, BlockData data) {
+        int x = origin.getX() + relX;
+        int y = origin.getY() + relY;
+        int z = origin.getZ() + relZ;
+        return new PlacementTarget(translation.add(transform.transformX(x, y, z), transform.transformY(x, y, z), transform.transformZ(x, y, z)), data);
+    }
+
+    private int denseIndex(int relX, int relY, int relZ) {
+        return (relY * zSize + relZ) * xSize + relX;
+    }
+
+    private static long pack(int relX, int relY, int relZ) {
+        return ((long) relX << (2 * AXIS_BITS)) | ((long) relY << AXIS_BITS) | relZ;
+    }
+
+    private static int unpackX(long packed) {
+        return (int) ((packed >>> (2 * AXIS_BITS)) & AXIS_MASK);
+    }
+
+    private static int unpackY(long packed) {
+        return (int) ((packed >>> AXIS_BITS) & AXIS_MASK);
+    }
+
+    private static int unpackZ(long packed) {
+        return (int) (packed & AXIS_MASK);
+    }
+
+    @FunctionalInterface
+    public interface IPositionDataConsumer {
+        void accept(int x, int y, int z, BlockData data);
+    }
+
+    private final class DenseSpliterator implements Spliterator<PlacementTarget> {
+        private final TemplateTransform transform;
+        private final BlockPos translation;
+        private int index;
+        private final int end;
+
+        private DenseSpliterator(TemplateTransform transform, BlockPos translation, int index, int end) {
+            this.transform = transform;
+            this.translation = translation;
+            this.index = index;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super PlacementTarget> action) {
+            assert dense != null;
+            while (index < end) {
+                int i = index++;
+                char paletteIndex = dense[i];
+                if (paletteIndex != 0) {
+                    int x = i % xSize;
+                    int z = (i / xSize) % zSize;
+                    int y = i / (xSize * zSize);
+                    action.accept(createTarget(transform, translation, x, y, z, palette[paletteIndex - 1]));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        @Nullable
+        public Spliterator<PlacementTarget> trySplit() {
+            int mid = (index + end) >>> 1;
+            if (mid <= index)
+                return null;
+            Spliterator<PlacementTarget> res = new DenseSpliterator(transform, translation, index, mid);
+            index = mid;
+            return res;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | DISTINCT | NONNULL | IMMUTABLE;
+        }
+    }
+
+    private final class SparseSpliterator implements Spliterator<PlacementTarget> {
+        private final TemplateTransform transform;
+        private final BlockPos translation;
+        private int index;
+        private final int end;
+
+        private SparseSpliterator(TemplateTransform transform, BlockPos translation, int index, int end) {
+            this.transform = transform;
+            this.translation = translation;
+            this.index = index;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super PlacementTarget> action) {
+            assert sparsePositions != null && sparseData != null;
+            if (index >= end)
+                return false;
+            long packed = sparsePositions[index];
+            action.accept(createTarget(transform, translation, unpackX(packed), unpackY(packed), unpackZ(packed), palette[sparseData[index]]));
+            index++;
+            return true;
+        }
+
+        @Override
+        @Nullable
+        public Spliterator<PlacementTarget> trySplit() {
+            int mid = (index + end) >>> 1;
+            if (mid <= index)
+                return null;
+            Spliterator<PlacementTarget> res = new SparseSpliterator(transform, translation, index, mid);
+            index = mid;
+            return res;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | DISTINCT | NONNULL | IMMUTABLE | SIZED | SUBSIZED;
+        }
+    }
+
+    /**
+     * Collects positions and their {@link BlockData}. If a position is put multiple times, the last {@link BlockData} wins.
+     * The layout of the resulting storage is chosen on {@link #build()}.
+     */
+    public static final class Builder {
+        private final IntArrayList xs;
+        private final IntArrayList ys;
+        private final IntArrayList zs;
+        private final IntArrayList data;
+        private final Object2IntMap<BlockData> paletteLookup;
+        private final List<BlockData> palette;
+        private int minX, minY, minZ, maxX, maxY, maxZ;
+        @Nullable
+        private BlockData lastData;
+        private int lastIndex;
+
+        private Builder(int expectedSize) {
+            this.xs = new IntArrayList(expectedSize);
+            this.ys = new IntArrayList(expectedSize);
+            this.zs = new IntArrayList(expectedSize);
+            this.data = new IntArrayList(expectedSize);
+            this.paletteLookup = new Object2IntOpenHashMap<>();
+            this.palette = new ArrayList<>();
+            this.minX = this.minY = this.minZ = Integer.MAX_VALUE;
+            this.maxX = this.maxY = this.maxZ = Integer.MIN_VALUE;
+            this.lastData = null;
+            this.lastIndex = - 1;
+        }
+
+        public Builder put(BlockPos pos, BlockData blockData) {
+            return put(pos.getX(), pos.getY(), pos.getZ(), blockData);
+        }
+
+        public Builder put(int x, int y, int z, BlockData blockData) {
+            Objects.requireNonNull(blockData);
+            //consecutive positions very often share the same data, so avoid hashing it in that case
+            if (blockData != lastData) {
+                lastData = blockData;
+                lastIndex = paletteLookup.computeIntIfAbsent(blockData, d -> {
+                    palette.add(d);
+                    return palette.size() - 1;
+                });
+            }
+            xs.add(x);
+            ys.add(y);
+            zs.add(z);
+            data.add(lastIndex);
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            minZ = Math.min(minZ, z);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+            maxZ = Math.max(maxZ, z);
+            return this;
+        }
+
+        public PaletteBlockStorage build() {
+            int count = data.size();
+            if (count == 0)
+                return EMPTY;
+            long xSize = (long) maxX - minX + 1;
+            long ySize = (long) maxY - minY + 1;
+            long zSize = (long) maxZ - minZ + 1;
+            Preconditions.checkArgument(xSize <= MAX_AXIS_SIZE && ySize <= MAX_AXIS_SIZE && zSize <= MAX_AXIS_SIZE,
+                    "Cannot store positions spanning more then %s blocks along one axis!", MAX_AXIS_SIZE);
+            BlockData[] paletteArray = palette.toArray(new BlockData[0]);
+            BlockPos origin = new BlockPos(minX, minY, minZ);
+            long volume = xSize * ySize * zSize;
+            if (paletteArray.length <= MAX_DENSE_PALETTE_SIZE && volume <= Integer.MAX_VALUE &&
+                    volume * DENSE_BYTES_PER_ENTRY <= (long) count * SPARSE_BYTES_PER_ENTRY)
+                return buildDense(paletteArray, origin, (int) xSize, (int) ySize, (int) zSize);
+            return buildSparse(paletteArray, origin, (int) xSize, (int) ySize, (int) zSize);
+        }
+
+        private PaletteBlockStorage buildDense(BlockData[] paletteArray, BlockPos origin, int xSize, int ySize, int zSize) {
+            char[] dense = new char[xSize * ySize * zSize];
+            int size = 0;
+            for (int i = 0; i < data.size(); i++) {
+                int index = ((ys.getInt(i) - minY) * zSize + (zs.getInt(i) - minZ)) * xSize + (xs.getInt(i) - minX);
+                if (dense[index] == 0)
+                    size++;
+                dense[index] = (char) (data.getInt(i) + 1);
+            }
+            return new PaletteBlockStorage(paletteArray, origin, xSize, ySize, zSize, dense, null, null, size);
+        }
+
+        private PaletteBlockStorage buildSparse(BlockData[] paletteArray, BlockPos origin, int xSize, int ySize, int zSize) {
+            int count = data.size();
+            long[] positions = new long[count];
+            int[] indices = data.toIntArray();
+            for (int i = 0; i < count; i++)
+                positions[i] = pack(xs.getInt(i) - minX, ys.getInt(i) - minY, zs.getInt(i) - minZ);
+            //stable sort, so that the last put for duplicate positions stays last
+            it.unimi.dsi.fastutil.Arrays.mergeSort(0, count,
+                    (a, b) -> Long.compare(positions[a], positions[b]),
+                    (a, b) -> {
+                        long tmpPos = positions[a];
+                        positions[a] = positions[b];
+                        positions[b] = tmpPos;
+                        int tmpData = indices[a];
+                        indices[a] = indices[b];
+                        indices[b] = tmpData;
+                    });
+            int size = 0;
+            for (int i = 0; i < count; i++) {
+                if (i + 1 < count && positions[i] == positions[i + 1])
+                    continue; //a later put overrides this one
+                positions[size] = positions[i];
+                indices[size] = indices[i];
+                size++;
+            }
+            return new PaletteBlockStorage(paletteArray, origin, xSize, ySize, zSize, null,
+                    size == count ? positions : Arrays.copyOf(positions, size),
+                    size == count ? indices : Arrays.copyOf(indices, size), size);
+        }
+    }
+}
@@ -1,13 +1,15 @@
 package com.direwolf20.buildinggadgets.common.template;
 
 import com.direwolf20.buildinggadgets.common.building.BlockData;
+import com.direwolf20.buildinggadgets.common.building.PlacementTarget;
 import com.direwolf20.buildinggadgets.common.building.Region;
 import com.direwolf20.buildinggadgets.common.building.tilesupport.ITileDataSerializer;
 import com.direwolf20.buildinggadgets.common.building.view.IBuildContext;
 import com.direwolf20.buildinggadgets.common.building.view.IBuildView;
-import com.direwolf20.buildinggadgets.common.building.view.PositionalBuildView;
+import com.direwolf20.buildinggadgets.common.concurrent.BackgroundExecutor;
 import com.direwolf20.buildinggadgets.common.inventory.materials.MaterialList;
 import com.direwolf20.buildinggadgets.common.registry.Registries;
+import com.direwolf20.buildinggadgets.common.template.PaletteBlockStorage.IPositionDataConsumer;
 import com.direwolf20.buildinggadgets.common.util.CommonUtils;
 import com.direwolf20.buildinggadgets.common.util.compression.DataCompressor;
 import com.direwolf20.buildinggadgets.common.util.compression.DataDecompressor;
@@ -15,17 +17,35 @@ import com.direwolf20.buildinggadgets.common.util.ref.NBTKeys;
 import com.direwolf20.buildinggadgets.common.util.tools.MathUtils;
 import com.direwolf20.buildinggadgets.common.util.tools.RegistryUtils;
 import com.google.common.collect.ImmutableMap;
+import it.unimi.dsi.fastutil.Arrays;
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2LongMap;
+import it.unimi.dsi.fastutil.objects.Reference2LongOpenHashMap;
+import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.nbt.*;
 import net.minecraft.util.Direction.Axis;
-import net.minecraft.util.Mirror;
 import net.minecraft.util.Rotation;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.Vec3d;
 import net.minecraftforge.common.util.Constants.NBT;
 
 import javax.annotation.Nullable;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
+import java.util.stream.StreamSupport;
 
 public final class Template {
     public static Template deserialize(CompoundNBT nbt, @Nullable TemplateHeader externalHeader, boolean persisted) {
@@ -44,66 +64,361 @@ public final class Template {
                         BlockData.tryDeserialize((CompoundNBT) inbt, serializerDecompressor, true) :
                         BlockData.tryDeserialize((CompoundNBT) inbt, false),
                 value -> BlockData.AIR);
-        ImmutableMap.Builder<BlockPos, BlockData> mapBuilder = ImmutableMap.builder();
+        PaletteBlockStorage.Builder builder = PaletteBlockStorage.builder(posList.size());
         for (INBT inbt : posList) {
-            LongNBT longNBT = (LongNBT) inbt;
-            BlockPos pos = MathUtils.posFromLong(longNBT.getLong());
-            BlockData data = dataDecompressor.apply(MathUtils.readStateId(longNBT.getLong()));
-            mapBuilder.put(pos, data);
+            long serialized = ((LongNBT) inbt).getLong();
+            BlockData data = dataDecompressor.apply(MathUtils.readStateId(serialized));
+            builder.put(MathUtils.xFromLong(serialized), MathUtils.yFromLong(serialized), MathUtils.zFromLong(serialized), data);
         }
-        return new Template(mapBuilder.build(), header.build());
+        return new Template(builder.build(), header.build());
     }
 
-    private final ImmutableMap<BlockPos, BlockData> map;
+    private final PaletteBlockStorage storage;
+    //rotations and mirrors are applied lazily when iterating: pos = transform * storagePos + offset
+    private final TemplateTransform transform;
+    private final BlockPos offset;
     private TemplateHeader header; //the only modification, this may ever receive, is evaluating the requiredItems!
-    private boolean isNormalized;
+    @Nullable
+    private PaletteBlockStorage transformedStorage; //lazily created storage with the transform applied to the palette
+    private long blockHash;
+    private boolean hashComputed;
+    //the digest of the normalized blocks, shared by all Templates which only differ in their header or their position
+    private final AtomicReference<byte[]> blockDigest;
+    //materials don't depend on the transform, therefore they are shared by all Templates with the same storage
+    private final AtomicReference<CompletableFuture<MaterialList>> materials;
 
     public Template(ImmutableMap<BlockPos, BlockData> map, TemplateHeader header) {
-        this(map, header, false);
+        this(PaletteBlockStorage.of(map), header);
     }
 
-    private Template(ImmutableMap<BlockPos, BlockData> map, TemplateHeader header, boolean isNormalized) {
-        this.map = map;
+    public Template(PaletteBlockStorage storage, TemplateHeader header) {
+        this(storage, TemplateTransform.IDENTITY, BlockPos.ZERO, header, new AtomicReference<>(), new AtomicReference<>());
+    }
+
+    private Template(PaletteBlockStorage storage, TemplateTransform transform, BlockPos offset, TemplateHeader header,
+                     AtomicReference<byte[]> blockDigest, AtomicReference<CompletableFuture<MaterialList>> materials) {
+        this.storage = storage;
+        this.transform = transform;
+        this.offset = offset;
         this.header = header;
-        this.isNormalized = isNormalized;
+        this.transformedStorage = transform.isIdentity() ? storage : null;
+        this.blockDigest = blockDigest;
+        this.materials = materials;
+    }
+
+    /**
+     * Creates a {@code Template} with the same blocks as the given one, but a different header - keeping the already computed
+     * state, which only depends on the blocks.
+     */
+    private Template(Template blocks, TemplateHeader header) {
+        this(blocks.storage, blocks.transform, blocks.offset, header, blocks.blockDigest, blocks.materials);
+        this.transformedStorage = blocks.transformedStorage;
+        this.blockHash = blocks.blockHash;
+        this.hashComputed = blocks.hashComputed;
     }
 
     public Template() {
-        this(ImmutableMap.of(), TemplateHeader.builder(Region.singleZero()).build());
+        this(PaletteBlockStorage.empty(), TemplateHeader.builder(Region.singleZero()).build());
     }
 
+    /**
+     * Blocking variant of {@link #getHeaderWithMaterials(IBuildContext)}, which should only be used where the materials are needed
+     * right away (f.e. when exporting a {@code Template}).
+     */
     public TemplateHeader getHeaderAndForceMaterials(IBuildContext context) {
         if (header.getRequiredItems() == null) {
-            MaterialList materialList = CommonUtils.estimateRequiredItems(
-                    createViewInContext(context),
-                    context,
-                    context.getBuildingPlayer() != null ?
-                            context.getBuildingPlayer().getPositionVec().add(0, context.getBuildingPlayer().getEyeHeight(), 0) :
-                            null);
-            header = TemplateHeader.builderOf(header).requiredItems(materialList).build();
+            //pending estimations only advance whilst this thread ticks, so waiting for them would never return
+            MaterialList list = getMaterials(context).getNow(null);
+            if (list == null)
+                list = CommonUtils.estimateRequiredItems(createViewInContext(context), context, getSimulatePos(context));
+            header = TemplateHeader.builderOf(header).requiredItems(list).build();
         }
         return getHeader();
     }
 
+    /**
+     * @return a future completing with the header of this {@code Template}, with it's required items evaluated
+     * @see #getMaterials(IBuildContext)
+     */
+    public CompletableFuture<TemplateHeader> getHeaderWithMaterials(IBuildContext context) {
+        if (header.getRequiredItems() != null)
+            return CompletableFuture.completedFuture(header);
+        TemplateHeader currentHeader = header;
+        return getMaterials(context).thenApply(list -> TemplateHeader.builderOf(currentHeader).requiredItems(list).build());
+    }
+
+    /**
+     * Returns the required items of the header if present, otherwise they are estimated by the {@link MaterialListCache}: the
+     * blocks are digested on the {@link com.direwolf20.buildinggadgets.common.concurrent.BackgroundExecutor}, but evaluated a few
+     * per tick on the thread owning the context's world, as Block code may not be called concurrently with it. Estimations are
+     * cached by that digest and shared by all transformed versions of this {@code Template}, as rotating or mirroring blocks
+     * doesn't change the items needed to build them. Therefore the given context is only used by the first estimation.
+     *
+     * @return a future completing with the required items of this {@code Template}
+     */
+    public CompletableFuture<MaterialList> getMaterials(IBuildContext context) {
+        MaterialList requiredItems = header.getRequiredItems();
+        if (requiredItems != null)
+            return CompletableFuture.completedFuture(requiredItems);
+        CompletableFuture<MaterialList> res = materials.get();
+        if (res != null)
+            return res;
+        CompletableFuture<MaterialList> estimation = MaterialListCache.INSTANCE.get(
+                CompletableFuture.supplyAsync(this::getStorageDigest, BackgroundExecutor.INSTANCE),
+                createViewInContext(context), context, getSimulatePos(context));
+        if (! materials.compareAndSet(null, estimation))
+            return materials.get();
+        estimation.whenComplete((list, ex) -> {
+            if (ex != null) //allow the next request to retry
+                materials.compareAndSet(estimation, null);
+        });
+        return estimation;
+    }
+
+    @Nullable
+    private static Vec3d getSimulatePos(IBuildContext context) {
+        PlayerEntity player = context.getBuildingPlayer();
+        return player != null ? player.getPositionVec().add(0, player.getEyeHeight(), 0) : null;
+    }
+
     public TemplateHeader getHeader() {
         return header;
     }
 
     public IBuildView createViewInContext(IBuildContext context) {
-        return PositionalBuildView.createUnsafe(context, map, header.getBoundingBox());
+        return new TemplateBuildView(context, getTransformedStorage(), transform, offset, header.getBoundingBox());
+    }
+
+    /**
+     * @return the amount of blocks in this {@code Template}
+     */
+    public int size() {
+        return storage.size();
+    }
+
+    /**
+     * @return the distinct {@link BlockData} of this {@code Template}, with all transforms applied. The instances are the
+     *         same as those passed to {@link #forEachBlock(IPositionDataConsumer)}.
+     */
+    List<BlockData> getPalette() {
+        return getTransformedStorage().getPalette();
+    }
+
+    /**
+     * @return the smallest {@link Region} enclosing all blocks of this {@code Template}
+     */
+    Region getContentBounds() {
+        return transform.transform(storage.getBoundingBox()).translate(offset);
+    }
+
+    /**
+     * Iterates over all blocks of this {@code Template} with all transforms applied, without materializing them.
+     */
+    void forEachBlock(IPositionDataConsumer action) {
+        getTransformedStorage().forEach(transform, offset, action);
+    }
+
+    /**
+     * @return a hash of the normalized blocks, name and author of this {@code Template}. In contrast to {@link #hashCode()} it
+     *         is the same on the client and the server, so that it can be used to check whether the other side already holds an
+     *         equal {@code Template}.
+     */
+    public long getContentHash() {
+        long res = getBlockHash();
+        res = 31 * res + Objects.hashCode(header.getName());
+        res = 31 * res + Objects.hashCode(header.getAuthor());
+        return res;
+    }
+
+    /**
+     * @return a hash of only the normalized blocks of this {@code Template}, see {@link #getContentHash()}
+     */
+    public long getBlockHash() {
+        if (! hashComputed) {
+            blockHash = computeBlockHash();
+            hashComputed = true;
+        }
+        return blockHash;
+    }
+
+    /**
+     * @return a SHA-256 digest of the normalized blocks, name and author of this {@code Template}. In contrast to
+     *         {@link #getContentHash()} equal digests can be trusted to mean equal content, without having both {@code Templates}
+     *         at hand to compare them. Equal {@code Templates} are however not guaranteed to have equal digests.
+     */
+    public byte[] getContentDigest() {
+        MessageDigest digest = newDigest();
+        digest.update(getBlockDigest());
+        updateDigest(digest, header.getName());
+        updateDigest(digest, header.getAuthor());
+        return digest.digest();
+    }
+
+    /**
+     * @return whether the given {@code Template} has the same bounds and the same blocks at the same normalized positions
+     */
+    public boolean hasSameBlocks(Template other) {
+        if (size() != other.size() || getBlockHash() != other.getBlockHash())
+            return false;
+        Template normalized = normalize();
+        Template otherNormalized = other.normalize();
+        if (! normalized.header.getBoundingBox().equals(otherNormalized.header.getBoundingBox()))
+            return false;
+        if (sharesStorage(other) && transform.relativeTo(other.transform).isIdentity())
+            return true;
+        Long2ObjectMap<BlockData> blocks = new Long2ObjectOpenHashMap<>(size());
+        normalized.forEachBlock((x, y, z, data) -> blocks.put(BlockPos.pack(x, y, z), data));
+        boolean[] same = {true};
+        otherNormalized.forEachBlock((x, y, z, data) -> {
+            if (same[0] && ! data.equals(blocks.get(BlockPos.pack(x, y, z))))
+                same[0] = false;
+        });
+        return same[0];
+    }
+
+    TemplateTransform getTransform() {
+        return transform;
+    }
+
+    /**
+     * @return whether the other {@code Template} is a transformed version of the same blocks as this one
+     */
+    boolean sharesStorage(Template other) {
+        return storage == other.storage;
+    }
+
+    /**
+     * @return this {@code Template} with the given transform applied after it's current transform. The result is normalized.
+     */
+    Template applyTransform(TemplateTransform relative) {
+        if (relative.isIdentity() || storage.isEmpty())
+            return normalize();
+        return withTransform(transform.andThen(relative));
+    }
+
+    Template withHeader(TemplateHeader header) {
+        return new Template(this, header);
+    }
+
+    private byte[] getBlockDigest() {
+        byte[] res = blockDigest.get();
+        if (res == null) {
+            res = computeBlockDigest();
+            blockDigest.compareAndSet(null, res);
+        }
+        return res;
+    }
+
+    private byte[] computeBlockDigest() {
+        Template normalized = normalize();
+        return digestBlocks(normalized.getTransformedStorage(), normalized.transform, normalized.offset, normalized.header.getBoundingBox().getMax());
+    }
+
+    /**
+     * @return a SHA-256 digest of the blocks of the storage without any transform applied, which is the same for all transformed
+     *         versions of this {@code Template}
+     */
+    private byte[] getStorageDigest() {
+        BlockPos offset = BlockPos.ZERO.subtract(storage.getOrigin());
+        return digestBlocks(storage, TemplateTransform.IDENTITY, offset, storage.getBoundingBox().getMax().add(offset));
+    }
+
+    private static byte[] digestBlocks(PaletteBlockStorage blocks, TemplateTransform transform, BlockPos offset, BlockPos max) {
+        MessageDigest digest = newDigest();
+        List<BlockData> palette = blocks.getPalette();
+        Reference2IntMap<BlockData> paletteIndices = new Reference2IntOpenHashMap<>(palette.size());
+        byte[][] dataDigests = new byte[palette.size()][];
+        for (int i = 0; i < palette.size(); i++) {
+            paletteIndices.put(palette.get(i), i);
+            updateDigest(digest, palette.get(i).serialize(false).toString());
+            dataDigests[i] = digest.digest();
+        }
+        //the digest depends on the order of the blocks, whilst the iteration order depends on the transform - so sort them
+        long[] positions = new long[blocks.size()];
+        int[] dataIndices = new int[blocks.size()];
+        int[] count = {0};
+        blocks.forEach(transform, offset, (x, y, z, data) -> {
+            positions[count[0]] = BlockPos.pack(x, y, z);
+            dataIndices[count[0]++] = paletteIndices.getInt(data);
+        });
+        Arrays.quickSort(0, count[0], (a, b) -> Long.compare(positions[a], positions[b]), (a, b) -> {
+            long pos = positions[a];
+            positions[a] = positions[b];
+            positions[b] = pos;
+            int index = dataIndices[a];
+            dataIndices[a] = dataIndices[b];
+            dataIndices[b] = index;
+        });
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        buffer.putLong(max.toLong());
+        digest.update(buffer.array());
+        for (int i = 0; i < count[0]; i++) {
+            buffer.clear();
+            buffer.putLong(positions[i]);
+            digest.update(buffer.array());
+            digest.update(dataDigests[dataIndices[i]]);
+        }
+        return digest.digest();
+    }
+
+    private static void updateDigest(MessageDigest digest, @Nullable String value) {
+        if (value == null) {
+            digest.update((byte) 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update((byte) 1);
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) { //every Java platform is required to support it
+            throw new IllegalStateException("SHA-256 is not available!", e);
+        }
+    }
+
+    private long computeBlockHash() {
+        Template normalized = normalize();
+        return hashBlocks(normalized.getTransformedStorage(), normalized.transform, normalized.offset);
+    }
+
+    private static long hashBlocks(PaletteBlockStorage storage, TemplateTransform transform, BlockPos offset) {
+        //BlockStates only have identity hashes, therefore the (small) palette is hashed by it's serialized form
+        Reference2LongMap<BlockData> dataHashes = new Reference2LongOpenHashMap<>();
+        for (BlockData data : storage.getPalette())
+            dataHashes.put(data, data.serialize(false).hashCode());
+        //summing makes the hash independent of the iteration order - and therefore allows to compute it in parallel
+        if (storage.size() >= BackgroundExecutor.MIN_PARALLEL_SIZE) {
+            Spliterator<PlacementTarget> spliterator = storage.spliterator(transform, offset);
+            long sum = BackgroundExecutor.INSTANCE.invoke(() -> StreamSupport.stream(spliterator, true)
+                    .mapToLong(t -> HashCommon.mix(t.getPos().toLong() * 31 + dataHashes.getLong(t.getData())))
+                    .sum());
+            return 31 * sum + storage.size();
+        }
+        long[] sum = {0};
+        storage.forEach(transform, offset, (x, y, z, data) -> sum[0] += HashCommon.mix(BlockPos.pack(x, y, z) * 31 + dataHashes.getLong(data)));
+        return 31 * sum[0] + storage.size();
+    }
+
+    private boolean isNormalized() {
+        return header.getBoundingBox().getMin().equals(BlockPos.ZERO);
     }
 
     public CompoundNBT serialize(boolean persisted) {
-        if (! isNormalized)
+        if (! isNormalized())
             return normalize().serialize(persisted);
         CompoundNBT res = new CompoundNBT();
         ListNBT posList = new ListNBT();
         DataCompressor<BlockData> blockDataCompressor = new DataCompressor<>();
         DataCompressor<ITileDataSerializer> dataSerializerCompressor = new DataCompressor<>();
-        for (Map.Entry<BlockPos, BlockData> entry : map.entrySet()) {
-            long posEntry = MathUtils.includeStateId(MathUtils.posToLong(entry.getKey()), blockDataCompressor.applyAsInt(entry.getValue()));
+        //this is the only place where a transformed Template is materialized, and even here only as it is written
+        getTransformedStorage().forEach(transform, offset, (x, y, z, data) -> {
+            long posEntry = MathUtils.includeStateId(MathUtils.posToLong(x, y, z), blockDataCompressor.applyAsInt(data));
             posList.add(new LongNBT(posEntry));
-        }
+        });
         ListNBT dataList = blockDataCompressor.write(d -> persisted ?
                 d.serialize(dataSerializerCompressor, true)
                 : d.serialize(false));
@@ -121,74 +436,62 @@ public final class Template {
     }
 
     public Template rotate(Axis axis, Rotation rotation) {
-        if (map.isEmpty()) //saves some time and prevents problems with enclosing builder
+        if (storage.isEmpty()) //saves some time and prevents problems with enclosing builder
             return this;
-        int[][] matrix = MathUtils.rotationMatrixFor(axis, rotation);
-        rotation = axis == Axis.Y ? rotation : Rotation.NONE; //BlockState's can only rotate around the y-Axis
-        ImmutableMap.Builder<BlockPos, BlockData> mapBuilder = ImmutableMap.builder();
-        Region.Builder regionBuilder = Region.enclosingBuilder();
-        for (Map.Entry<BlockPos, BlockData> entry : map.entrySet()) {
-            BlockPos newPos = MathUtils.matrixMul(matrix, entry.getKey());
-            mapBuilder.put(newPos, entry.getValue().rotate(rotation));
-            regionBuilder.enclose(newPos);
-        }
-        return new Template(mapBuilder.build(), TemplateHeader.builderOf(header, regionBuilder.build()).build()).normalize();
+        return withTransform(transform.rotate(axis, rotation));
     }
 
     public Template mirror(Axis axis) {
-        int xFac = 1;
-        int zFac = 1;
-        Mirror mirror;
-        switch (axis) {
-            case X:
-                mirror = Mirror.LEFT_RIGHT;
-                zFac = - 1;
-                break;
-            case Z:
-                mirror = Mirror.FRONT_BACK;
-                xFac = - 1;
-                break;
-            default:
-                mirror = Mirror.NONE;
-        }
-        Region.Builder regionBuilder = Region.enclosingBuilder();
-        ImmutableMap.Builder<BlockPos, BlockData> mapBuilder = ImmutableMap.builder();
-        for (Map.Entry<BlockPos, BlockData> entry : map.entrySet()) {
-            BlockPos newPos = new BlockPos(entry.getKey().getX() * xFac, entry.getKey().getY(), entry.getKey().getZ() * zFac);
-            mapBuilder.put(newPos, entry.getValue().mirror(mirror));
-            regionBuilder.enclose(newPos);
-        }
-        return new Template(mapBuilder.build(), TemplateHeader.builderOf(header, regionBuilder.build()).build()).normalize();
+        if (storage.isEmpty())
+            return this;
+        return withTransform(transform.mirror(axis));
     }
 
     public Template replace(Function<BlockPos, Optional<BlockData>> replacements) {
-        ImmutableMap.Builder<BlockPos, BlockData> mapBuilder = ImmutableMap.builder();
-        for (Map.Entry<BlockPos, BlockData> entry : map.entrySet()) {
-            mapBuilder.put(entry.getKey(), replacements.apply(entry.getKey()).orElse(entry.getValue()));
-        }
-        return new Template(mapBuilder.build(), header, isNormalized);
+        PaletteBlockStorage.Builder builder = PaletteBlockStorage.builder(storage.size());
+        getTransformedStorage().forEach(transform, offset, (x, y, z, data) -> {
+            BlockPos pos = new BlockPos(x, y, z);
+            builder.put(pos, replacements.apply(pos).orElse(data));
+        });
+        return new Template(builder.build(), header);
     }
 
     public Template withName(@Nullable String name) {
-        return new Template(map, TemplateHeader.builderOf(header).name(name).build());
+        return new Template(this, TemplateHeader.builderOf(header).name(name).build());
     }
 
     public Template withNameAndAuthor(@Nullable String name, @Nullable String author) {
-        return new Template(map, TemplateHeader.builderOf(header).name(name).author(author).build());
+        return new Template(this, TemplateHeader.builderOf(header).name(name).author(author).build());
     }
 
     public Template clearMaterials() {
-        return new Template(map, TemplateHeader.builderOf(header).requiredItems(null).build());
+        return new Template(this, TemplateHeader.builderOf(header).requiredItems(null).build());
     }
 
     public Template normalize() {
-        if (isNormalized)
+        if (isNormalized())
             return this;
         Region region = header.getBoundingBox();
-        ImmutableMap.Builder<BlockPos, BlockData> builder = ImmutableMap.builder();
-        for (Map.Entry<BlockPos, BlockData> entry : map.entrySet()) {
-            builder.put(entry.getKey().subtract(region.getMin()), entry.getValue());
-        }
-        return new Template(builder.build(), TemplateHeader.builderOf(header, region.inverseTranslate(region.getMin())).build(), true);
+        BlockPos min = region.getMin();
+        //only the offset needs to change, no position has to be touched
+        return new Template(storage, transform, offset.subtract(min), TemplateHeader.builderOf(header, region.inverseTranslate(min)).build(),
+                blockDigest, materials);
+    }
+
+    /**
+     * Composes the given transform with the storage, without touching any position. The result is normalized, like the
+     * result of {@link #normalize()}.
+     */
+    private Template withTransform(TemplateTransform newTransform) {
+        Region transformed = newTransform.transform(storage.getBoundingBox());
+        BlockPos min = transformed.getMin();
+        return new Template(storage, newTransform, BlockPos.ZERO.subtract(min),
+                TemplateHeader.builderOf(header, transformed.inverseTranslate(min)).build(), new AtomicReference<>(), materials);
+    }
+
+    private PaletteBlockStorage getTransformedStorage() {
+        if (transformedStorage == null) //transforming the palette is enough to transform all data
+            transformedStorage = storage.mapData(transform::transformData);
+        return transformedStorage;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,181 @@
+package com.direwolf20.buildinggadgets.common.template;
+
+import com.direwolf20.buildinggadgets.common.building.BlockData;
+import com.direwolf20.buildinggadgets.common.building.Region;
+import com.direwolf20.buildinggadgets.common.building.tilesupport.ITileDataSerializer;
+import com.direwolf20.buildinggadgets.common.registry.Registries;
+import com.direwolf20.buildinggadgets.common.util.compression.DataCompressor;
+import com.direwolf20.buildinggadgets.common.util.compression.VarInts;
+import com.direwolf20.buildinggadgets.common.util.tools.RegistryUtils;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTSizeTracker;
+
+import javax.annotation.Nullable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The binary format used by {@link TemplateIO} to write {@link Template Templates}. In contrast to {@link Template#serialize(boolean)}
+ * no intermediate nbt tree is created: only the header and the palette entries are written as (small) nbt compounds, whilst the
+ * positions are streamed straight from the {@link Template}'s storage to the output.
+ * <p>
+ * Layout (all counts as var-ints):
+ * <ol>
+ *     <li>{@link #MAGIC}, the format version and a flag byte</li>
+ *     <li>the header as nbt</li>
+ *     <li>if persisted: the registry names of all used {@link ITileDataSerializer}</li>
+ *     <li>the palette as nbt compounds</li>
+ *     <li>the bounds of all positions (zig-zag encoded min and the sizes)</li>
+ *     <li>the block count followed by one entry per block: the zig-zag encoded delta of it's index in the bounds to the
+ *     previous block's index and it's palette index</li>
+ * </ol>
+ * As the storage iterates in index order (unless rotated), the delta is usually 1 and each block takes only 2 bytes before compression.
+ */
+final class TemplateBinaryFormat {
+    /**
+     * "BGTF" - the first byte must not be {@link net.minecraftforge.common.util.Constants.NBT#TAG_COMPOUND}, so that the format can
+     * be told apart from legacy nbt data.
+     */
+    static final int MAGIC = 0x42475446;
+    static final int VERSION = 1;
+    private static final int FLAG_PERSISTED = 1;
+    //counts are read from untrusted data (clipboard, network), so lists are grown as elements are actually read
+    private static final int MAX_INITIAL_CAPACITY = 4096;
+
+    private TemplateBinaryFormat() {}
+
+    static void write(Template template, DataOutput out, boolean persisted) throws IOException {
+        template = template.normalize();
+        out.writeInt(MAGIC);
+        VarInts.writeVarInt(out, VERSION);
+        out.writeByte(persisted ? FLAG_PERSISTED : 0);
+        CompressedStreamTools.write(template.getHeader().toNBT(persisted), out);
+
+        List<BlockData> palette = template.getPalette();
+        Reference2IntMap<BlockData> paletteIndices = new Reference2IntOpenHashMap<>(palette.size());
+        //the palette is small, so serializing it up front to collect the serializers is cheap
+        DataCompressor<ITileDataSerializer> serializerCompressor = new DataCompressor<>();
+        List<CompoundNBT> serializedPalette = new ArrayList<>(palette.size());
+        for (BlockData data : palette) {
+            paletteIndices.put(data, serializedPalette.size());
+            serializedPalette.add(persisted ? data.serialize(serializerCompressor, true) : data.serialize(false));
+        }
+        if (persisted) {
+            List<ITileDataSerializer> serializers = serializerCompressor.getReverseMap();
+            VarInts.writeVarInt(out, serializers.size());
+            for (ITileDataSerializer serializer : serializers)
+                out.writeUTF(serializer.getRegistryName().toString());
+        }
+        VarInts.writeVarInt(out, serializedPalette.size());
+        for (CompoundNBT nbt : serializedPalette)
+            CompressedStreamTools.write(nbt, out);
+
+        Region bounds = template.getContentBounds();
+        VarInts.writeVarInt(out, VarInts.zigZag(bounds.getMinX()));
+        VarInts.writeVarInt(out, VarInts.zigZag(bounds.getMinY()));
+        VarInts.writeVarInt(out, VarInts.zigZag(bounds.getMinZ()));
+        VarInts.writeVarInt(out, bounds.getXSize());
+        VarInts.writeVarInt(out, bounds.getYSize());
+        VarInts.writeVarInt(out, bounds.getZSize());
+        VarInts.writeVarInt(out, template.size());
+        long[] lastIndex = {- 1};
+        try {
+            template.forEachBlock((x, y, z, data) -> {
+                long index = linearIndex(bounds, x, y, z);
+                try {
+                    VarInts.writeVarLong(out, VarInts.zigZag(index - lastIndex[0]));
+                    VarInts.writeVarInt(out, paletteIndices.getInt(data));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                lastIndex[0] = index;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Reads a {@link Template} written by {@link #write(Template, DataOutput, boolean)}. The caller must already have verified,
+     * that the data does not start with legacy nbt.
+     */
+    static Template read(DataInput in, @Nullable TemplateHeader externalHeader, boolean persisted) throws IOException {
+        int magic = in.readInt();
+        if (magic != MAGIC)
+            throw new IOException("Unknown Template format " + Integer.toHexString(magic) + "!");
+        int version = VarInts.readVarInt(in);
+        if (version > VERSION)
+            throw new IOException("Template format version " + version + " is newer than the supported version " + VERSION + "!");
+        boolean writtenPersisted = (in.readByte() & FLAG_PERSISTED) != 0;
+        if (writtenPersisted != persisted)
+            throw new IOException("Expected Template " + (persisted ? "" : "not ") + "to be written persisted!");
+        TemplateHeader.Builder header = TemplateHeader.builderFromNBT(CompressedStreamTools.read(in, NBTSizeTracker.INFINITE), persisted);
+        if (externalHeader != null)
+            header = header.name(externalHeader.getName()).author(externalHeader.getAuthor());
+
+        ITileDataSerializer[] serializers = null;
+        if (persisted) {
+            int serializerCount = readCount(in, "serializer");
+            List<ITileDataSerializer> serializerList = new ArrayList<>(Math.min(serializerCount, MAX_INITIAL_CAPACITY));
+            for (int i = 0; i < serializerCount; i++) {
+                ITileDataSerializer serializer = RegistryUtils.getFromString(Registries.TileEntityData.getTileDataSerializers(), in.readUTF());
+                serializerList.add(serializer != null ? serializer : SerialisationSupport.dummyDataSerializer());
+            }
+            serializers = serializerList.toArray(new ITileDataSerializer[0]);
+        }
+        ITileDataSerializer[] finalSerializers = serializers;
+        int paletteSize = readCount(in, "palette");
+        List<BlockData> paletteList = new ArrayList<>(Math.min(paletteSize, MAX_INITIAL_CAPACITY));
+        for (int i = 0; i < paletteSize; i++) {
+            CompoundNBT nbt = CompressedStreamTools.read(in, NBTSizeTracker.INFINITE);
+            BlockData data = persisted ?
+                    BlockData.tryDeserialize(nbt, id -> id >= 0 && id < finalSerializers.length ? finalSerializers[id] : SerialisationSupport.dummyDataSerializer(), true) :
+                    BlockData.tryDeserialize(nbt, false);
+            paletteList.add(data != null ? data : BlockData.AIR);
+        }
+        BlockData[] palette = paletteList.toArray(new BlockData[0]);
+
+        int minX = VarInts.unZigZag(VarInts.readVarInt(in));
+        int minY = VarInts.unZigZag(VarInts.readVarInt(in));
+        int minZ = VarInts.unZigZag(VarInts.readVarInt(in));
+        int xSize = VarInts.readVarInt(in);
+        int ySize = VarInts.readVarInt(in);
+        int zSize = VarInts.readVarInt(in);
+        if (xSize <= 0 || ySize <= 0 || zSize <= 0)
+            throw new IOException("Invalid Template bounds " + xSize + "x" + ySize + "x" + zSize + "!");
+        long volume = (long) xSize * ySize * zSize;
+        int count = readCount(in, "position");
+        if (count > volume)
+            throw new IOException("Template claims " + count + " positions, but it's bounds only hold " + volume + "!");
+        PaletteBlockStorage.Builder builder = PaletteBlockStorage.builder(count);
+        long index = - 1;
+        for (int i = 0; i < count; i++) {
+            index += VarInts.unZigZag(VarInts.readVarLong(in));
+            if (index < 0 || index >= volume)
+                throw new IOException("Position index " + index + " is outside of the Template's bounds!");
+            int paletteIndex = VarInts.readVarInt(in);
+            long rem = index / xSize;
+            builder.put(minX + (int) (index % xSize), minY + (int) (rem / zSize), minZ + (int) (rem % zSize),
+                    paletteIndex >= 0 && paletteIndex < palette.length ? palette[paletteIndex] : BlockData.AIR);
+        }
+        return new Template(builder.build(), header.build());
+    }
+
+    private static int readCount(DataInput in, String what) throws IOException {
+        int count = VarInts.readVarInt(in);
+        if (count < 0)
+            throw new IOException("Negative " + what + " count " + count + "!");
+        return count;
+    }
+
+    private static long linearIndex(Region bounds, int x, int y, int z) {
+        return ((long) (y - bounds.getMinY()) * bounds.getZSize() + (z - bounds.getMinZ())) * bounds.getXSize() + (x - bounds.getMinX());
+    }
+}
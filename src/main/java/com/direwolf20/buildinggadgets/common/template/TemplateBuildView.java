@@ -0,0 +1,80 @@
+package com.direwolf20.buildinggadgets.common.template;
+
+import com.direwolf20.buildinggadgets.common.building.PlacementTarget;
+import com.direwolf20.buildinggadgets.common.building.Region;
+import com.direwolf20.buildinggadgets.common.building.view.IBuildContext;
+import com.direwolf20.buildinggadgets.common.building.view.IBuildView;
+import net.minecraft.util.math.BlockPos;
+
+import java.util.Spliterator;
+
+/**
+ * An {@link IBuildView} directly backed by the {@link PaletteBlockStorage} of a {@link Template}. {@link PlacementTarget PlacementTargets}
+ * will be created lazily when iterating over this view, applying the {@link Template Template's} {@link TemplateTransform} on the fly.
+ * No intermediate {@link java.util.Map} is created.
+ */
+final class TemplateBuildView implements IBuildView {
+    private final IBuildContext context;
+    private final PaletteBlockStorage storage;
+    private final TemplateTransform transform;
+    private final BlockPos offset;
+    private final Region templateBox;
+    private Region boundingBox;
+    private BlockPos translation;
+
+    /**
+     * @param storage     the storage, with the transform already applied to it's palette
+     * @param transform   the transform to apply to the positions of the storage
+     * @param offset      the offset to add to transformed positions
+     * @param boundingBox the bounding box of the transformed positions
+     */
+    TemplateBuildView(IBuildContext context, PaletteBlockStorage storage, TemplateTransform transform, BlockPos offset, Region boundingBox) {
+        this.context = context;
+        this.storage = storage;
+        this.transform = transform;
+        this.offset = offset;
+        this.templateBox = boundingBox;
+        this.boundingBox = boundingBox;
+        this.translation = BlockPos.ZERO;
+    }
+
+    @Override
+    public Spliterator<PlacementTarget> spliterator() {
+        return storage.spliterator(transform, offset.add(translation));
+    }
+
+    @Override
+    public TemplateBuildView translateTo(BlockPos pos) {
+        this.boundingBox = templateBox.translate(pos);
+        this.translation = pos;
+        return this;
+    }
+
+    @Override
+    public int estimateSize() {
+        return storage.size();
+    }
+
+    @Override
+    public TemplateBuildView copy() {
+        return new TemplateBuildView(context, storage, transform, offset, templateBox).translateTo(translation);
+    }
+
+    @Override
+    public IBuildContext getContext() {
+        return context;
+    }
+
+    @Override
+    public Region getBoundingBox() {
+        return boundingBox;
+    }
+
+    @Override
+    public boolean mayContain(int x, int y, int z) {
+        int relX = x - translation.getX() - offset.getX();
+        int relY = y - translation.getY() - offset.getY();
+        int relZ = z - translation.getZ() - offset.getZ();
+        return storage.contains(transform.inverseX(relX, relY, relZ), transform.inverseY(relX, relY, relZ), transform.inverseZ(relX, relY, relZ));
+    }
+}
@@ -0,0 +1,158 @@
+package com.direwolf20.buildinggadgets.common.template;
+
+import com.direwolf20.buildinggadgets.common.building.BlockData;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.util.math.BlockPos;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The difference between two versions of a {@link Template}, which allows the other side to update a {@link Template} it already
+ * holds instead of receiving it completely. A diff consists of a transform, which is applied to the base first (after rotating
+ * or mirroring this is all there is to it), followed by block level changes on the normalized positions and the new header.
+ * <p>
+ * Both {@link Template#getContentHash() content hashes} are part of the diff, so that the receiver can check whether it holds
+ * the right base and whether applying the diff led to the expected result.
+ */
+public final class TemplateDiff {
+    private final long baseHash;
+    private final long targetHash;
+    private final TemplateTransform transform;
+    private final TemplateHeader header;
+    private final long[] removed;
+    private final long[] changedPositions;
+    private final BlockData[] changedData;
+
+    public static TemplateDiff between(Template base, Template target) {
+        TemplateTransform relative = target.getTransform().relativeTo(base.getTransform());
+        Template transformedBase = base.applyTransform(relative);
+        LongArrayList changedPositions = new LongArrayList();
+        List<BlockData> changedData = new ArrayList<>();
+        long[] removed;
+        if (transformedBase.sharesStorage(target)) //only the transform changed, no need to look at any block
+            removed = new long[0];
+        else {
+            Long2ObjectMap<BlockData> remaining = new Long2ObjectOpenHashMap<>(transformedBase.size());
+            transformedBase.forEachBlock((x, y, z, data) -> remaining.put(BlockPos.pack(x, y, z), data));
+            target.normalize().forEachBlock((x, y, z, data) -> {
+                long pos = BlockPos.pack(x, y, z);
+                if (! data.equals(remaining.remove(pos))) {
+                    changedPositions.add(pos);
+                    changedData.add(data);
+                }
+            });
+            removed = remaining.keySet().toLongArray();
+        }
+        return new TemplateDiff(base.getContentHash(), target.getContentHash(), relative, target.normalize().getHeader(),
+                removed, changedPositions.toLongArray(), changedData.toArray(new BlockData[0]));
+    }
+
+    public static TemplateDiff readFrom(PacketBuffer buffer) {
+        long baseHash = buffer.readLong();
+        long targetHash = buffer.readLong();
+        TemplateTransform transform = TemplateTransform.readFrom(buffer);
+        TemplateHeader header = TemplateHeader.builderFromNBT(buffer.readCompoundTag(), false).build();
+        long[] removed = new long[buffer.readVarInt()];
+        for (int i = 0; i < removed.length; i++)
+            removed[i] = buffer.readLong();
+        BlockData[] palette = new BlockData[buffer.readVarInt()];
+        for (int i = 0; i < palette.length; i++) {
+            BlockData data = BlockData.tryDeserialize(buffer.readCompoundTag(), false);
+            palette[i] = data != null ? data : BlockData.AIR;
+        }
+        long[] changedPositions = new long[buffer.readVarInt()];
+        BlockData[] changedData = new BlockData[changedPositions.length];
+        for (int i = 0; i < changedPositions.length; i++) {
+            changedPositions[i] = buffer.readLong();
+            int index = buffer.readVarInt();
+            if (index < 0 || index >= palette.length)
+                throw new IllegalArgumentException("Palette index " + index + " is out of range!");
+            changedData[i] = palette[index];
+        }
+        return new TemplateDiff(baseHash, targetHash, transform, header, removed, changedPositions, changedData);
+    }
+
+    private TemplateDiff(long baseHash, long targetHash, TemplateTransform transform, TemplateHeader header, long[] removed, long[] changedPositions, BlockData[] changedData) {
+        this.baseHash = baseHash;
+        this.targetHash = targetHash;
+        this.transform = transform;
+        this.header = header;
+        this.removed = removed;
+        this.changedPositions = changedPositions;
+        this.changedData = changedData;
+    }
+
+    public void writeTo(PacketBuffer buffer) {
+        buffer.writeLong(baseHash);
+        buffer.writeLong(targetHash);
+        transform.writeTo(buffer);
+        buffer.writeCompoundTag(header.toNBT(false));
+        buffer.writeVarInt(removed.length);
+        for (long pos : removed)
+            buffer.writeLong(pos);
+        Object2IntMap<BlockData> paletteIndices = new Object2IntOpenHashMap<>();
+        List<CompoundNBT> palette = new ArrayList<>();
+        int[] indices = new int[changedData.length];
+        for (int i = 0; i < changedData.length; i++) {
+            indices[i] = paletteIndices.computeIntIfAbsent(changedData[i], data -> {
+                palette.add(data.serialize(false));
+                return palette.size() - 1;
+            });
+        }
+        buffer.writeVarInt(palette.size());
+        for (CompoundNBT nbt : palette)
+            buffer.writeCompoundTag(nbt);
+        buffer.writeVarInt(changedPositions.length);
+        for (int i = 0; i < changedPositions.length; i++) {
+            buffer.writeLong(changedPositions[i]);
+            buffer.writeVarInt(indices[i]);
+        }
+    }
+
+    /**
+     * @return the resulting {@link Template}. Callers should check it's {@link Template#getContentHash() hash} against
+     *         {@link #getTargetHash()}, as block transforms may not behave identically on both sides.
+     * @throws IllegalArgumentException if the given {@link Template} isn't the base of this diff
+     */
+    public Template applyTo(Template base) {
+        if (base.getContentHash() != baseHash)
+            throw new IllegalArgumentException("Cannot apply diff to a Template which isn't it's base!");
+        Template transformed = base.applyTransform(transform);
+        if (removed.length == 0 && changedPositions.length == 0)
+            return transformed.withHeader(header);
+        Long2ObjectMap<BlockData> blocks = new Long2ObjectOpenHashMap<>(transformed.size() + changedPositions.length);
+        transformed.forEachBlock((x, y, z, data) -> blocks.put(BlockPos.pack(x, y, z), data));
+        for (long pos : removed)
+            blocks.remove(pos);
+        for (int i = 0; i < changedPositions.length; i++)
+            blocks.put(changedPositions[i], changedData[i]);
+        PaletteBlockStorage.Builder builder = PaletteBlockStorage.builder(blocks.size());
+        for (Long2ObjectMap.Entry<BlockData> entry : blocks.long2ObjectEntrySet()) {
+            long pos = entry.getLongKey();
+            builder.put(BlockPos.unpackX(pos), BlockPos.unpackY(pos), BlockPos.unpackZ(pos), entry.getValue());
+        }
+        return new Template(builder.build(), header);
+    }
+
+    public long getBaseHash() {
+        return baseHash;
+    }
+
+    public long getTargetHash() {
+        return targetHash;
+    }
+
+    /**
+     * @return the amount of blocks this diff changes or removes
+     */
+    public int size() {
+        return removed.length + changedPositions.length;
+    }
+}
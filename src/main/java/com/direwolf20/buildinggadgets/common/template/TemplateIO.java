@@ -13,10 +13,13 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
 import net.minecraft.nbt.CompoundNBT;
 import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraftforge.common.util.Constants.NBT;
 
 import javax.annotation.Nullable;
 import java.io.*;
 import java.util.Base64;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public final class TemplateIO {
     private static final Gson GSON = TemplateHeader.appendHeaderSpecification(new GsonBuilder(), false, true).create();
@@ -26,15 +29,83 @@ public final class TemplateIO {
         writeTemplate(template, stream, true);
     }
 
+    /**
+     * Writes the given {@link Template} in the gzip compressed binary format. The blocks are streamed to the given stream as
+     * they are iterated, so no nbt representation of the whole {@link Template} is ever created. The stream is not closed.
+     *
+     * @param template  the {@link Template} to write
+     * @param stream    the stream to write to
+     * @param persisted whether this is written to be persisted (f.e. to disk) or just transferred (f.e. to the client)
+     */
     public static void writeTemplate(Template template, OutputStream stream, boolean persisted) throws TemplateWriteException {
-        CompoundNBT nbt = template.serialize(persisted);
         try {
-            CompressedStreamTools.writeCompressed(nbt, stream);
+            GZIPOutputStream gzip = new GZIPOutputStream(stream);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gzip));
+            TemplateBinaryFormat.write(template, out, persisted);
+            out.flush();
+            gzip.finish();
+        } catch (IOException e) {
+            throw new DataCannotBeWrittenException(e, template.getHeader().toNBT(persisted));
+        }
+    }
+
+    /**
+     * Writes the given {@link Template} in the binary format without compressing it, for callers which compress the output
+     * themselves - f.e. the network layer, which compresses using {@link #createTransferDictionary()}.
+     *
+     * @see #writeTemplate(Template, OutputStream, boolean)
+     */
+    public static void writeTemplateUncompressed(Template template, DataOutput out, boolean persisted) throws TemplateWriteException {
+        try {
+            TemplateBinaryFormat.write(template, out, persisted);
         } catch (IOException e) {
-            throw new DataCannotBeWrittenException(e, nbt);
+            throw new DataCannotBeWrittenException(e, template.getHeader().toNBT(persisted));
         }
     }
 
+    /**
+     * Reads a {@link Template} written by {@link #writeTemplateUncompressed(Template, DataOutput, boolean)}.
+     */
+    public static Template readTemplateUncompressed(DataInput in, @Nullable TemplateHeader header, boolean persisted) throws TemplateReadException {
+        try {
+            return TemplateBinaryFormat.read(in, header, persisted);
+        } catch (IOException | RuntimeException e) {
+            throw new DataCannotBeReadException(e);
+        }
+    }
+
+    /**
+     * Creates a preset dictionary for compressing {@link Template Templates} written by {@link #writeTemplateUncompressed(Template, DataOutput, boolean)}.
+     * It contains the nbt keys and the names and properties of commonly used blocks, encoded the way nbt encodes strings,
+     * so that the palette compresses well even for small {@link Template Templates}. The most common strings come last, as
+     * they are the cheapest to refer to.
+     * <p>
+     * Both sides of a connection have to use the same dictionary, so this must only ever change together with the protocol.
+     */
+    public static byte[] createTransferDictionary() {
+        String[] strings = {
+                "persistent", "distance", "snowy", "lit", "open", "hinge", "left", "right", "powered", "in_wall", "attached",
+                "minecraft:glowstone", "minecraft:sea_lantern", "minecraft:terracotta", "minecraft:white_wool", "minecraft:gravel",
+                "minecraft:sand", "minecraft:water", "minecraft:oak_door", "minecraft:oak_fence", "minecraft:wall_torch",
+                "minecraft:torch", "minecraft:glass_pane", "minecraft:glass", "minecraft:quartz_block", "minecraft:smooth_stone",
+                "minecraft:sandstone", "minecraft:bricks", "minecraft:stone_bricks", "minecraft:oak_log", "minecraft:spruce_planks",
+                "minecraft:birch_planks", "minecraft:oak_planks", "minecraft:stone_brick_stairs", "minecraft:oak_stairs",
+                "minecraft:stone_slab", "minecraft:oak_slab", "minecraft:cobblestone", "minecraft:grass_block", "minecraft:dirt",
+                "minecraft:stone", "minecraft:air",
+                "straight", "inner_left", "inner_right", "outer_left", "outer_right", "shape", "double", "type", "axis",
+                "up", "down", "top", "bottom", "half", "north", "south", "east", "west", "facing", "true", "false", "waterlogged",
+                "Properties", "Name", "serializer", "data", "state"
+        };
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (String string : strings)
+                out.writeUTF(string);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
     /**
      * @see #readTemplate(InputStream, TemplateHeader, boolean)
      */
@@ -47,12 +118,19 @@ public final class TemplateIO {
      * @param persisted whether this was written as persisted.
      * @param header    The TemplateHeader if present. Null otherwise.
      * @return A TemplateItem if the serializer is known. Null if not.
-     * @throws IOException if a read error occurs or the read nbt does not match the format written by {@link #writeTemplate(Template, OutputStream, boolean)}
+     * @throws TemplateReadException if a read error occurs or the read data does not match the format written by {@link #writeTemplate(Template, OutputStream, boolean)}.
+     *                               Templates written as nbt by older versions can still be read.
      */
     public static Template readTemplate(InputStream stream, @Nullable TemplateHeader header, boolean persisted) throws TemplateReadException {
         try {
-            return readTemplate(CompressedStreamTools.readCompressed(stream), header, persisted);
-        } catch (IOException e) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(stream)));
+            in.mark(1);
+            boolean legacy = in.read() == NBT.TAG_COMPOUND;
+            in.reset();
+            if (legacy) //Templates written before the binary format was introduced
+                return readTemplate(CompressedStreamTools.read(in), header, persisted);
+            return TemplateBinaryFormat.read(in, header, persisted);
+        } catch (IOException | RuntimeException e) {
             throw new DataCannotBeReadException(e);
         }
     }
@@ -132,13 +210,11 @@ public final class TemplateIO {
 
         private Template getTemplate() throws TemplateReadException {
             byte[] bytes = Base64.getDecoder().decode(body);
-            CompoundNBT nbt;
             try {
-                nbt = CompressedStreamTools.readCompressed(new ByteArrayInputStream(bytes));
-            } catch (IOException e) {
+                return readTemplate(new ByteArrayInputStream(bytes), header, true);
+            } catch (DataCannotBeReadException e) {
                 throw new CorruptDataException(e, body);
             }
-            return Template.deserialize(nbt, header, true);
         }
     }
 }
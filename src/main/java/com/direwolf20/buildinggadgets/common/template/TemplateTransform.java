@@ -0,0 +1,182 @@
+package com.direwolf20.buildinggadgets.common.template;
+
+import com.direwolf20.buildinggadgets.common.building.BlockData;
+import com.direwolf20.buildinggadgets.common.building.Region;
+import com.direwolf20.buildinggadgets.common.util.tools.MathUtils;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.util.Direction.Axis;
+import net.minecraft.util.Mirror;
+import net.minecraft.util.Rotation;
+
+/**
+ * An immutable composition of rotations and mirrors, which can be applied to the positions and {@link BlockData} of a
+ * {@link Template} on the fly. Composing transforms only multiplies 3x3 matrices, so rotating or mirroring a {@link Template}
+ * repeatedly doesn't need to touch a single block.
+ * <p>
+ * Positions are transformed by an orthogonal integer matrix. {@link BlockData} is transformed by first optionally mirroring
+ * it {@link Mirror#FRONT_BACK front to back} and then rotating it around the y-Axis, which is enough to represent any combination
+ * of y-Axis rotations and mirrors. Rotations around the x- and z-Axis do not affect the {@link BlockData}, as
+ * {@link net.minecraft.block.BlockState BlockStates} can only be rotated around the y-Axis.
+ */
+public final class TemplateTransform {
+    public static final TemplateTransform IDENTITY = new TemplateTransform(new int[]{1, 0, 0, 0, 1, 0, 0, 0, 1}, false, Rotation.NONE);
+
+    //row-major 3x3 matrix
+    private final int[] matrix;
+    private final boolean mirrored;
+    private final Rotation rotation;
+
+    private TemplateTransform(int[] matrix, boolean mirrored, Rotation rotation) {
+        this.matrix = matrix;
+        this.mirrored = mirrored;
+        this.rotation = rotation;
+    }
+
+    public boolean isIdentity() {
+        return this == IDENTITY || (! mirrored && rotation == Rotation.NONE &&
+                matrix[0] == 1 && matrix[4] == 1 && matrix[8] == 1 &&
+                matrix[1] == 0 && matrix[2] == 0 && matrix[3] == 0 && matrix[5] == 0 && matrix[6] == 0 && matrix[7] == 0);
+    }
+
+    public TemplateTransform rotate(Axis axis, Rotation rot) {
+        int[][] rotMatrix = MathUtils.rotationMatrixFor(axis, rot);
+        int[] res = new int[9];
+        for (int row = 0; row < 3; row++) {
+            for (int col = 0; col < 3; col++)
+                res[row * 3 + col] = rotMatrix[row][0] * matrix[col] + rotMatrix[row][1] * matrix[3 + col] + rotMatrix[row][2] * matrix[6 + col];
+        }
+        return new TemplateTransform(res, mirrored, axis == Axis.Y ? rotation.add(rot) : rotation);
+    }
+
+    /**
+     * @param axis the axis along which to mirror, as passed to {@link Template#mirror(Axis)}
+     * @return the composed transform. Mirroring along the y-Axis is not supported and returns this transform unchanged.
+     */
+    public TemplateTransform mirror(Axis axis) {
+        int xFac;
+        int zFac;
+        Rotation extraRotation;
+        switch (axis) {
+            case X: //mirrors z => Mirror.LEFT_RIGHT, which equals FRONT_BACK followed by a 180 degree rotation
+                xFac = 1;
+                zFac = - 1;
+                extraRotation = Rotation.CLOCKWISE_180;
+                break;
+            case Z: //mirrors x => Mirror.FRONT_BACK
+                xFac = - 1;
+                zFac = 1;
+                extraRotation = Rotation.NONE;
+                break;
+            default:
+                return this;
+        }
+        int[] res = matrix.clone();
+        for (int col = 0; col < 3; col++) {
+            res[col] *= xFac;
+            res[6 + col] *= zFac;
+        }
+        //FRONT_BACK o rot = rot^-1 o FRONT_BACK, so mirroring after the current transform inverts the current rotation
+        return new TemplateTransform(res, ! mirrored, extraRotation.add(inverse(rotation)));
+    }
+
+    /**
+     * @param after the transform to apply after this one
+     * @return the transform equivalent to first applying this and then the given transform
+     */
+    public TemplateTransform andThen(TemplateTransform after) {
+        int[] res = new int[9];
+        for (int row = 0; row < 3; row++) {
+            for (int col = 0; col < 3; col++)
+                res[row * 3 + col] = after.matrix[row * 3] * matrix[col] + after.matrix[row * 3 + 1] * matrix[3 + col] + after.matrix[row * 3 + 2] * matrix[6 + col];
+        }
+        //FRONT_BACK o rot = rot^-1 o FRONT_BACK
+        Rotation rot = after.mirrored ? after.rotation.add(inverse(rotation)) : after.rotation.add(rotation);
+        return new TemplateTransform(res, mirrored != after.mirrored, rot);
+    }
+
+    /**
+     * @param base the transform to start from
+     * @return the transform {@code r}, for which {@code base.andThen(r)} equals this transform
+     */
+    public TemplateTransform relativeTo(TemplateTransform base) {
+        int[] res = new int[9];
+        for (int row = 0; row < 3; row++) { //this * base^-1, where base^-1 is the transpose of base
+            for (int col = 0; col < 3; col++)
+                res[row * 3 + col] = matrix[row * 3] * base.matrix[col * 3] + matrix[row * 3 + 1] * base.matrix[col * 3 + 1] + matrix[row * 3 + 2] * base.matrix[col * 3 + 2];
+        }
+        boolean resMirrored = mirrored != base.mirrored;
+        Rotation rot = resMirrored ? rotation.add(base.rotation) : rotation.add(inverse(base.rotation));
+        return new TemplateTransform(res, resMirrored, rot);
+    }
+
+    void writeTo(PacketBuffer buffer) {
+        for (int entry : matrix)
+            buffer.writeByte(entry);
+        buffer.writeBoolean(mirrored);
+        buffer.writeByte(rotation.ordinal());
+    }
+
+    static TemplateTransform readFrom(PacketBuffer buffer) {
+        int[] matrix = new int[9];
+        for (int i = 0; i < matrix.length; i++) {
+            matrix[i] = buffer.readByte();
+            if (matrix[i] < - 1 || matrix[i] > 1)
+                throw new IllegalArgumentException("Invalid transform matrix entry " + matrix[i] + "!");
+        }
+        boolean mirrored = buffer.readBoolean();
+        int rotation = buffer.readByte();
+        if (rotation < 0 || rotation >= Rotation.values().length)
+            throw new IllegalArgumentException("Invalid rotation " + rotation + "!");
+        return new TemplateTransform(matrix, mirrored, Rotation.values()[rotation]);
+    }
+
+    public int transformX(int x, int y, int z) {
+        return matrix[0] * x + matrix[1] * y + matrix[2] * z;
+    }
+
+    public int transformY(int x, int y, int z) {
+        return matrix[3] * x + matrix[4] * y + matrix[5] * z;
+    }
+
+    public int transformZ(int x, int y, int z) {
+        return matrix[6] * x + matrix[7] * y + matrix[8] * z;
+    }
+
+    //the matrix is orthogonal, therefore it's inverse is it's transpose
+    public int inverseX(int x, int y, int z) {
+        return matrix[0] * x + matrix[3] * y + matrix[6] * z;
+    }
+
+    public int inverseY(int x, int y, int z) {
+        return matrix[1] * x + matrix[4] * y + matrix[7] * z;
+    }
+
+    public int inverseZ(int x, int y, int z) {
+        return matrix[2] * x + matrix[5] * y + matrix[8] * z;
+    }
+
+    public BlockData transformData(BlockData data) {
+        BlockData res = mirrored ? data.mirror(Mirror.FRONT_BACK) : data;
+        return rotation != Rotation.NONE ? res.rotate(rotation) : res;
+    }
+
+    /**
+     * @param region the {@link Region} to transform
+     * @return the smallest {@link Region} enclosing the transformed corners of the given {@link Region}
+     */
+    public Region transform(Region region) {
+        int x1 = transformX(region.getMinX(), region.getMinY(), region.getMinZ());
+        int y1 = transformY(region.getMinX(), region.getMinY(), region.getMinZ());
+        int z1 = transformZ(region.getMinX(), region.getMinY(), region.getMinZ());
+        int x2 = transformX(region.getMaxX(), region.getMaxY(), region.getMaxZ());
+        int y2 = transformY(region.getMaxX(), region.getMaxY(), region.getMaxZ());
+        int z2 = transformZ(region.getMaxX(), region.getMaxY(), region.getMaxZ());
+        //as the matrix only permutes and negates axis, the corners min and max are mapped to opposite corners
+        return new Region(Math.min(x1, x2), Math.min(y1, y2), Math.min(z1, z2), Math.max(x1, x2), Math.max(y1, y2), Math.max(z1, z2));
+    }
+
+    private static Rotation inverse(Rotation rot) {
+        //rot^4 = identity => rot^3 = rot^-1
+        return rot.add(rot).add(rot);
+    }
+}
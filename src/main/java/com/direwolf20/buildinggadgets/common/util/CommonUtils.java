@@ -142,6 +142,39 @@ public final class CommonUtils {
         };
     }
 
+    /**
+     * @return a view of the given sequence, which only contains the positions matching the predicate. The predicate is evaluated
+     *         lazily, while iterating over the result.
+     */
+    public static IPositionPlacementSequence filterPositions(final IPositionPlacementSequence sequence, Predicate<BlockPos> predicate) {
+        return new IPositionPlacementSequence() {
+            @Override
+            public Spliterator<BlockPos> spliterator() {
+                return new FilterSpliterator<>(sequence.spliterator(), predicate);
+            }
+
+            @Override
+            public Iterator<BlockPos> iterator() {
+                return Spliterators.iterator(spliterator());
+            }
+
+            @Override
+            public IPositionPlacementSequence copy() {
+                return filterPositions(sequence, predicate);
+            }
+
+            @Override
+            public Region getBoundingBox() {
+                return sequence.getBoundingBox();
+            }
+
+            @Override
+            public boolean mayContain(int x, int y, int z) {
+                return sequence.mayContain(x, y, z);
+            }
+        };
+    }
+
     public static BlockRayTraceResult fakeRayTrace(Vec3d simulatePos, BlockPos pos) {
         return fakeRayTrace(simulatePos.getX(), simulatePos.getY(), simulatePos.getZ(), pos);
     }
@@ -157,15 +190,22 @@ public final class CommonUtils {
         return estimateRequiredItems(buildView, context, player != null ? new Vec3d(player.posX, player.posY, player.posZ) : null);
     }
 
+    /**
+     * Evaluates sequentially on the calling thread, which must be allowed to access the context's world: materials are evaluated
+     * by Block and TileEntity code, which isn't thread safe.
+     */
     public static MaterialList estimateRequiredItems(Iterable<PlacementTarget> buildView, IBuildContext context, @Nullable Vec3d simulatePos) {
         MaterialList.SubEntryBuilder builder = MaterialList.andBuilder();
-        for (PlacementTarget placementTarget : buildView) {
-            BlockRayTraceResult target = simulatePos != null ? CommonUtils.fakeRayTrace(simulatePos, placementTarget.getPos()) : null;
-            builder.add(placementTarget.getRequiredMaterials(context, target));
-        }
+        for (PlacementTarget placementTarget : buildView)
+            builder.add(getRequiredMaterials(placementTarget, context, simulatePos));
         return builder.build();
     }
 
+    public static MaterialList getRequiredMaterials(PlacementTarget placementTarget, IBuildContext context, @Nullable Vec3d simulatePos) {
+        BlockRayTraceResult target = simulatePos != null ? CommonUtils.fakeRayTrace(simulatePos, placementTarget.getPos()) : null;
+        return placementTarget.getRequiredMaterials(context, target);
+    }
+
     public static ImmutableMap<BlockPos, BlockData> targetsToMap(Iterable<PlacementTarget> iterable) {
         return StreamSupport.stream(iterable.spliterator(), false).collect(ImmutableMap.toImmutableMap(PlacementTarget::getPos, PlacementTarget::getData));
     }
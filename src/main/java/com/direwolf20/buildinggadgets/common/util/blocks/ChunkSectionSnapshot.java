@@ -0,0 +1,137 @@
+package com.direwolf20.buildinggadgets.common.util.blocks;
+
+import com.direwolf20.buildinggadgets.common.building.BlockData;
+import com.direwolf20.buildinggadgets.common.building.Region;
+import com.google.common.collect.ImmutableMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.IChunk;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * An immutable copy of the part of one 16x16x16 chunk section, which intersects a given {@link Region}. The states are stored as
+ * {@code short} indices into a section local palette, so that capturing a section is not much more then copying it's contents.
+ * <p>
+ * Positions which contain a {@link net.minecraft.tileentity.TileEntity} cannot be evaluated without the world, therefore their
+ * {@link BlockData} has to be created whilst capturing (on the Server thread) and is stored separately.
+ * <p>
+ * Once captured, a snapshot no longer references the world and may be read from any thread.
+ */
+public final class ChunkSectionSnapshot {
+    private static final int SECTION_SIZE = 16;
+    private static final BlockState AIR = Blocks.AIR.getDefaultState();
+
+    /**
+     * Captures the part of the section at the given section coordinates, which intersects the given {@link Region}.
+     *
+     * @param chunk           the chunk containing the section
+     * @param sectionY        the section's y-coordinate (block y >> 4)
+     * @param region          the region to capture
+     * @param tileDataFactory factory used to create the {@link BlockData} for positions with a {@link net.minecraft.tileentity.TileEntity}.
+     *                        May return null, to exclude the position.
+     * @return the captured snapshot
+     */
+    public static ChunkSectionSnapshot capture(IChunk chunk, int sectionY, Region region, Function<BlockPos, BlockData> tileDataFactory) {
+        int originX = chunk.getPos().getXStart();
+        int originY = sectionY << 4;
+        int originZ = chunk.getPos().getZStart();
+        Region bounds = new Region(
+                Math.max(originX, region.getMinX()), Math.max(originY, region.getMinY()), Math.max(originZ, region.getMinZ()),
+                Math.min(originX + SECTION_SIZE - 1, region.getMaxX()), Math.min(originY + SECTION_SIZE - 1, region.getMaxY()), Math.min(originZ + SECTION_SIZE - 1, region.getMaxZ()));
+        ChunkSection[] sections = chunk.getSections();
+        ChunkSection section = sectionY >= 0 && sectionY < sections.length ? sections[sectionY] : null;
+        ImmutableMap.Builder<BlockPos, BlockData> tileData = ImmutableMap.builder();
+        for (BlockPos pos : chunk.getTileEntitiesPos()) {
+            if (bounds.contains(pos)) {
+                BlockData data = tileDataFactory.apply(pos);
+                tileData.put(pos.toImmutable(), data != null ? data : BlockData.AIR);
+            }
+        }
+        if (section == null || section.isEmpty())
+            return new ChunkSectionSnapshot(bounds, null, null, tileData.build());
+        List<BlockState> palette = new ArrayList<>();
+        Reference2IntMap<BlockState> paletteLookup = new Reference2IntOpenHashMap<>();
+        short[] data = new short[bounds.size()];
+        BlockState lastState = null;
+        int lastIndex = - 1;
+        int i = 0;
+        for (int y = bounds.getMinY(); y <= bounds.getMaxY(); y++) {
+            for (int z = bounds.getMinZ(); z <= bounds.getMaxZ(); z++) {
+                for (int x = bounds.getMinX(); x <= bounds.getMaxX(); x++) {
+                    BlockState state = section.getBlockState(x & 15, y & 15, z & 15);
+                    //neighbouring blocks are very likely to be the same, so avoid the lookup in that case
+                    if (state != lastState) {
+                        lastState = state;
+                        lastIndex = paletteLookup.computeIntIfAbsent(state, s -> {
+                            palette.add(s);
+                            return palette.size() - 1;
+                        });
+                    }
+                    data[i++] = (short) lastIndex;
+                }
+            }
+        }
+        return new ChunkSectionSnapshot(bounds, palette.toArray(new BlockState[0]), data, tileData.build());
+    }
+
+    private final Region bounds;
+    @Nullable
+    private final BlockState[] palette;
+    @Nullable
+    private final short[] data;
+    private final ImmutableMap<BlockPos, BlockData> tileData;
+
+    private ChunkSectionSnapshot(Region bounds, @Nullable BlockState[] palette, @Nullable short[] data, ImmutableMap<BlockPos, BlockData> tileData) {
+        this.bounds = bounds;
+        this.palette = palette;
+        this.data = data;
+        this.tileData = tileData;
+    }
+
+    /**
+     * @return the part of the captured section, which intersected the region it was captured for
+     */
+    public Region getBounds() {
+        return bounds;
+    }
+
+    /**
+     * @return whether or not this section contained only air, when it was captured
+     */
+    public boolean isEmpty() {
+        return data == null && tileData.isEmpty();
+    }
+
+    /**
+     * @return the {@link BlockData} created for all positions in this snapshot, which had a {@link net.minecraft.tileentity.TileEntity}
+     */
+    public Map<BlockPos, BlockData> getTileData() {
+        return tileData;
+    }
+
+    public boolean hasTileData(BlockPos pos) {
+        return tileData.containsKey(pos);
+    }
+
+    /**
+     * @param x the x-coordinate, must be within {@link #getBounds()}
+     * @param y the y-coordinate, must be within {@link #getBounds()}
+     * @param z the z-coordinate, must be within {@link #getBounds()}
+     * @return the {@link BlockState} at the given position, when this snapshot was captured
+     */
+    public BlockState getBlockState(int x, int y, int z) {
+        if (data == null)
+            return AIR;
+        int index = ((y - bounds.getMinY()) * bounds.getZSize() + (z - bounds.getMinZ())) * bounds.getXSize() + (x - bounds.getMinX());
+        return palette[data[index]];
+    }
+}
@@ -0,0 +1,71 @@
+package com.direwolf20.buildinggadgets.common.util.compression;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Variable length encoding of integers, using 7 bits per byte with the highest bit marking that another byte follows.
+ * This is the same encoding {@link net.minecraft.network.PacketBuffer#writeVarInt(int)} uses, but works on plain
+ * {@link DataOutput DataOutputs} instead of Netty buffers.
+ * <p>
+ * Signed values which may be negative should be passed through {@link #zigZag(int)} first, so that small negative
+ * values also only take up a few bytes.
+ */
+public final class VarInts {
+    private VarInts() {}
+
+    public static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~ 0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static int readVarInt(DataInput in) throws IOException {
+        int res = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.readByte();
+            res |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return res;
+        }
+        throw new IOException("VarInt is too big!");
+    }
+
+    public static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~ 0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    public static long readVarLong(DataInput in) throws IOException {
+        long res = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = in.readByte();
+            res |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return res;
+        }
+        throw new IOException("VarLong is too big!");
+    }
+
+    public static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    public static int unZigZag(int value) {
+        return (value >>> 1) ^ - (value & 1);
+    }
+
+    public static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public static long unZigZag(long value) {
+        return (value >>> 1) ^ - (value & 1);
+    }
+}
@@ -73,6 +73,17 @@ public class NBTHelper {
         return toAppendTo;
     }
 
+    public static <V> Map<UUID, V> deserializeUUIDMap(ListNBT list, Map<UUID, V> toAppendTo, BiFunction<UUID, INBT, ? extends V> valueDeserializer) {
+        for (INBT nbt : list) {
+            if (nbt instanceof CompoundNBT) {
+                CompoundNBT compound = (CompoundNBT) nbt;
+                UUID id = compound.getUniqueId(NBTKeys.MAP_SERIALIZE_KEY);
+                toAppendTo.put(id, valueDeserializer.apply(id, compound.get(NBTKeys.MAP_SERIALIZE_VALUE)));
+            }
+        }
+        return toAppendTo;
+    }
+
     public static <T, C extends Collection<T>> C deserializeCollection(ListNBT list, C toAppendTo, Function<INBT, ? extends T> elementDeserializer) {
         for (INBT nbt : list) {
             toAppendTo.add(elementDeserializer.apply(nbt));
@@ -14,7 +14,11 @@ public enum CommandTranslation implements ITranslationProvider {
     OVERRIDE_COPY_SIZE_LIST("override_copy_size.list", 2),
     OVERRIDE_BUILD_SIZE_NO_PLAYER("override_build_size.no_player", 0),
     OVERRIDE_BUILD_SIZE_TOGGLED("override_build_size.toggled", 2),
-    OVERRIDE_BUILD_SIZE_LIST("override_build_size.list", 2);
+    OVERRIDE_BUILD_SIZE_LIST("override_build_size.list", 2),
+    JOBS_NONE("jobs.none", 0),
+    JOBS_LIST("jobs.list", 4),
+    JOBS_NOT_FOUND("jobs.not_found", 1),
+    JOBS_CANCELLED("jobs.cancelled", 2);
     private static final String PREFIX = Reference.MODID + ".commands.";
     private final String key;
     private final int argCount;
@@ -17,6 +17,7 @@ public enum GuiTranslation implements ITranslationProvider {
     BUTTON_COPY("tm.button.copy"),
     BUTTON_PASTE("tm.button.paste"),
     TEMPLATE_NAME_TIP("tm.name_field.text"),
+    TEMPLATE_RECEIVING("tm.receiving", 1),
 
     COPY_BUTTON_ABSOLUTE("copy.button.absolute"),
     COPY_LABEL_HEADING("copy.label.heading"),
@@ -100,7 +100,15 @@ public final class NBTKeys {
     public static final String WORLD_SAVE_TAG = "tag";
     public static final String WORD_SAVE_DATA_MAP = "data_map";
     public static final String WORLD_SAVE_TIME = "time";
+    public static final String WORLD_SAVE_SIZE = "size";
+    public static final String WORLD_SAVE_VERSION = "version";
+    public static final String WORLD_SAVE_BLOB = "blob";
     public static final String WORLD_SAVE_UNDO_HISTORY = "undo_history";
+    public static final String WORLD_SAVE_UNDO_HEAD = "undo_head";
+    public static final String WORLD_SAVE_UNDO_SPILL_OFFSETS = "spill_offsets";
+    public static final String WORLD_SAVE_UNDO_SPILL_END = "spill_end";
+    public static final String WORLD_SAVE_UNDO_SPILL_CHECKSUMS = "spill_checksums";
+    public static final String WORLD_SAVE_UNDO_PENDING = "undo_pending";
     public static final String WORLD_SAVE_DIM = "dim";
     public static final String WORLD_SAVE_UNDO_BLOCK_LIST = "block_list";
     public static final String WORLD_SAVE_UNDO_DATA_LIST = "data_list";
@@ -112,6 +120,7 @@ public final class NBTKeys {
     public static final String WORLD_SAVE_UNDO_ITEMS_USED = "used_items";
     public static final String WORLD_SAVE_UNDO_ITEMS_PRODUCED = "produced_items";
     public static final String WORLD_SAVE_UNDO_BOUNDS = "bounding_box";
+    public static final String WORLD_SAVE_UNDO_POSITIONS = "positions";
 
     public static final String REMOTE_INVENTORY_POS = "bound_te_pos";
     public static final String REMOTE_INVENTORY_DIM = "bound_te_dim";
@@ -23,17 +23,30 @@ public final class MathUtils {
      * @return BlockPos to a long
      */
     public static long posToLong(BlockPos pos) {
-        long res = (long) (pos.getX() & B2_BYTE_MASK) << 24;
-        res |= (pos.getY() & B1_BYTE_MASK) << 16; // y-Positions are in [0,255] inclusive
-        res |= (pos.getZ() & B2_BYTE_MASK);
+        return posToLong(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    public static long posToLong(int x, int y, int z) {
+        long res = (long) (x & B2_BYTE_MASK) << 24;
+        res |= (y & B1_BYTE_MASK) << 16; // y-Positions are in [0,255] inclusive
+        res |= (z & B2_BYTE_MASK);
         return res;
     }
 
     public static BlockPos posFromLong(long serialized) {
-        int x = (int) ((serialized >> 24) & B2_BYTE_MASK);
-        int y = (int) ((serialized >> 16) & B1_BYTE_MASK);
-        int z = (int) (serialized & B2_BYTE_MASK);
-        return new BlockPos(x, y, z);
+        return new BlockPos(xFromLong(serialized), yFromLong(serialized), zFromLong(serialized));
+    }
+
+    public static int xFromLong(long serialized) {
+        return (int) ((serialized >> 24) & B2_BYTE_MASK);
+    }
+
+    public static int yFromLong(long serialized) {
+        return (int) ((serialized >> 16) & B1_BYTE_MASK);
+    }
+
+    public static int zFromLong(long serialized) {
+        return (int) (serialized & B2_BYTE_MASK);
     }
 
     public static long includeStateId(long serialized, int id) {
@@ -0,0 +1,149 @@
+package com.direwolf20.buildinggadgets.common.world;
+
+import com.direwolf20.buildinggadgets.common.building.Region;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.fluid.IFluidState;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.IBlockReader;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldType;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.EmptyChunk;
+import net.minecraft.world.chunk.IChunk;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * Reads {@link BlockState BlockStates} within a {@link Region} of a {@link World}, resolving each chunk of the {@link Region} only
+ * once and remembering the last {@link ChunkSection} read from. {@link World#getBlockState(BlockPos)} goes through the chunk provider
+ * for every single position, which adds up when iterating over large {@link Region Regions} - this reads most positions directly
+ * from the section's palette instead.
+ * <p>
+ * Chunks are loaded just like {@link World#getBlockState(BlockPos)} would. Positions outside of the {@link Region} and
+ * {@link TileEntity TileEntities} are always read from the {@link World}. Chunks are only unloaded whilst the {@link World} ticks,
+ * so everything cached is dropped once the {@link World#getGameTime() game time} changed - this way instances may be kept by
+ * operations spanning multiple ticks without reading from unloaded chunks. They may be shared between threads as far as the
+ * {@link World} allows it: the cached state is only ever replaced as a whole.
+ */
+@MethodsReturnNonnullByDefault
+public final class RegionBlockReader implements IBlockReader {
+    /**
+     * @return a {@link RegionBlockReader} if the given reader is a {@link World}, or the given reader itself otherwise, as any other
+     *         {@link IBlockReader} (f.e. a {@link FakeDelegationWorld}) may be overriding the states in it's chunks
+     */
+    public static IBlockReader of(IBlockReader world, Region region) {
+        if (world instanceof World && ((World) world).getWorldType() != WorldType.DEBUG_ALL_BLOCK_STATES)
+            return new RegionBlockReader((World) world, region);
+        return world;
+    }
+
+    private final World world;
+    private final int minChunkX;
+    private final int minChunkZ;
+    private final int chunksZ;
+    private final Region region;
+    private final IChunk[] chunks;
+    @Nullable
+    private CachedSection lastSection;
+    private long cacheTime;
+
+    private RegionBlockReader(World world, Region region) {
+        this.world = world;
+        this.region = region;
+        this.minChunkX = region.getMinX() >> 4;
+        this.minChunkZ = region.getMinZ() >> 4;
+        this.chunksZ = (region.getMaxZ() >> 4) - minChunkZ + 1;
+        this.chunks = new IChunk[((region.getMaxX() >> 4) - minChunkX + 1) * chunksZ];
+        this.lastSection = null;
+        this.cacheTime = world.getGameTime();
+    }
+
+    public BlockState getBlockState(int x, int y, int z) {
+        if (y < 0 || y >= world.getHeight())
+            return Blocks.VOID_AIR.getDefaultState();
+        if (! region.contains(x, y, z))
+            return world.getBlockState(new BlockPos(x, y, z));
+        invalidateIfStale();
+        CachedSection section = lastSection;
+        if (section != null && section.contains(x, y, z))
+            return section.getBlockState(x, y, z);
+        IChunk chunk = getChunk(x >> 4, z >> 4);
+        if (! (chunk instanceof Chunk) || chunk instanceof EmptyChunk) //not a regular chunk, let it figure it out
+            return chunk.getBlockState(new BlockPos(x, y, z));
+        ChunkSection[] sections = chunk.getSections();
+        ChunkSection chunkSection = (y >> 4) < sections.length ? sections[y >> 4] : null;
+        //empty sections are replaced once a block is set in them, so don't hold on to them
+        if (ChunkSection.isEmpty(chunkSection))
+            return Blocks.AIR.getDefaultState();
+        section = new CachedSection(x >> 4, y >> 4, z >> 4, chunkSection);
+        lastSection = section;
+        return section.getBlockState(x, y, z);
+    }
+
+    @Override
+    public BlockState getBlockState(BlockPos pos) {
+        return getBlockState(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    @Nullable
+    @Override
+    public TileEntity getTileEntity(BlockPos pos) {
+        return world.getTileEntity(pos);
+    }
+
+    @Override
+    public IFluidState getFluidState(BlockPos pos) {
+        return getBlockState(pos).getFluidState();
+    }
+
+    @Override
+    public int getHeight() {
+        return world.getHeight();
+    }
+
+    private void invalidateIfStale() {
+        long time = world.getGameTime();
+        if (time != cacheTime) {
+            lastSection = null;
+            Arrays.fill(chunks, null);
+            cacheTime = time;
+        }
+    }
+
+    private IChunk getChunk(int chunkX, int chunkZ) {
+        int index = (chunkX - minChunkX) * chunksZ + (chunkZ - minChunkZ);
+        IChunk chunk = chunks[index];
+        if (chunk == null) {
+            chunk = world.getChunk(chunkX, chunkZ);
+            chunks[index] = chunk;
+        }
+        return chunk;
+    }
+
+    private static final class CachedSection {
+        private final int chunkX;
+        private final int sectionY;
+        private final int chunkZ;
+        private final ChunkSection section;
+
+        private CachedSection(int chunkX, int sectionY, int chunkZ, ChunkSection section) {
+            this.chunkX = chunkX;
+            this.sectionY = sectionY;
+            this.chunkZ = chunkZ;
+            this.section = section;
+        }
+
+        private boolean contains(int x, int y, int z) {
+            return x >> 4 == chunkX && y >> 4 == sectionY && z >> 4 == chunkZ;
+        }
+
+        private BlockState getBlockState(int x, int y, int z) {
+            return section.getBlockState(x & 15, y & 15, z & 15);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.direwolf20.buildinggadgets.test.building.placementTests;
+
+import com.direwolf20.buildinggadgets.common.building.Region;
+import com.direwolf20.buildinggadgets.common.building.placement.IPositionPlacementSequence;
+import com.direwolf20.buildinggadgets.common.util.CommonUtils;
+import net.minecraft.util.math.BlockPos;
+import org.junit.jupiter.api.Test;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class FilteredSequenceTest {
+
+    @Test
+    void filterShouldOnlyYieldMatchingPositions() {
+        Region region = new Region(0, 0, 0, 3, 3, 3);
+        IPositionPlacementSequence filtered = CommonUtils.filterPositions(region, pos -> pos.getY() == 1);
+        List<BlockPos> expected = region.stream().filter(pos -> pos.getY() == 1).collect(Collectors.toList());
+        assertEquals(expected, filtered.stream().collect(Collectors.toList()));
+        assertEquals(region, filtered.getBoundingBox());
+    }
+
+    @Test
+    void filterShouldBeEvaluatedLazily() {
+        Region region = new Region(0, 0, 0, 3, 3, 3);
+        int[] tested = {0};
+        IPositionPlacementSequence filtered = CommonUtils.filterPositions(region, pos -> {
+            tested[0]++;
+            return true;
+        });
+        Iterator<BlockPos> it = filtered.iterator();
+        assertEquals(0, tested[0]);
+        it.next();
+        assertEquals(1, tested[0]);
+    }
+
+}
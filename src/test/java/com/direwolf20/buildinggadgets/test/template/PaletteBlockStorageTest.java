@@ -0,0 +1,111 @@
+package com.direwolf20.buildinggadgets.test.template;
+
+import com.direwolf20.buildinggadgets.common.building.BlockData;
+import com.direwolf20.buildinggadgets.common.building.PlacementTarget;
+import com.direwolf20.buildinggadgets.common.building.tilesupport.TileSupport;
+import com.direwolf20.buildinggadgets.common.template.PaletteBlockStorage;
+import com.direwolf20.buildinggadgets.test.util.UniqueBlockState;
+import com.direwolf20.buildinggadgets.test.util.annotations.MediumTest;
+import net.minecraft.util.math.BlockPos;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.stream.StreamSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PaletteBlockStorageTest {
+    private static final BlockData[] DATA = new BlockData[] {
+            new BlockData(UniqueBlockState.createNew(), TileSupport.dummyTileEntityData()),
+            new BlockData(UniqueBlockState.createNew(), TileSupport.dummyTileEntityData()),
+            new BlockData(UniqueBlockState.createNew(), TileSupport.dummyTileEntityData())
+    };
+    private final Random random = new Random();
+
+    @Test
+    void filledCubeShouldBeStoredDense() {
+        PaletteBlockStorage storage = PaletteBlockStorage.of(createCube(8));
+        assertTrue(storage.isDense());
+        assertEquals(8 * 8 * 8, storage.size());
+    }
+
+    @Test
+    void distantPositionsShouldBeStoredSparse() {
+        Map<BlockPos, BlockData> map = new HashMap<>();
+        map.put(new BlockPos(0, 0, 0), DATA[0]);
+        map.put(new BlockPos(1000, 200, - 1000), DATA[1]);
+        PaletteBlockStorage storage = PaletteBlockStorage.of(map);
+        assertFalse(storage.isDense());
+        assertEquals(2, storage.size());
+    }
+
+    @MediumTest
+    void denseStorageShouldContainAllPutEntries() {
+        Map<BlockPos, BlockData> map = createCube(16);
+        assertContainsExactly(map, PaletteBlockStorage.of(map));
+    }
+
+    @MediumTest
+    void sparseStorageShouldContainAllPutEntries() {
+        Map<BlockPos, BlockData> map = new HashMap<>();
+        for (int i = 0; i < 256; i++)
+            map.put(new BlockPos(random.nextInt(4096) - 2048, random.nextInt(256), random.nextInt(4096) - 2048), DATA[random.nextInt(DATA.length)]);
+        PaletteBlockStorage storage = PaletteBlockStorage.of(map);
+        assertFalse(storage.isDense());
+        assertContainsExactly(map, storage);
+    }
+
+    @Test
+    void laterPutShouldOverrideEarlierPut() {
+        PaletteBlockStorage storage = PaletteBlockStorage.builder()
+                .put(0, 0, 0, DATA[0])
+                .put(5000, 0, 0, DATA[1])
+                .put(0, 0, 0, DATA[2])
+                .build();
+        assertEquals(2, storage.size());
+        assertEquals(DATA[2], storage.get(0, 0, 0));
+    }
+
+    @Test
+    void translateShouldMoveAllPositions() {
+        Map<BlockPos, BlockData> map = createCube(4);
+        PaletteBlockStorage translated = PaletteBlockStorage.of(map).translate(10, - 5, 3);
+        Map<BlockPos, BlockData> expected = new HashMap<>();
+        map.forEach((pos, data) -> expected.put(pos.add(10, - 5, 3), data));
+        assertContainsExactly(expected, translated);
+    }
+
+    @Test
+    void splitSpliteratorsShouldCoverAllPositions() {
+        Map<BlockPos, BlockData> map = createCube(16);
+        Spliterator<PlacementTarget> first = PaletteBlockStorage.of(map).spliterator(BlockPos.ZERO);
+        Spliterator<PlacementTarget> second = first.trySplit();
+        assertNotNull(second);
+        long count = StreamSupport.stream(first, false).count() + StreamSupport.stream(second, false).count();
+        assertEquals(map.size(), count);
+        assertEquals(map.size(), StreamSupport.stream(PaletteBlockStorage.of(map).spliterator(BlockPos.ZERO), true).count());
+    }
+
+    private Map<BlockPos, BlockData> createCube(int size) {
+        Map<BlockPos, BlockData> map = new HashMap<>();
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                for (int z = 0; z < size; z++)
+                    map.put(new BlockPos(x, y, z), DATA[random.nextInt(DATA.length)]);
+            }
+        }
+        return map;
+    }
+
+    private void assertContainsExactly(Map<BlockPos, BlockData> expected, PaletteBlockStorage storage) {
+        assertEquals(expected.size(), storage.size());
+        expected.forEach((pos, data) -> assertEquals(data, storage.get(pos.getX(), pos.getY(), pos.getZ())));
+        Map<BlockPos, BlockData> iterated = new HashMap<>();
+        storage.forEach((x, y, z, data) -> iterated.put(new BlockPos(x, y, z), data));
+        assertEquals(expected, iterated);
+        storage.spliterator(BlockPos.ZERO).forEachRemaining(t -> assertEquals(expected.get(t.getPos()), t.getData()));
+    }
+}
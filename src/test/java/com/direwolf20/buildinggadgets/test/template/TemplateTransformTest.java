@@ -0,0 +1,100 @@
+package com.direwolf20.buildinggadgets.test.template;
+
+import com.direwolf20.buildinggadgets.common.building.Region;
+import com.direwolf20.buildinggadgets.common.template.TemplateTransform;
+import com.direwolf20.buildinggadgets.common.util.tools.MathUtils;
+import net.minecraft.util.Direction.Axis;
+import net.minecraft.util.Rotation;
+import net.minecraft.util.math.BlockPos;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TemplateTransformTest {
+    private static final BlockPos POS = new BlockPos(3, - 7, 11);
+
+    @Test
+    void fourQuarterRotationsShouldBeIdentity() {
+        TemplateTransform transform = TemplateTransform.IDENTITY;
+        for (int i = 0; i < 4; i++)
+            transform = transform.rotate(Axis.Y, Rotation.CLOCKWISE_90);
+        assertTrue(transform.isIdentity());
+    }
+
+    @Test
+    void mirroringTwiceShouldBeIdentity() {
+        assertTrue(TemplateTransform.IDENTITY.mirror(Axis.X).mirror(Axis.X).isIdentity());
+        assertTrue(TemplateTransform.IDENTITY.mirror(Axis.Z).mirror(Axis.Z).isIdentity());
+    }
+
+    @Test
+    void rotationShouldMatchRotationMatrix() {
+        for (Axis axis : Axis.values()) {
+            for (Rotation rotation : Rotation.values()) {
+                TemplateTransform transform = TemplateTransform.IDENTITY.rotate(axis, rotation);
+                BlockPos expected = MathUtils.matrixMul(MathUtils.rotationMatrixFor(axis, rotation), POS);
+                assertEquals(expected, transformed(transform, POS));
+            }
+        }
+    }
+
+    @Test
+    void composedRotationsShouldBeAppliedInOrder() {
+        TemplateTransform transform = TemplateTransform.IDENTITY
+                .rotate(Axis.X, Rotation.CLOCKWISE_90)
+                .rotate(Axis.Y, Rotation.CLOCKWISE_90);
+        BlockPos expected = MathUtils.matrixMul(MathUtils.rotationMatrixFor(Axis.Y, Rotation.CLOCKWISE_90),
+                MathUtils.matrixMul(MathUtils.rotationMatrixFor(Axis.X, Rotation.CLOCKWISE_90), POS));
+        assertEquals(expected, transformed(transform, POS));
+    }
+
+    @Test
+    void mirrorShouldNegateTheCorrectAxis() {
+        assertEquals(new BlockPos(3, - 7, - 11), transformed(TemplateTransform.IDENTITY.mirror(Axis.X), POS));
+        assertEquals(new BlockPos(- 3, - 7, 11), transformed(TemplateTransform.IDENTITY.mirror(Axis.Z), POS));
+    }
+
+    @Test
+    void inverseShouldUndoTransform() {
+        TemplateTransform transform = TemplateTransform.IDENTITY
+                .rotate(Axis.Y, Rotation.CLOCKWISE_90)
+                .mirror(Axis.X)
+                .rotate(Axis.Z, Rotation.COUNTERCLOCKWISE_90);
+        BlockPos res = transformed(transform, POS);
+        assertEquals(POS, new BlockPos(
+                transform.inverseX(res.getX(), res.getY(), res.getZ()),
+                transform.inverseY(res.getX(), res.getY(), res.getZ()),
+                transform.inverseZ(res.getX(), res.getY(), res.getZ())));
+    }
+
+    @Test
+    void relativeTransformShouldLeadFromBaseToTarget() {
+        TemplateTransform base = TemplateTransform.IDENTITY
+                .rotate(Axis.Y, Rotation.CLOCKWISE_90)
+                .mirror(Axis.Z);
+        TemplateTransform target = base
+                .rotate(Axis.X, Rotation.CLOCKWISE_180)
+                .mirror(Axis.X)
+                .rotate(Axis.Y, Rotation.COUNTERCLOCKWISE_90);
+        TemplateTransform composed = base.andThen(target.relativeTo(base));
+        assertEquals(transformed(target, POS), transformed(composed, POS));
+        assertTrue(base.relativeTo(base).isIdentity());
+    }
+
+    @Test
+    void transformedRegionShouldEncloseTransformedCorners() {
+        Region region = new Region(0, 0, 0, 4, 2, 9);
+        TemplateTransform transform = TemplateTransform.IDENTITY.rotate(Axis.Y, Rotation.CLOCKWISE_90);
+        Region transformed = transform.transform(region);
+        assertEquals(region.size(), transformed.size());
+        for (BlockPos pos : region)
+            assertTrue(transformed.contains(transformed(transform, pos)));
+    }
+
+    private static BlockPos transformed(TemplateTransform transform, BlockPos pos) {
+        return new BlockPos(
+                transform.transformX(pos.getX(), pos.getY(), pos.getZ()),
+                transform.transformY(pos.getX(), pos.getY(), pos.getZ()),
+                transform.transformZ(pos.getX(), pos.getY(), pos.getZ()));
+    }
+}
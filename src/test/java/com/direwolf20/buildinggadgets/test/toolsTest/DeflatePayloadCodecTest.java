@@ -0,0 +1,131 @@
+package com.direwolf20.buildinggadgets.test.toolsTest;
+
+import com.direwolf20.buildinggadgets.common.network.split.DeflatePayloadCodec;
+import com.direwolf20.buildinggadgets.common.template.TemplateIO;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeflatePayloadCodecTest {
+    private static final int MAX_DECODED = 1 << 20;
+    private static final DeflatePayloadCodec CODEC = new DeflatePayloadCodec(UnpooledByteBufAllocator.DEFAULT, Deflater.DEFAULT_COMPRESSION, TemplateIO.createTransferDictionary(), MAX_DECODED);
+    private static final DeflatePayloadCodec PLAIN_CODEC = new DeflatePayloadCodec(UnpooledByteBufAllocator.DEFAULT, Deflater.DEFAULT_COMPRESSION, null, MAX_DECODED);
+
+    @Test
+    void payloadShouldRoundTrip() throws IOException {
+        ByteBuf message = Unpooled.wrappedBuffer(templateLikePayload(5000));
+        ByteBuf encoded = CODEC.encode(message);
+        ByteBuf decoded = CODEC.decode(encoded);
+        assertTrue(ByteBufUtil.equals(message, decoded));
+        encoded.release();
+        decoded.release();
+        message.release();
+    }
+
+    @Test
+    void payloadSplitIntoDirectPartsShouldRoundTrip() throws IOException {
+        byte[] bytes = templateLikePayload(50000);
+        ByteBuf encoded = CODEC.encode(Unpooled.wrappedBuffer(bytes));
+        //mimic the reassembled parts received from the network
+        CompositeByteBuf parts = Unpooled.compositeBuffer();
+        for (int i = 0; i < encoded.readableBytes(); i += 1000) {
+            int length = Math.min(1000, encoded.readableBytes() - i);
+            parts.addComponent(true, Unpooled.directBuffer(length).writeBytes(encoded, i, length));
+        }
+        ByteBuf decoded = CODEC.decode(parts);
+        assertArrayEquals(bytes, ByteBufUtil.getBytes(decoded));
+        encoded.release();
+        parts.release();
+        decoded.release();
+    }
+
+    @Test
+    void dictionaryShouldShrinkSmallTemplates() throws IOException {
+        ByteBuf message = Unpooled.wrappedBuffer(templateLikePayload(50));
+        ByteBuf withDictionary = CODEC.encode(message);
+        ByteBuf withoutDictionary = PLAIN_CODEC.encode(message);
+        assertTrue(withDictionary.readableBytes() < withoutDictionary.readableBytes(),
+                "Dictionary compressed to " + withDictionary.readableBytes() + " bytes, plain to " + withoutDictionary.readableBytes());
+        withDictionary.release();
+        withoutDictionary.release();
+    }
+
+    @Test
+    void truncatedPayloadShouldBeRejected() throws IOException {
+        ByteBuf encoded = CODEC.encode(Unpooled.wrappedBuffer(templateLikePayload(5000)));
+        assertThrows(IllegalArgumentException.class, () -> CODEC.decode(encoded.slice(0, encoded.readableBytes() / 2)));
+        encoded.release();
+    }
+
+    @Test
+    void oversizedPayloadShouldBeRejected() {
+        ByteBuf encoded = CODEC.encode(Unpooled.wrappedBuffer(new byte[MAX_DECODED + 1]));
+        assertThrows(IllegalArgumentException.class, () -> CODEC.decode(encoded));
+        encoded.release();
+    }
+
+    @Test
+    void payloadOfExactlyTheLimitShouldRoundTrip() {
+        ByteBuf message = Unpooled.wrappedBuffer(new byte[MAX_DECODED]);
+        ByteBuf encoded = CODEC.encode(message);
+        ByteBuf decoded = CODEC.decode(encoded);
+        assertEquals(MAX_DECODED, decoded.readableBytes());
+        assertTrue(decoded.capacity() <= MAX_DECODED);
+        encoded.release();
+        decoded.release();
+        message.release();
+    }
+
+    @Test
+    void limitBelowTheBufferSizeShouldBeEnforced() {
+        DeflatePayloadCodec smallCodec = new DeflatePayloadCodec(UnpooledByteBufAllocator.DEFAULT, Deflater.DEFAULT_COMPRESSION, null, 100);
+        ByteBuf fitting = smallCodec.encode(Unpooled.wrappedBuffer(new byte[100]));
+        ByteBuf decoded = smallCodec.decode(fitting);
+        assertEquals(100, decoded.readableBytes());
+        ByteBuf oversized = smallCodec.encode(Unpooled.wrappedBuffer(new byte[101]));
+        assertThrows(IllegalArgumentException.class, () -> smallCodec.decode(oversized));
+        fitting.release();
+        decoded.release();
+        oversized.release();
+    }
+
+    /**
+     * Approximates the binary Template format: a palette of block states as nbt strings, followed by 2 var-int bytes per block.
+     */
+    private static byte[] templateLikePayload(int blocks) throws IOException {
+        String[][] palette = {
+                {"minecraft:stone"}, {"minecraft:oak_planks"}, {"minecraft:glass"},
+                {"minecraft:oak_stairs", "facing", "north", "half", "bottom", "shape", "straight", "waterlogged", "false"},
+                {"minecraft:stone_slab", "type", "top", "waterlogged", "false"}
+        };
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(palette.length);
+        for (String[] entry : palette) {
+            out.writeUTF("state");
+            out.writeUTF("Name");
+            out.writeUTF(entry[0]);
+            if (entry.length > 1)
+                out.writeUTF("Properties");
+            for (int i = 1; i < entry.length; i++)
+                out.writeUTF(entry[i]);
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < blocks; i++) {
+            out.writeByte(1 + (random.nextInt(8) == 0 ? 2 : 0));
+            out.writeByte(random.nextInt(palette.length));
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,54 @@
+package com.direwolf20.buildinggadgets.test.toolsTest;
+
+import com.direwolf20.buildinggadgets.common.util.compression.VarInts;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VarIntsTest {
+    private static final int[] INTS = {0, 1, - 1, 127, 128, - 128, 300, 1 << 21, Integer.MAX_VALUE, Integer.MIN_VALUE};
+    private static final long[] LONGS = {0, 1, - 1, 1L << 35, - (1L << 40), Long.MAX_VALUE, Long.MIN_VALUE};
+
+    @Test
+    void varIntsShouldRoundTrip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int value : INTS) {
+            VarInts.writeVarInt(out, value);
+            VarInts.writeVarInt(out, VarInts.zigZag(value));
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (int value : INTS) {
+            assertEquals(value, VarInts.readVarInt(in));
+            assertEquals(value, VarInts.unZigZag(VarInts.readVarInt(in)));
+        }
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    void varLongsShouldRoundTrip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (long value : LONGS) {
+            VarInts.writeVarLong(out, value);
+            VarInts.writeVarLong(out, VarInts.zigZag(value));
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (long value : LONGS) {
+            assertEquals(value, VarInts.readVarLong(in));
+            assertEquals(value, VarInts.unZigZag(VarInts.readVarLong(in)));
+        }
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    void smallZigZaggedValuesShouldTakeOneByte() throws IOException {
+        for (int value = - 64; value < 64; value++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            VarInts.writeVarInt(new DataOutputStream(bytes), VarInts.zigZag(value));
+            assertEquals(1, bytes.size(), "Value " + value);
+        }
+    }
+}